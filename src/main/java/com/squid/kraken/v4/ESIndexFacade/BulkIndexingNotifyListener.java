@@ -23,45 +23,103 @@
  *******************************************************************************/
 package com.squid.kraken.v4.ESIndexFacade;
 
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CompletableFuture;
 
 import org.elasticsearch.action.bulk.BulkItemResponse;
 import org.elasticsearch.action.bulk.BulkProcessor;
 import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.bulk.BulkResponse;
 
+/**
+ * Track the bulks sent by a BulkProcessor: the completion future is done when
+ * the processor is closed and all its bulks are acknowledged.
+ *
+ */
 public class BulkIndexingNotifyListener implements BulkProcessor.Listener {
 
-	private CountDownLatch finish ;
+	private final CompletableFuture<String> completion = new CompletableFuture<String>();
+
+	private final BulkIndexingTracker tracker;
+
+	private final String key;
+
+	private final long start = System.currentTimeMillis();
 
 	public String lastId;
 	public boolean withError;
-	
-	public BulkIndexingNotifyListener(CountDownLatch lock){
-		this.finish = lock;
+
+	private int pending = 0;
+	private int actions = 0;
+	private boolean closed = false;
+
+	public BulkIndexingNotifyListener(BulkIndexingTracker tracker, String key) {
+		this.tracker = tracker;
+		this.key = key;
+	}
+
+	/**
+	 * @return the domain/type being indexed
+	 */
+	public String getKey() {
+		return key;
 	}
-	
+
+	/**
+	 * @return completed with the id of the last document indexed, or
+	 *         exceptionally if a bulk failed
+	 */
+	public CompletableFuture<String> getCompletion() {
+		return completion;
+	}
+
+	/**
+	 * @return the number of documents sent so far
+	 */
+	public synchronized int getActions() {
+		return actions;
+	}
+
 	@Override
-	public void beforeBulk(long executionId, BulkRequest request) {
-		// TODO Auto-generated method stub
-		
+	public synchronized void beforeBulk(long executionId, BulkRequest request) {
+		pending++;
+		actions += request.numberOfActions();
 	}
 
 	@Override
-	public void afterBulk(long executionId, BulkRequest request,
+	public synchronized void afterBulk(long executionId, BulkRequest request,
 			BulkResponse response) {
 			BulkItemResponse[] itemsResp = response.getItems();
 			BulkItemResponse lastAction = itemsResp[itemsResp.length  -1];
 			lastId= lastAction.getId();
-			withError = false;
-			finish.countDown();
+			pending--;
+			checkCompletion();
 	}
 
 	@Override
-	public void afterBulk(long executionId, BulkRequest request,
+	public synchronized void afterBulk(long executionId, BulkRequest request,
 			Throwable failure) {
 		withError = true;
-		finish.countDown();		
+		pending--;
+		checkCompletion();
+	}
+
+	/**
+	 * to call once the BulkProcessor is closed: all its bulks are sent
+	 */
+	public synchronized void close() {
+		closed = true;
+		checkCompletion();
+	}
+
+	private void checkCompletion() {
+		if (closed && pending == 0 && !completion.isDone()) {
+			tracker.done(this, actions, System.currentTimeMillis() - start);
+			if (withError) {
+				completion.completeExceptionally(new ESIndexFacadeException("bulk indexing ended with error"));
+			} else {
+				completion.complete(lastId);
+			}
+		}
 	}
 
 }
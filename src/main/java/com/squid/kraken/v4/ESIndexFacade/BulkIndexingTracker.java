@@ -0,0 +1,182 @@
+/*******************************************************************************
+ * Copyright © Squid Solutions, 2016
+ *
+ * This file is part of Open Bouquet software.
+ *  
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * There is a special FOSS exception to the terms and conditions of the 
+ * licenses as they are applied to this program. See LICENSE.txt in
+ * the directory of this program distribution.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * Squid Solutions also offers commercial licenses with additional warranties,
+ * professional functionalities or services. If you purchase a commercial
+ * license, then it supersedes and replaces any other agreement between
+ * you and Squid Solutions (above licenses and LICENSE.txt included).
+ * See http://www.squidsolutions.com/EnterpriseBouquet/
+ *******************************************************************************/
+package com.squid.kraken.v4.ESIndexFacade;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keep track of the bulks sent while a type is being indexed, so we can wait
+ * for their completion instead of polling the index.
+ * 
+ * A build starts a Scope for the type: the bulks sent to that type are then
+ * tracked by the scope until the build waits for them, so a build only sees
+ * the failures of its own bulks.
+ * 
+ * The timeout is adapted to the measured indexing rate: the time to index the
+ * pending documents at that rate, times TIMEOUT_FACTOR.
+ *
+ */
+public class BulkIndexingTracker {
+
+	static final Logger logger = LoggerFactory.getLogger(BulkIndexingTracker.class);
+
+	private static final long MIN_TIMEOUT = 5000;
+	private static final long MAX_TIMEOUT = 300000;
+	private static final int TIMEOUT_FACTOR = 4;
+
+	// weight of the last bulk in the rate average
+	private static final double RATE_SMOOTHING = 0.2;
+
+	// the scope of the build in progress for each type
+	private final ConcurrentHashMap<String, Scope> scopes = new ConcurrentHashMap<>();
+
+	// documents per second
+	private volatile double rate = 0;
+
+	/**
+	 * the bulks sent to a type by a build
+	 *
+	 */
+	public static class Scope {
+
+		private final String key;
+
+		private final List<BulkIndexingNotifyListener> listeners = new ArrayList<>();
+
+		private Scope(String key) {
+			this.key = key;
+		}
+
+		private synchronized void add(BulkIndexingNotifyListener listener) {
+			listeners.add(listener);
+		}
+
+		private synchronized List<BulkIndexingNotifyListener> getListeners() {
+			return new ArrayList<>(listeners);
+		}
+
+		@Override
+		public String toString() {
+			return key;
+		}
+
+	}
+
+	/**
+	 * start tracking the bulks sent to that type; it replaces the previous
+	 * scope of the type, if any
+	 */
+	public Scope begin(String domainName, String typeName) {
+		String key = domainName + "/" + typeName;
+		Scope scope = new Scope(key);
+		scopes.put(key, scope);
+		return scope;
+	}
+
+	/**
+	 * create a listener for a new BulkProcessor indexing in that type
+	 */
+	public BulkIndexingNotifyListener track(String domainName, String typeName) {
+		String key = domainName + "/" + typeName;
+		BulkIndexingNotifyListener listener = new BulkIndexingNotifyListener(this, key);
+		Scope scope = scopes.get(key);
+		if (scope != null) {
+			scope.add(listener);
+		}
+		return listener;
+	}
+
+	/**
+	 * wait until all the bulks of the scope are acknowledged; the scope does
+	 * not track new bulks after this call
+	 * 
+	 * @return false if a bulk of the scope failed, or if the bulks did not
+	 *         complete in time
+	 * @throws InterruptedException
+	 */
+	public boolean await(Scope scope) throws InterruptedException {
+		scopes.remove(scope.key, scope);
+		List<CompletableFuture<String>> futures = new ArrayList<>();
+		long actions = 0;
+		for (BulkIndexingNotifyListener listener : scope.getListeners()) {
+			futures.add(listener.getCompletion());
+			if (!listener.getCompletion().isDone()) {
+				actions += listener.getActions();
+			}
+		}
+		if (futures.isEmpty()) {
+			return true;
+		}
+		long timeout = getTimeout(actions);
+		try {
+			CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()])).get(timeout,
+					TimeUnit.MILLISECONDS);
+			return true;
+		} catch (ExecutionException e) {
+			logger.info("indexing failed for " + scope + ": " + e.getCause().getMessage());
+			return false;
+		} catch (TimeoutException e) {
+			logger.info("indexing of " + actions + " documents in " + scope + " not completed after " + timeout
+					+ "ms");
+			return false;
+		}
+	}
+
+	/**
+	 * the time we can wait for that number of documents to be indexed
+	 */
+	protected long getTimeout(long actions) {
+		double current = rate;
+		if (current <= 0) {
+			return MAX_TIMEOUT;
+		}
+		long expected = (long) (actions * 1000 / current) * TIMEOUT_FACTOR;
+		return Math.min(MAX_TIMEOUT, Math.max(MIN_TIMEOUT, expected));
+	}
+
+	/**
+	 * @return the measured indexing rate, in documents per second
+	 */
+	public double getRate() {
+		return rate;
+	}
+
+	protected void done(BulkIndexingNotifyListener listener, int actions, long duration) {
+		if (actions > 0 && duration > 0) {
+			double last = actions * 1000.0 / duration;
+			double current = rate;
+			rate = current <= 0 ? last : current + RATE_SMOOTHING * (last - current);
+		}
+	}
+
+}
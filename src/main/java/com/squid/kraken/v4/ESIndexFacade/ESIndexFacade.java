@@ -32,7 +32,7 @@ import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 
 import org.elasticsearch.ElasticsearchException;
 import org.elasticsearch.action.admin.indices.create.CreateIndexResponse;
@@ -94,6 +94,8 @@ public class ESIndexFacade implements IESIndexFacade {
 	private Client client;
 	private Node node;
 
+	private final BulkIndexingTracker tracker = new BulkIndexingTracker();
+
 	private static int MIN_NGRAM = 1;
 	private static int MAX_NGRAM = 6;
 
@@ -547,38 +549,28 @@ public class ESIndexFacade implements IESIndexFacade {
 			throws ESIndexFacadeException {
 		try {
 
-			CountDownLatch finish = new CountDownLatch(1);
-			BulkProcessor.Listener listener;
-			if (wait) {
-				listener = new BulkIndexingNotifyListener(finish);
-			} else {
-				listener = new SimpleIndexingListener();
-			}
-
+			BulkIndexingNotifyListener listener = tracker.track(domainName, dimensionName);
 			BulkProcessor bulkProcessor = BulkProcessor.builder(client, listener).build();
 			// }).setBulkActions(bulkSize).setConcurrentRequests(maxConcurrentBulk).build();
 
-			for (HashMap<String, Object> attributes : members) {
-				IndexRequest req = new IndexRequest().index(domainName).type(dimensionName)
-						.id(attributes.get(idName).toString()).source(attributes);
-				// System.out.println(req.toString());
-				bulkProcessor.add(req);
+			try {
+				for (HashMap<String, Object> attributes : members) {
+					IndexRequest req = new IndexRequest().index(domainName).type(dimensionName)
+							.id(attributes.get(idName).toString()).source(attributes);
+					// System.out.println(req.toString());
+					bulkProcessor.add(req);
+				}
+			} finally {
+				bulkProcessor.close();
+				listener.close();
 			}
-			bulkProcessor.close();
 			if (wait) {
-				BulkIndexingNotifyListener l = (BulkIndexingNotifyListener) listener;
 				try {
-					finish.await();
-				} catch (InterruptedException e) {
+					return listener.getCompletion().get();
+				} catch (InterruptedException | ExecutionException e) {
 					throw new ESIndexFacadeException(
 							"Dimension Indexation ended with error " + domainName + "/" + dimensionName);
 				}
-				if (l.withError) {
-					throw new ESIndexFacadeException(
-							"Dimension Indexation ended with error " + domainName + "/" + dimensionName);
-				} else {
-					return l.lastId;
-				}
 			} else {
 				return "";
 			}
@@ -822,45 +814,45 @@ public class ESIndexFacade implements IESIndexFacade {
 			Collection<List<DimensionMember>> ids, HashMap<String, ESMapping> mappings, boolean wait)
 			throws ESIndexFacadeException {
 
-		CountDownLatch finish = new CountDownLatch(1);
-
-		BulkProcessor.Listener listener;
-		if (wait) {
-			listener = new BulkIndexingNotifyListener(finish);
-		} else {
-			listener = new SimpleIndexingListener();
-		}
-
+		BulkIndexingNotifyListener listener = tracker.track(domainName, hierarchyName);
 		BulkProcessor bulkProcessor = BulkProcessor.builder(client, listener).build();
 		// }).setBulkActions(bulkSize).setConcurrentRequests(maxConcurrentBulk).build();
 
-		for (List<DimensionMember> corr : ids) {
-			if (types.size() != corr.size()) {
-				continue;
-			}
-			HashMap<String, Object> source = ESIndexFacadeUtilities.buildSourceIDs(types, corr, mappings);
+		try {
+			for (List<DimensionMember> corr : ids) {
+				if (types.size() != corr.size()) {
+					continue;
+				}
+				HashMap<String, Object> source = ESIndexFacadeUtilities.buildSourceIDs(types, corr, mappings);
 
-			IndexRequest req = new IndexRequest().index(domainName).type(hierarchyName).source(source);
-			bulkProcessor.add(req);
+				IndexRequest req = new IndexRequest().index(domainName).type(hierarchyName).source(source);
+				bulkProcessor.add(req);
+			}
+		} finally {
+			bulkProcessor.close();
+			listener.close();
 		}
-		bulkProcessor.close();
 		if (wait) {
-			BulkIndexingNotifyListener l = (BulkIndexingNotifyListener) listener;
 			try {
-				finish.await();
-			} catch (InterruptedException e) {
-				throw new ESIndexFacadeException("Correlation Indexation ended with error ");
-			}
-			if (l.withError) {
+				return listener.getCompletion().get();
+			} catch (InterruptedException | ExecutionException e) {
 				throw new ESIndexFacadeException("Correlation Indexation ended with error ");
-			} else {
-				return l.lastId;
 			}
 		} else {
 			return "";
 		}
 	};
 
+	@Override
+	public BulkIndexingTracker.Scope beginIndexation(String domainName, String typeName) {
+		return tracker.begin(domainName, typeName);
+	}
+
+	@Override
+	public boolean awaitIndexation(BulkIndexingTracker.Scope scope) throws InterruptedException {
+		return tracker.await(scope);
+	}
+
 	@Override
 	public String addHierarchyCorrelation(String domainName, String hierarchyName, ArrayList<String> types,
 			List<DimensionMember> corr, HashMap<String, ESMapping> mappings) throws ESIndexFacadeException {
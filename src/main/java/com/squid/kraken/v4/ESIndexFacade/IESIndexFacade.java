@@ -109,6 +109,20 @@ public interface IESIndexFacade {
 			Collection<List<DimensionMember>> ids, HashMap<String, ESMapping> mappings, boolean wait)
 			throws ESIndexFacadeException;
 
+	/**
+	 * start tracking the batches sent to that type
+	 * 
+	 * @return the scope to wait for
+	 */
+	public BulkIndexingTracker.Scope beginIndexation(String domainName, String typeName);
+
+	/**
+	 * wait until the batches sent in that scope are indexed
+	 * 
+	 * @return false if a batch failed or is not indexed in time
+	 */
+	public boolean awaitIndexation(BulkIndexingTracker.Scope scope) throws InterruptedException;
+
 	public String addHierarchyCorrelation(String domainName, String hierarchyName, ArrayList<String> types,
 			List<DimensionMember> corr, HashMap<String, ESMapping> mappings) throws ESIndexFacadeException;
 
@@ -60,6 +60,7 @@ import com.squid.core.expression.scope.DefaultScope;
 import com.squid.core.expression.scope.ScopeException;
 import com.squid.core.poi.ExcelFile;
 import com.squid.core.poi.ExcelSettingsBean;
+import com.squid.kraken.v4.KrakenConfig;
 import com.squid.kraken.v4.api.core.APIException;
 import com.squid.kraken.v4.api.core.AccessRightsUtils;
 import com.squid.kraken.v4.api.core.ComputingInProgressAPIException;
@@ -142,6 +143,9 @@ public class AnalyticsServiceBaseImpl extends AnalyticsServiceCore implements An
 	static final Logger logger = LoggerFactory
 			.getLogger(AnalyticsServiceBaseImpl.class);
 
+	// write the RECORDS and TABLE data directly to the response
+	private static final boolean STREAMING_FLAG = new Boolean(KrakenConfig.getProperty("feature.streaming", "true"));
+
 	private UriInfo uriInfo = null;
 
 	private URI publicBaseUri = null;
@@ -947,7 +951,7 @@ public class AnalyticsServiceBaseImpl extends AnalyticsServiceCore implements An
 				envelope = computeEnvelope(query);
 			}
 
-			AnalyticsReply reply = super.runAnalysis(userContext, BBID, stateId, query, data, computeGrowth, applyFormatting, timeout);
+			AnalyticsReply reply = super.runAnalysis(userContext, BBID, stateId, query, data, computeGrowth, applyFormatting, timeout, STREAMING_FLAG);
 			//
 			if (query.getStyle()==Style.HTML && data==DataLayout.SQL) {
 				return generator.createHTMLsql(reply.getResult().toString());
@@ -83,6 +83,7 @@ import com.squid.kraken.v4.core.analysis.datamatrix.DataMatrix;
 import com.squid.kraken.v4.core.analysis.datamatrix.IDataMatrixConverter;
 import com.squid.kraken.v4.core.analysis.datamatrix.MeasureValues;
 import com.squid.kraken.v4.core.analysis.datamatrix.RecordConverter;
+import com.squid.kraken.v4.core.analysis.datamatrix.StreamConverter;
 import com.squid.kraken.v4.core.analysis.datamatrix.TableConverter;
 import com.squid.kraken.v4.core.analysis.datamatrix.TransposeConverter;
 import com.squid.kraken.v4.core.analysis.engine.bookmark.BookmarkManager;
@@ -185,6 +186,25 @@ public class AnalyticsServiceCore {
 			boolean applyFormatting,
 			Integer timeout
 			) throws InterruptedException, TimeoutException, ScopeException, ComputingException, SQLScopeException, RenderingException
+	{
+		return runAnalysis(userContext, BBID, stateId, query, data, computeGrowth, applyFormatting, timeout, false);
+	}
+
+	/**
+	 * run the analysis
+	 * @param streaming : if true, the RECORDS and TABLE data are returned as a stream that writes the rows when the result is serialized
+	 */
+	public AnalyticsReply runAnalysis(
+			final AppContext userContext,
+			String BBID,
+			String stateId,
+			final AnalyticsQuery query,
+			DataLayout data,
+			boolean computeGrowth,
+			boolean applyFormatting,
+			Integer timeout,
+			boolean streaming
+			) throws InterruptedException, TimeoutException, ScopeException, ComputingException, SQLScopeException, RenderingException
 	{
 		Space space = null;// if we can initialize it, fine to report in the catch block
 		//
@@ -269,6 +289,15 @@ public class AnalyticsServiceCore {
 				if (data==DataLayout.LEGACY) {
 					DataTable legacy = matrix.toDataTable(userContext, query.getMaxResults(), query.getStartIndex(), false, null);
 					reply.setResult(legacy);
+				} else if (streaming && StreamConverter.isSupported(data)) {
+					DataHeader header = computeDataHeader(matrix, computePrettyPrinterOptions(query.getStyle(), space));
+					AnalyticsResult result = new AnalyticsResult();
+					StreamConverter.DataStream output = new StreamConverter(data).convert(query, matrix);
+					result.setHeader(header);
+					result.setDataLayout(data);
+					result.setData(output);
+					result.setInfo(getAnalyticsResultInfo(output.size(), query.getStartIndex(), matrix));
+					reply.setResult(result);
 				} else {
 					IDataMatrixConverter<Object[]> converter = getConverter(data);
 					DataHeader header = computeDataHeader(matrix, computePrettyPrinterOptions(query.getStyle(), space));
@@ -124,6 +124,10 @@ public class AnalysisJobComputer implements JobComputer<ProjectAnalysisJob, Proj
 		} catch (Exception e) {
 			throw new ComputingException(e);
 		}
+		if (maxResults != null) {
+			// only the requested page is needed
+			analysis.setMaxRows((startIndex != null ? Math.max(startIndex, 0) : 0) + Math.max(maxResults, 0));
+		}
 
 		// run the analysis
 		DataMatrix datamatrix = ComputingService.INSTANCE.glitterAnalysis(analysis, null);
@@ -24,9 +24,12 @@
 package com.squid.kraken.v4.caching.redis;
 
 import java.util.HashSet;
+import java.util.Map;
 
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -44,6 +47,9 @@ import com.squid.kraken.v4.caching.redis.queryworkerserver.MockQueryWorker;
 import com.squid.kraken.v4.caching.redis.queryworkerserver.QueryWorkerFactory;
 import com.squid.kraken.v4.caching.redis.queryworkerserver.QueryWorkerRestService;
 import com.squid.kraken.v4.caching.redis.queryworkerserver.QueryWorkerServer;
+import com.squid.kraken.v4.core.analysis.engine.hierarchy.DimensionValuesDictionary;
+import com.squid.kraken.v4.core.analysis.engine.hierarchy.HierarchyIndexingPipeline;
+import com.squid.kraken.v4.core.analysis.engine.processor.AnalysisSmartCache;
 
 @Path("/cache")
 public class CacheInitPoint {
@@ -62,6 +68,8 @@ public class CacheInitPoint {
 	
 	public void start(RedisCacheConfig conf, HashSet<String> facets) {
 		logger.info("CACHE INITALIZATION 15-01-2015");
+		DimensionValuesDictionary.INSTANCE.setMaximumSize(conf.getDictionaryMaxSize());
+		AnalysisSmartCache.INSTANCE.setShared(conf.isSmartCacheShared() && facets.contains("front"), conf.getSmartCacheTTLInSecond());
         try{
 	        if (facets.contains("queries")){        		
 	        	logger.info(" Facet : Queries");
@@ -103,6 +111,20 @@ public class CacheInitPoint {
 		return "Hi cache";
 	}
 
+	@GET
+	@Path("/dictionary")
+	@Produces({ MediaType.APPLICATION_JSON })
+	public Map<String, Object> getDictionaryStatistics(){
+		return DimensionValuesDictionary.INSTANCE.getStatistics();
+	}
+
+	@GET
+	@Path("/indexing")
+	@Produces({ MediaType.APPLICATION_JSON })
+	public Map<String, Object> getIndexingStatistics(){
+		return HierarchyIndexingPipeline.getStatistics();
+	}
+
 	@Path("/generationalkeys")
 	public GenerationalKeysRestService getKeysServer(){
 		IGenerationalKeysServer serv= GenerationalKeysServerFactory.INSTANCE.getGenerationalKeysServer();
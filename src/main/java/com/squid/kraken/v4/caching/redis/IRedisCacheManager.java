@@ -25,6 +25,7 @@ package com.squid.kraken.v4.caching.redis;
 
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import com.squid.kraken.v4.caching.redis.datastruct.RawMatrix;
 import com.squid.kraken.v4.caching.redis.datastruct.RedisCacheValue;
@@ -76,8 +77,20 @@ public interface IRedisCacheManager {
 
 	public RawMatrix getRawMatrix(String k);
 
+	public RawMatrix getRawMatrix(String k, int maxRows);
+
 	public String addCacheReference(String sqlNoLimit, List<String> dependencies, String referencedKey);
 
 	public IQueriesServer getQueryServer();
 
+	/**
+	 * store a value shared by the cluster and register its key in the index
+	 * set (see IRedisCacheProxy.putIndexed())
+	 */
+	public boolean putIndexed(String indexKey, String key, byte[] value, int ttl);
+
+	public Map<String, byte[]> getIndexed(String indexKey);
+
+	public void removeIndexed(String indexKey, String key);
+
 }
\ No newline at end of file
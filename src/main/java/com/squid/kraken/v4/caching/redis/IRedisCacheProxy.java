@@ -23,7 +23,13 @@
  *******************************************************************************/
 package com.squid.kraken.v4.caching.redis;
 
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+
+import com.squid.kraken.v4.caching.redis.datastruct.ChunkRef;
 import com.squid.kraken.v4.caching.redis.datastruct.RawMatrix;
+import com.squid.kraken.v4.caching.redis.datastruct.RawRow;
 import com.squid.kraken.v4.caching.redis.datastruct.RedisCacheValue;
 import com.squid.kraken.v4.caching.redis.generationalkeysserver.RedisKey;
 
@@ -39,8 +45,71 @@ public interface IRedisCacheProxy {
 
 	public RawMatrix getRawMatrix(String key);
 
+	/**
+	 * read only the first rows of the matrix stored under that key; a chunked
+	 * matrix is read lazily, up to the chunk holding the last row
+	 * 
+	 * @param key
+	 * @param maxRows
+	 * @return the matrix or null if the key is not in cache
+	 */
+	public RawMatrix getRawMatrix(String key, int maxRows);
+
 	public byte[] get(String key);
 
+	/**
+	 * get the values of the keys in a single request
+	 * 
+	 * @param keys
+	 * @return the values by key; the missing keys are not included
+	 */
+	public Map<String, byte[]> getAll(Collection<String> keys);
+
+	/**
+	 * store the values in a single request
+	 * 
+	 * @param values
+	 * @return
+	 */
+	public boolean putAll(Map<String, String> values);
+
+	/**
+	 * get the counters stored in the hash fields
+	 * 
+	 * @param hashKey
+	 * @param fields
+	 * @return the counters by field; the missing fields are not included
+	 */
+	public Map<String, Long> getFields(String hashKey, Collection<String> fields);
+
+	/**
+	 * atomically increment the counters stored in the hash fields (HINCRBY),
+	 * in a single request; a missing field starts from 0
+	 * 
+	 * @param hashKey
+	 * @param fields
+	 * @return the new counters by field
+	 */
+	public Map<String, Long> incrementFields(String hashKey, Collection<String> fields);
+
+	/**
+	 * set the hash fields that don't exist yet (HSETNX), in a single request
+	 * 
+	 * @param hashKey
+	 * @param fields
+	 * @return the counters stored by field, either the ones just set or the
+	 *         existing ones
+	 */
+	public Map<String, Long> initFields(String hashKey, Map<String, Long> fields);
+
+	/**
+	 * publish the messages on the channel in a single request
+	 * 
+	 * @param channel
+	 * @param messages
+	 */
+	public void publishAll(String channel, Collection<String> messages);
+
 	public boolean inCache(RedisKey k);
 
 	public boolean inCache(String key);
@@ -52,4 +121,84 @@ public interface IRedisCacheProxy {
 	public void setTTL(String key, int ttl);
 
 	public RedisCacheValue getRawOrList(String key );
-}
\ No newline at end of file
+
+	/**
+	 * return a lazy iterator over the rows stored under that key, reading the
+	 * chunks one at a time
+	 * 
+	 * @param key
+	 * @return the iterator or null if the key is not in cache
+	 */
+	public Iterator<RawRow> getRowIterator(String key);
+
+	/**
+	 * append a chunk reference to the append-only list of that chunked value
+	 * 
+	 * @param listKey
+	 * @param ref
+	 * @return
+	 */
+	public boolean appendChunkRef(String listKey, ChunkRef ref);
+
+	/**
+	 * remove the chunk references of that chunked value
+	 * 
+	 * @param listKey
+	 */
+	public void clearChunkRefs(String listKey);
+
+	/**
+	 * publish a notification on the channel
+	 * 
+	 * @param channel
+	 * @param message
+	 */
+	public void publish(String channel, String message);
+
+	/**
+	 * subscribe to a notification channel; the subscription must be closed
+	 * 
+	 * @param channel
+	 * @return
+	 */
+	public RedisSubscription subscribe(String channel);
+
+	/**
+	 * subscribe to a notification channel and call the listener with each
+	 * message; the subscription must be closed
+	 * 
+	 * @param channel
+	 * @param listener
+	 * @return
+	 */
+	public RedisSubscription subscribe(String channel, RedisSubscription.Listener listener);
+
+	/**
+	 * store the value and register its key in the index set; both expire
+	 * after ttl seconds
+	 * 
+	 * @param indexKey
+	 * @param key
+	 * @param value
+	 * @param ttl
+	 * @return
+	 */
+	public boolean putIndexed(String indexKey, String key, byte[] value, int ttl);
+
+	/**
+	 * return the values registered in the index set, by key; keys that expired
+	 * are removed from the index
+	 * 
+	 * @param indexKey
+	 * @return
+	 */
+	public Map<String, byte[]> getIndexed(String indexKey);
+
+	/**
+	 * remove the value and its key from the index set
+	 * 
+	 * @param indexKey
+	 * @param key
+	 */
+	public void removeIndexed(String indexKey, String key);
+}
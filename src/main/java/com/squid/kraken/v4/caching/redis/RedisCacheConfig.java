@@ -53,13 +53,41 @@ public class RedisCacheConfig {
 
 	private String appName="";
 
+	// max number of queries running at the same time on a datasource
 	private int querieServerThreadPoolSize = 5;
 
+	// threads shared by all the datasources
+	private int querieServerMaxThreads = 50;
+
 	
 	private int ttlInSecond = 24*60*60;
 	
 	private int maxChunkSizeInMByte= 10;
 
+	// if true the query workers store results using the columnar RawMatrix format
+	private boolean columnarMatrix = false;
+
+	// compression of the matrices stored in redis: NONE, DEFLATE_FAST or DEFLATE
+	private String compressionCodec = "NONE";
+
+	// matrices smaller than that are stored uncompressed
+	private int compressionMinSizeInBytes = 1024;
+
+	// max number of values kept by the DimensionValuesDictionary for each database
+	private long dictionaryMaxSize = 100000;
+
+	// threads shared by all the exports to prefetch chunks
+	private int exportPrefetchThreadPoolSize = 4;
+
+	// number of chunks fetched ahead of the one being exported
+	private int exportReadAheadDepth = 2;
+
+	// if true the smart cache signatures are shared with the other nodes through redis
+	private boolean smartCacheShared = false;
+
+	// how long a shared smart cache signature is kept if not refreshed
+	private int smartCacheTTLInSecond = 24*60*60;
+
 	public RedisCacheConfig(){
 		
 	}
@@ -129,6 +157,14 @@ public class RedisCacheConfig {
 	public void setQuerieServerThreadPoolSize(int querieServerThreadPoolSize) {
 		this.querieServerThreadPoolSize = querieServerThreadPoolSize;
 	}
+
+	public int getQuerieServerMaxThreads() {
+		return querieServerMaxThreads;
+	}
+
+	public void setQuerieServerMaxThreads(int querieServerMaxThreads) {
+		this.querieServerMaxThreads = querieServerMaxThreads;
+	}
 	
 	public int getTtlInSecond() {
 		return ttlInSecond;
@@ -146,6 +182,70 @@ public class RedisCacheConfig {
 		this.maxChunkSizeInMByte = maxChunkSizeInMByte;
 	}
 
+	public boolean isColumnarMatrix() {
+		return columnarMatrix;
+	}
+
+	public void setColumnarMatrix(boolean columnarMatrix) {
+		this.columnarMatrix = columnarMatrix;
+	}
+
+	public String getCompressionCodec() {
+		return compressionCodec;
+	}
+
+	public void setCompressionCodec(String compressionCodec) {
+		this.compressionCodec = compressionCodec;
+	}
+
+	public int getCompressionMinSizeInBytes() {
+		return compressionMinSizeInBytes;
+	}
+
+	public void setCompressionMinSizeInBytes(int compressionMinSizeInBytes) {
+		this.compressionMinSizeInBytes = compressionMinSizeInBytes;
+	}
+
+	public long getDictionaryMaxSize() {
+		return dictionaryMaxSize;
+	}
+
+	public void setDictionaryMaxSize(long dictionaryMaxSize) {
+		this.dictionaryMaxSize = dictionaryMaxSize;
+	}
+
+	public int getExportPrefetchThreadPoolSize() {
+		return exportPrefetchThreadPoolSize;
+	}
+
+	public void setExportPrefetchThreadPoolSize(int exportPrefetchThreadPoolSize) {
+		this.exportPrefetchThreadPoolSize = exportPrefetchThreadPoolSize;
+	}
+
+	public int getExportReadAheadDepth() {
+		return exportReadAheadDepth;
+	}
+
+	public void setExportReadAheadDepth(int exportReadAheadDepth) {
+		this.exportReadAheadDepth = exportReadAheadDepth;
+	}
+
+	public boolean isSmartCacheShared() {
+		return smartCacheShared;
+	}
+
+	public void setSmartCacheShared(boolean smartCacheShared) {
+		this.smartCacheShared = smartCacheShared;
+	}
+
+	public int getSmartCacheTTLInSecond() {
+		return smartCacheTTLInSecond;
+	}
+
+	public void setSmartCacheTTLInSecond(int smartCacheTTLInSecond) {
+		this.smartCacheTTLInSecond = smartCacheTTLInSecond;
+	}
+
 	public static RedisCacheConfig loadFromjson(String filename) throws IOException{
 	
         File file = new File(filename);
@@ -28,6 +28,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.codec.digest.DigestUtils;
 import org.slf4j.Logger;
@@ -43,6 +44,7 @@ import com.squid.kraken.v4.caching.redis.generationalkeysserver.RedisKey;
 import com.squid.kraken.v4.caching.redis.queriesserver.IQueriesServer;
 import com.squid.kraken.v4.caching.redis.queriesserver.QueriesServerFactory;
 import com.squid.kraken.v4.caching.redis.queryworkerserver.QueryWorkerJobRequest;
+import com.squid.kraken.v4.export.ChunkedRawMatrixBaseSource;
 import com.squid.kraken.v4.model.ProjectPK;
 
 public class RedisCacheManager implements IRedisCacheManager {
@@ -93,6 +95,8 @@ public class RedisCacheManager implements IRedisCacheManager {
 
 		this.redis = RedisCacheProxy.getInstance(conf.getRedisID());
 
+		ChunkedRawMatrixBaseSource.setPrefetchConfig(conf.getExportPrefetchThreadPoolSize(), conf.getExportReadAheadDepth());
+
 	}
 
 	@Override
@@ -213,6 +217,7 @@ public class RedisCacheManager implements IRedisCacheManager {
 
 						newList.setError();
 						this.redis.put(list.getRedisKey(), newList.serialize());
+						this.redis.publish(RedisCacheValuesList.getNotificationChannel(list.getRedisKey()), newList.getState().toString());
 						return null;
 					}
 				} else {
@@ -326,10 +331,30 @@ public class RedisCacheManager implements IRedisCacheManager {
 		RawMatrix r = this.redis.getRawMatrix(k);
 		return r;
 	}
+
+	@Override
+	public RawMatrix getRawMatrix(String k, int maxRows) {
+		return this.redis.getRawMatrix(k, maxRows);
+	}
 	
 	@Override
 	public IQueriesServer getQueryServer() {
 		return queriesServ;
 	}
 
+	@Override
+	public boolean putIndexed(String indexKey, String key, byte[] value, int ttl) {
+		return this.redis.putIndexed(indexKey, key, value, ttl);
+	}
+
+	@Override
+	public Map<String, byte[]> getIndexed(String indexKey) {
+		return this.redis.getIndexed(indexKey);
+	}
+
+	@Override
+	public void removeIndexed(String indexKey, String key) {
+		this.redis.removeIndexed(indexKey, key);
+	}
+
 }
@@ -27,6 +27,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.codec.digest.DigestUtils;
 import org.slf4j.Logger;
@@ -164,6 +165,11 @@ public class RedisCacheManagerMock implements IRedisCacheManager {
 		return r;
 	}
 
+	@Override
+	public RawMatrix getRawMatrix(String k, int maxRows) {
+		return this.redis.getRawMatrix(k, maxRows);
+	}
+
 	@Override
 	public RawMatrix getDataLazy(String SQLQuery, List<String> dependencies, String RSjdbcURL, String username,
 			String pwd, int TTLinSec) throws InterruptedException {
@@ -196,4 +202,19 @@ public class RedisCacheManagerMock implements IRedisCacheManager {
 		return queriesServ;
 	}
 
+	@Override
+	public boolean putIndexed(String indexKey, String key, byte[] value, int ttl) {
+		return this.redis.putIndexed(indexKey, key, value, ttl);
+	}
+
+	@Override
+	public Map<String, byte[]> getIndexed(String indexKey) {
+		return this.redis.getIndexed(indexKey);
+	}
+
+	@Override
+	public void removeIndexed(String indexKey, String key) {
+		this.redis.removeIndexed(indexKey, key);
+	}
+
 }
@@ -24,12 +24,22 @@
 package com.squid.kraken.v4.caching.redis;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.squid.kraken.v4.caching.redis.datastruct.ChunkRef;
 import com.squid.kraken.v4.caching.redis.datastruct.RawMatrix;
+import com.squid.kraken.v4.caching.redis.datastruct.RawRow;
+import com.squid.kraken.v4.caching.redis.datastruct.RedisCacheCompression;
 import com.squid.kraken.v4.caching.redis.datastruct.RedisCacheReference;
 import com.squid.kraken.v4.caching.redis.datastruct.RedisCacheValue;
 import com.squid.kraken.v4.caching.redis.datastruct.RedisCacheValuesList;
@@ -39,6 +49,10 @@ import com.squid.kraken.v4.core.analysis.engine.processor.ComputingException;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.Transaction;
 
 public class RedisCacheProxy implements IRedisCacheProxy {
 
@@ -54,6 +68,18 @@ public class RedisCacheProxy implements IRedisCacheProxy {
 	
 	private int maxSizeInByte = 52428800 ;  //50Megabytes
 	
+	// fallback delay to re-check a chunk list if a notification is lost
+	private static final int CHUNK_POLLING_MS = 10000;
+	
+	// all the notification channels share this prefix, so a single pattern subscription is enough
+	public static final String NOTIFICATION_PREFIX = "bouquet:notify:";
+	
+	private RedisSubscriptions subscriptions = new RedisSubscriptions();
+	
+	private Thread subscriber = null;
+	
+	private volatile JedisPubSub pubSub = null;// the current subscription of the subscriber thread
+	
 	public static void setMock(){
 		isMock = true;
 	}
@@ -194,6 +220,7 @@ public class RedisCacheProxy implements IRedisCacheProxy {
 					}else{
 						if(val instanceof RedisCacheValuesList){
 							RedisCacheValuesList  refList = (RedisCacheValuesList) val;
+							loadChunkRefs(jedis, currKey, refList);
 							refList.setRedisKey(currKey);
 							return  refList;
 						}else{
@@ -216,38 +243,253 @@ public class RedisCacheProxy implements IRedisCacheProxy {
 		try (Jedis jedis  = getResourceFromPool()){	
 			
 			logger.info("Rebuilding chunked matrix from cache");
+			String listKey = refList.getRedisKey()!=null?refList.getRedisKey():key;
 			RedisCacheValuesList  currRef = refList;
-			int nbChunks= 0 ;
-			RawMatrix res = null;
+			ArrayList<RawMatrix> chunks = new ArrayList<RawMatrix>();
 			boolean done = false;
+			boolean truncated = false;
 			long size= 0 ;
 			
 			while (!done){
-				int nbChunksDone = nbChunks;
-				for(int i = nbChunksDone;  i <currRef.getReferenceKeys().size() ; i ++){
-					String chunkKey  = currRef.getReferenceKeys().get(nbChunks).referencedKey;
-					logger.info("chunk key " + chunkKey);
-					RawMatrix chunk = this.getRawMatrix(chunkKey) ;
-					res = RawMatrix.mergeMatrices(res, chunk);				
-					nbChunks ++ ;
-				}
-				if (currRef.isDone()){
-					done = true;
-				}else{
-					byte[] serialized = jedis.get(key.getBytes());
-					size+=serialized.length;
-					RedisCacheValue  val = RedisCacheValue.deserialize(serialized);
-					currRef = (RedisCacheValuesList) val;
+				List<ChunkRef> refs = currRef.getReferenceKeys();
+				if (refs.size()>chunks.size()){
+					// fetch all the known chunks in a single round trip
+					List<ChunkRef> newRefs = refs.subList(chunks.size(), refs.size());
+					List<byte[]> serialized = getChunks(jedis, newRefs);
+					for (int i = 0; i < newRefs.size() && !done; i++){
+						String chunkKey = newRefs.get(i).referencedKey;
+						byte[] bytes = serialized.get(i);
+						if (bytes == null){
+							throw new RedisCacheException("missing chunk "+chunkKey+" for key="+listKey);
+						}
+						// count the decompressed size, that's what the matrix takes in memory
+						size+=RedisCacheCompression.getUncompressedLength(bytes);
+						chunks.add(readChunk(chunkKey, bytes));
+						if (size>= maxSizeInByte ){
+							logger.info("Max size of "+ maxSizeInByte  +" bytes reached, for more data please use export");
+							truncated = true;
+							done = true ;
+						}
+					}
 				}
-				if (size>= maxSizeInByte ){
-					logger.info("Max size of "+ maxSizeInByte  +" bytes reached, for more data please use export");
-					done = true ;
+				if (!done){
+					if (currRef.isDone()){
+						done = true;
+					} else if (currRef.isError()){
+						throw new RedisCacheException("the chunked matrix computation failed for key="+listKey);
+					} else {
+						currRef = waitForChunkList(jedis, listKey, currRef);
+					}
 				}
 			}
+			// merge into one pre-allocated matrix
+			RawMatrix res = RawMatrix.mergeMatrices(chunks);
+			if (res == null){
+				throw new ComputingException("no chunk available for key="+listKey);
+			}
+			if (truncated){
+				res.setMoreData(true);
+			}
 			res.setRedisKey(key);
 			return res; 
 		}
 	}
+	
+	/**
+	 * wait until the chunk list is updated by the worker, using the list notification channel
+	 */
+	private RedisCacheValuesList waitForChunkList(Jedis jedis, String listKey, RedisCacheValuesList currRef) throws ClassNotFoundException, IOException {
+		try (RedisSubscription subscription = subscribe(RedisCacheValuesList.getNotificationChannel(listKey))){
+			while (true){
+				long count = subscription.getCount();
+				byte[] serialized = jedis.get(listKey.getBytes());
+				if (serialized == null){
+					throw new RedisCacheException("could not retrieve chunk list for key="+listKey);
+				}
+				RedisCacheValuesList  val = (RedisCacheValuesList) RedisCacheValue.deserialize(serialized);
+				loadChunkRefs(jedis, listKey, val);
+				if (!val.isOngoing() || val.getReferenceKeys().size()>currRef.getReferenceKeys().size()){
+					return val;
+				}
+				subscription.await(count, CHUNK_POLLING_MS);
+			}
+		} catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new RedisCacheException("interrupted while reading chunks for key="+listKey, e);
+		}
+	}
+	
+	/**
+	 * read the append-only list of chunk references, if any; must be called after reading the list state
+	 */
+	private void loadChunkRefs(Jedis jedis, String listKey, RedisCacheValuesList refList){
+		List<byte[]> refs = jedis.lrange(RedisCacheValuesList.getChunkRefsKey(listKey).getBytes(), 0, -1);
+		if (refs!=null && !refs.isEmpty()){
+			ArrayList<ChunkRef> chunkRefs = new ArrayList<ChunkRef>(refs.size());
+			for (byte[] ref : refs){
+				chunkRefs.add(ChunkRef.deserialize(ref));
+			}
+			refList.setReferenceKey(chunkRefs);
+		}
+	}
+	
+	public boolean appendChunkRef(String listKey, ChunkRef ref){
+		try(Jedis jedis  = getResourceFromPool()) {
+			jedis.rpush(RedisCacheValuesList.getChunkRefsKey(listKey).getBytes(), ref.serialize());
+			return true;
+		} catch (RuntimeException e) {
+			logger.error("failed to appendChunkRef() on key="+listKey);
+			return false;
+		}
+	}
+	
+	public void clearChunkRefs(String listKey){
+		try(Jedis jedis  = getResourceFromPool()) {
+			jedis.del(RedisCacheValuesList.getChunkRefsKey(listKey).getBytes());
+		} catch (RuntimeException e) {
+			logger.error("failed to clearChunkRefs() on key="+listKey);
+			throw new RuntimeException("Jedis: clearChunkRefs() failed on key="+listKey, e);
+		}
+	}
+	
+	/**
+	 * get the serialized chunks using a single MGET
+	 */
+	private List<byte[]> getChunks(Jedis jedis, List<ChunkRef> refs){
+		byte[][] keys = new byte[refs.size()][];
+		for (int i = 0; i < keys.length; i++){
+			keys[i] = refs.get(i).referencedKey.getBytes();
+		}
+		return jedis.mget(keys);
+	}
+	
+	private RawMatrix readChunk(String chunkKey, byte[] serialized) throws ClassNotFoundException, IOException{
+		RedisCacheValue val = RedisCacheValue.deserialize(serialized);
+		if (val instanceof RawMatrix){
+			RawMatrix chunk = (RawMatrix) val;
+			chunk.setRedisKey(chunkKey);
+			return chunk;
+		} else {
+			// not a plain matrix, let getRawMatrix() resolve it
+			return this.getRawMatrix(chunkKey);
+		}
+	}
+	
+	/**
+	 * return a lazy iterator over the rows stored under that key. Chunked
+	 * results are read one chunk at a time, so the full matrix is never
+	 * materialized.
+	 */
+	public Iterator<RawRow> getRowIterator(String key){
+		RedisCacheValue val = this.getRawOrList(key);
+		if (val == null){
+			return null;
+		} else if (val instanceof RawMatrix){
+			return ((RawMatrix) val).rowIterator();
+		} else {
+			return new ChunkedRowIterator((RedisCacheValuesList) val);
+		}
+	}
+	
+	public RawMatrix getRawMatrix(String key, int maxRows){
+		RedisCacheValue val = this.getRawOrList(key);
+		if (!(val instanceof RedisCacheValuesList)){
+			return (RawMatrix) val;
+		}
+		ChunkedRowIterator rows = new ChunkedRowIterator((RedisCacheValuesList) val);
+		if (!rows.hasNext()){
+			// no rows to page through
+			return getRawMatrix(key);
+		}
+		// the chunks share the same layout
+		RawMatrix chunk = rows.getChunk();
+		RawMatrix res = new RawMatrix();
+		res.setColNames(new ArrayList<String>(chunk.getColNames()));
+		res.setColTypes(new ArrayList<Integer>(chunk.getColTypes()));
+		while (res.getRowCount()<maxRows && rows.hasNext()){
+			res.addRow(rows.next());
+		}
+		if (rows.hasNext()){
+			logger.info("Read the first "+maxRows+" rows of the chunked matrix key="+key);
+			res.setMoreData(true);
+		} else {
+			res.setMoreData(rows.getChunk().hasMoreData());
+		}
+		res.setExecutionDate(rows.getChunk().getExecutionDate());
+		res.setRedisKey(key);
+		return res;
+	}
+	
+	private class ChunkedRowIterator implements Iterator<RawRow> {
+		
+		private RedisCacheValuesList refList;
+		private String listKey;
+		private int nbChunksRead = 0;
+		private Iterator<RawRow> current = null;
+		private RawMatrix chunk = null;
+		
+		public ChunkedRowIterator(RedisCacheValuesList refList){
+			this.refList = refList;
+			this.listKey = refList.getRedisKey();
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (current==null || !current.hasNext()){
+				if (!nextChunk()){
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public RawRow next() {
+			if (!hasNext()){
+				throw new NoSuchElementException();
+			}
+			return current.next();
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+		
+		private boolean nextChunk(){
+			while (refList.getReferenceKeys().size()<=nbChunksRead){
+				if (refList.isDone()){
+					return false;
+				}
+				if (refList.isError()){
+					throw new RedisCacheException("the chunked matrix computation failed for key="+listKey);
+				}
+				// still ongoing, wait for the next chunk
+				try (Jedis jedis  = getResourceFromPool()){
+					refList = waitForChunkList(jedis, listKey, refList);
+				} catch (ClassNotFoundException | IOException e){
+					throw new RedisCacheException("could not retrieve chunk list for key="+listKey, e);
+				}
+			}
+			String chunkKey = refList.getReferenceKeys().get(nbChunksRead).referencedKey;
+			RawMatrix chunk = getRawMatrix(chunkKey);
+			if (chunk == null){
+				throw new RedisCacheException("missing chunk "+chunkKey+" for key="+listKey);
+			}
+			nbChunksRead++;
+			this.chunk = chunk;
+			current = chunk.rowIterator();
+			return true;
+		}
+		
+		/**
+		 * the chunk being read
+		 */
+		public RawMatrix getChunk(){
+			return chunk;
+		}
+		
+	}
 
 	public byte[] get(String key){	
 
@@ -260,6 +502,113 @@ public class RedisCacheProxy implements IRedisCacheProxy {
 		} 
 	}
 
+	public Map<String, byte[]> getAll(Collection<String> keys){
+		Map<String, byte[]> res = new LinkedHashMap<String, byte[]>();
+		if (keys.isEmpty()){
+			return res;
+		}
+		List<String> names = new ArrayList<String>(keys);
+		byte[][] bkeys = new byte[names.size()][];
+		for (int i = 0; i < bkeys.length; i++){
+			bkeys[i] = names.get(i).getBytes();
+		}
+		try(Jedis jedis  = getResourceFromPool()) {
+			List<byte[]> values = jedis.mget(bkeys);
+			for (int i = 0; i < bkeys.length; i++){
+				if (values.get(i) != null){
+					res.put(names.get(i), values.get(i));
+				}
+			}
+			return res;
+		} catch (RuntimeException e) {
+			logger.error("failed to getAll() on "+names.size()+" keys");
+			throw new RuntimeException("Jedis: getAll() failed", e);
+		}
+	}
+	
+	public boolean putAll(Map<String, String> values){
+		if (values.isEmpty()){
+			return true;
+		}
+		try(Jedis jedis  = getResourceFromPool()) {
+			Pipeline pipeline = jedis.pipelined();
+			for (Map.Entry<String, String> entry : values.entrySet()){
+				pipeline.set(entry.getKey().getBytes(), entry.getValue().getBytes());
+			}
+			pipeline.sync();
+			return true;
+		} catch (RuntimeException e) {
+			logger.error("failed to putAll() on "+values.size()+" keys");
+			throw new RuntimeException("Jedis: putAll() failed", e);
+		}
+	}
+	
+	public Map<String, Long> getFields(String hashKey, Collection<String> fields){
+		Map<String, Long> res = new LinkedHashMap<String, Long>();
+		if (fields.isEmpty()){
+			return res;
+		}
+		List<String> names = new ArrayList<String>(fields);
+		try(Jedis jedis  = getResourceFromPool()) {
+			List<String> values = jedis.hmget(hashKey, names.toArray(new String[names.size()]));
+			for (int i = 0; i < names.size(); i++){
+				if (values.get(i) != null){
+					res.put(names.get(i), Long.valueOf(values.get(i)));
+				}
+			}
+			return res;
+		} catch (RuntimeException e) {
+			logger.error("failed to getFields() on key="+hashKey);
+			throw new RuntimeException("Jedis: getFields() failed on key="+hashKey, e);
+		}
+	}
+	
+	public Map<String, Long> incrementFields(String hashKey, Collection<String> fields){
+		Map<String, Long> res = new LinkedHashMap<String, Long>();
+		if (fields.isEmpty()){
+			return res;
+		}
+		try(Jedis jedis  = getResourceFromPool()) {
+			Pipeline pipeline = jedis.pipelined();
+			Map<String, Response<Long>> responses = new LinkedHashMap<String, Response<Long>>();
+			for (String field : fields){
+				responses.put(field, pipeline.hincrBy(hashKey, field, 1));
+			}
+			pipeline.sync();
+			for (Map.Entry<String, Response<Long>> entry : responses.entrySet()){
+				res.put(entry.getKey(), entry.getValue().get());
+			}
+			return res;
+		} catch (RuntimeException e) {
+			logger.error("failed to incrementFields() on key="+hashKey);
+			throw new RuntimeException("Jedis: incrementFields() failed on key="+hashKey, e);
+		}
+	}
+	
+	public Map<String, Long> initFields(String hashKey, Map<String, Long> fields){
+		Map<String, Long> res = new LinkedHashMap<String, Long>();
+		if (fields.isEmpty()){
+			return res;
+		}
+		try(Jedis jedis  = getResourceFromPool()) {
+			Pipeline pipeline = jedis.pipelined();
+			Map<String, Response<String>> responses = new LinkedHashMap<String, Response<String>>();
+			for (Map.Entry<String, Long> entry : fields.entrySet()){
+				pipeline.hsetnx(hashKey, entry.getKey(), entry.getValue().toString());
+				// read back the stored value, another node may have set it first
+				responses.put(entry.getKey(), pipeline.hget(hashKey, entry.getKey()));
+			}
+			pipeline.sync();
+			for (Map.Entry<String, Response<String>> entry : responses.entrySet()){
+				res.put(entry.getKey(), Long.valueOf(entry.getValue().get()));
+			}
+			return res;
+		} catch (RuntimeException e) {
+			logger.error("failed to initFields() on key="+hashKey);
+			throw new RuntimeException("Jedis: initFields() failed on key="+hashKey, e);
+		}
+	}
+
 	// in cache
 
 	public boolean inCache(RedisKey k){
@@ -288,10 +637,145 @@ public class RedisCacheProxy implements IRedisCacheProxy {
 		} 
 	}
 
-	public void quit(){
+	public synchronized void quit(){
+		if (this.subscriber!=null){
+			this.subscriber.interrupt();
+			// the thread is blocked in psubscribe(), unsubscribe to release it
+			JedisPubSub current = this.pubSub;
+			if (current!=null && current.isSubscribed()){
+				try {
+					current.punsubscribe();
+				} catch (RuntimeException e) {
+					logger.warn("failed to unsubscribe the Redis notification subscriber: "+e.getMessage());
+				}
+			}
+		}
 		this.pool.close();
 	} 
 
+	// PUB/SUB
+	
+	public void publish(String channel, String message){
+		try(Jedis jedis  = getResourceFromPool()) {
+			jedis.publish(NOTIFICATION_PREFIX+channel, message);
+		} catch (RuntimeException e) {
+			// notifications are only hints, the subscribers will eventually re-check
+			logger.warn("failed to publish() on channel="+channel+": "+e.getMessage());
+		}
+	}
+	
+	public void publishAll(String channel, Collection<String> messages){
+		if (messages.isEmpty()){
+			return;
+		}
+		try(Jedis jedis  = getResourceFromPool()) {
+			Pipeline pipeline = jedis.pipelined();
+			for (String message : messages){
+				pipeline.publish(NOTIFICATION_PREFIX+channel, message);
+			}
+			pipeline.sync();
+		} catch (RuntimeException e) {
+			// notifications are only hints, the subscribers will eventually re-check
+			logger.warn("failed to publishAll() on channel="+channel+": "+e.getMessage());
+		}
+	}
+	
+	public RedisSubscription subscribe(String channel){
+		startSubscriber();
+		return subscriptions.register(channel);
+	}
+	
+	public RedisSubscription subscribe(String channel, RedisSubscription.Listener listener){
+		startSubscriber();
+		return subscriptions.register(channel, listener);
+	}
+	
+	/**
+	 * start the thread listening to the notification channels; it holds a dedicated connection
+	 */
+	private synchronized void startSubscriber(){
+		if (this.subscriber==null){
+			this.subscriber = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					while (!Thread.currentThread().isInterrupted()){
+						try (Jedis jedis  = getResourceFromPool()){
+							JedisPubSub current = new JedisPubSub() {
+								@Override
+								public void onPMessage(String pattern, String channel, String message) {
+									subscriptions.dispatch(channel.substring(NOTIFICATION_PREFIX.length()), message);
+								}
+							};
+							pubSub = current;
+							jedis.psubscribe(current, NOTIFICATION_PREFIX+"*");
+						} catch (RuntimeException e) {
+							logger.warn("Redis notification subscriber disconnected: "+e.getMessage());
+							try {
+								Thread.sleep(1000);
+							} catch (InterruptedException e1) {
+								return;
+							}
+						}
+					}
+				}
+			}, "redis-notification-subscriber");
+			this.subscriber.setDaemon(true);
+			this.subscriber.start();
+		}
+	}
+
+	// INDEXED VALUES
+	
+	public boolean putIndexed(String indexKey, String key, byte[] value, int ttl){
+		try(Jedis jedis  = getResourceFromPool()) {
+			Transaction tx = jedis.multi();
+			tx.setex(key.getBytes(), ttl, value);
+			tx.sadd(indexKey, key);
+			tx.expire(indexKey, ttl);
+			tx.exec();
+			return true;
+		} catch (RuntimeException e) {
+			logger.error("failed to putIndexed() on key="+key);
+			return false;
+		}
+	}
+	
+	public Map<String, byte[]> getIndexed(String indexKey){
+		Map<String, byte[]> res = new LinkedHashMap<String, byte[]>();
+		try(Jedis jedis  = getResourceFromPool()) {
+			List<String> keys = new ArrayList<String>(jedis.smembers(indexKey));
+			if (keys.isEmpty()){
+				return res;
+			}
+			byte[][] bkeys = new byte[keys.size()][];
+			for (int i = 0; i < bkeys.length; i++){
+				bkeys[i] = keys.get(i).getBytes();
+			}
+			List<byte[]> values = jedis.mget(bkeys);
+			for (int i = 0; i < bkeys.length; i++){
+				if (values.get(i) != null){
+					res.put(keys.get(i), values.get(i));
+				} else {
+					// expired
+					jedis.srem(indexKey, keys.get(i));
+				}
+			}
+			return res;
+		} catch (RuntimeException e) {
+			logger.error("failed to getIndexed() on key="+indexKey);
+			throw new RuntimeException("Jedis: getIndexed() failed on key="+indexKey, e);
+		}
+	}
+	
+	public void removeIndexed(String indexKey, String key){
+		try(Jedis jedis  = getResourceFromPool()) {
+			jedis.srem(indexKey, key);
+			jedis.del(key.getBytes());
+		} catch (RuntimeException e) {
+			logger.error("failed to removeIndexed() on key="+key);
+		}
+	}
+
 	//TTL
 
 	public void setTTL(String key, int ttl){
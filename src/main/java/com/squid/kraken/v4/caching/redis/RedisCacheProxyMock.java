@@ -25,13 +25,21 @@ package com.squid.kraken.v4.caching.redis;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.squid.kraken.v4.caching.redis.datastruct.ChunkRef;
 import com.squid.kraken.v4.caching.redis.datastruct.RawMatrix;
+import com.squid.kraken.v4.caching.redis.datastruct.RawRow;
 import com.squid.kraken.v4.caching.redis.datastruct.RedisCacheValue;
 import com.squid.kraken.v4.caching.redis.generationalkeysserver.RedisKey;
 
@@ -39,6 +47,14 @@ public class RedisCacheProxyMock implements IRedisCacheProxy{
 
 	Map<ByteBuffer, byte[]> cache = new HashMap<ByteBuffer, byte[]>();
 
+	RedisSubscriptions subscriptions = new RedisSubscriptions();
+
+	Map<String, List<ChunkRef>> chunkRefs = new HashMap<String, List<ChunkRef>>();
+
+	Map<String, Set<String>> indexes = new HashMap<String, Set<String>>();
+
+	Map<String, Map<String, Long>> hashes = new HashMap<String, Map<String, Long>>();
+
 	static final Logger logger = LoggerFactory
 			.getLogger(RedisCacheProxyMock.class);
 
@@ -81,11 +97,91 @@ public class RedisCacheProxyMock implements IRedisCacheProxy{
 		}
 	}
 
+	@Override
+	public RawMatrix getRawMatrix(String key, int maxRows) {
+		// the mock does not store chunked matrices
+		return getRawMatrix(key);
+	}
+
 	public byte[] get(String key) {
 		byte[] res = cache.get(ByteBuffer.wrap(key.getBytes()));
 		return res;
 	}
 
+	public Map<String, byte[]> getAll(Collection<String> keys) {
+		Map<String, byte[]> res = new HashMap<String, byte[]>();
+		for (String key : keys) {
+			byte[] value = get(key);
+			if (value != null) {
+				res.put(key, value);
+			}
+		}
+		return res;
+	}
+
+	public boolean putAll(Map<String, String> values) {
+		for (Map.Entry<String, String> entry : values.entrySet()) {
+			put(entry.getKey(), entry.getValue());
+		}
+		return true;
+	}
+
+	public Map<String, Long> getFields(String hashKey, Collection<String> fields) {
+		Map<String, Long> res = new HashMap<String, Long>();
+		synchronized (hashes) {
+			Map<String, Long> hash = getHash(hashKey);
+			for (String field : fields) {
+				if (hash.containsKey(field)) {
+					res.put(field, hash.get(field));
+				}
+			}
+		}
+		return res;
+	}
+
+	public Map<String, Long> incrementFields(String hashKey, Collection<String> fields) {
+		Map<String, Long> res = new HashMap<String, Long>();
+		synchronized (hashes) {
+			Map<String, Long> hash = getHash(hashKey);
+			for (String field : fields) {
+				Long value = hash.get(field);
+				value = value != null ? value + 1 : 1;
+				hash.put(field, value);
+				res.put(field, value);
+			}
+		}
+		return res;
+	}
+
+	public Map<String, Long> initFields(String hashKey, Map<String, Long> fields) {
+		Map<String, Long> res = new HashMap<String, Long>();
+		synchronized (hashes) {
+			Map<String, Long> hash = getHash(hashKey);
+			for (Map.Entry<String, Long> entry : fields.entrySet()) {
+				if (!hash.containsKey(entry.getKey())) {
+					hash.put(entry.getKey(), entry.getValue());
+				}
+				res.put(entry.getKey(), hash.get(entry.getKey()));
+			}
+		}
+		return res;
+	}
+
+	private Map<String, Long> getHash(String hashKey) {
+		Map<String, Long> hash = hashes.get(hashKey);
+		if (hash == null) {
+			hash = new HashMap<String, Long>();
+			hashes.put(hashKey, hash);
+		}
+		return hash;
+	}
+
+	public void publishAll(String channel, Collection<String> messages) {
+		for (String message : messages) {
+			publish(channel, message);
+		}
+	}
+
 	public boolean inCache(RedisKey k) {
 		return this.inCache(k.toString());
 	}
@@ -113,4 +209,76 @@ public class RedisCacheProxyMock implements IRedisCacheProxy{
 		return null;
 	}
 
+	@Override
+	public boolean appendChunkRef(String listKey, ChunkRef ref) {
+		List<ChunkRef> refs = chunkRefs.get(listKey);
+		if (refs == null) {
+			refs = new ArrayList<ChunkRef>();
+			chunkRefs.put(listKey, refs);
+		}
+		refs.add(ref);
+		return true;
+	}
+
+	@Override
+	public void clearChunkRefs(String listKey) {
+		chunkRefs.remove(listKey);
+	}
+
+	@Override
+	public void publish(String channel, String message) {
+		subscriptions.dispatch(channel, message);
+	}
+
+	@Override
+	public RedisSubscription subscribe(String channel) {
+		return subscriptions.register(channel);
+	}
+
+	@Override
+	public RedisSubscription subscribe(String channel, RedisSubscription.Listener listener) {
+		return subscriptions.register(channel, listener);
+	}
+
+	@Override
+	public Iterator<RawRow> getRowIterator(String key) {
+		RawMatrix matrix = getRawMatrix(key);
+		return matrix != null ? matrix.rowIterator() : null;
+	}
+
+	@Override
+	public boolean putIndexed(String indexKey, String key, byte[] value, int ttl) {
+		Set<String> keys = indexes.get(indexKey);
+		if (keys == null) {
+			keys = new HashSet<String>();
+			indexes.put(indexKey, keys);
+		}
+		keys.add(key);
+		return this.put(key, value);
+	}
+
+	@Override
+	public Map<String, byte[]> getIndexed(String indexKey) {
+		Map<String, byte[]> res = new HashMap<String, byte[]>();
+		Set<String> keys = indexes.get(indexKey);
+		if (keys != null) {
+			for (String key : keys) {
+				byte[] value = get(key);
+				if (value != null) {
+					res.put(key, value);
+				}
+			}
+		}
+		return res;
+	}
+
+	@Override
+	public void removeIndexed(String indexKey, String key) {
+		Set<String> keys = indexes.get(indexKey);
+		if (keys != null) {
+			keys.remove(key);
+		}
+		cache.remove(ByteBuffer.wrap(key.getBytes()));
+	}
+
 }
@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * Copyright © Squid Solutions, 2016
+ *
+ * This file is part of Open Bouquet software.
+ *  
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * There is a special FOSS exception to the terms and conditions of the 
+ * licenses as they are applied to this program. See LICENSE.txt in
+ * the directory of this program distribution.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * Squid Solutions also offers commercial licenses with additional warranties,
+ * professional functionalities or services. If you purchase a commercial
+ * license, then it supersedes and replaces any other agreement between
+ * you and Squid Solutions (above licenses and LICENSE.txt included).
+ * See http://www.squidsolutions.com/EnterpriseBouquet/
+ *******************************************************************************/
+package com.squid.kraken.v4.caching.redis;
+
+/**
+ * A local subscription to a Redis notification channel. It counts the
+ * messages received on the channel, so a caller can read the count, check
+ * its condition and then wait for a newer message without missing one sent
+ * in between.
+ * 
+ * A subscription can also have a listener, called with each message.
+ * 
+ * Subscriptions must be closed when done.
+ *
+ */
+public class RedisSubscription implements AutoCloseable {
+
+	private final String channel;
+
+	private final RedisSubscriptions registry;
+
+	private final Listener listener;
+
+	private long count = 0;
+
+	/**
+	 * receive the messages of a subscription; it is called by the Redis
+	 * subscriber thread so it must return quickly
+	 *
+	 */
+	public interface Listener {
+		public void onMessage(String channel, String message);
+	}
+
+	protected RedisSubscription(String channel, RedisSubscriptions registry, Listener listener) {
+		this.channel = channel;
+		this.registry = registry;
+		this.listener = listener;
+	}
+
+	public String getChannel() {
+		return channel;
+	}
+
+	/**
+	 * @return the number of messages received so far
+	 */
+	public synchronized long getCount() {
+		return count;
+	}
+
+	/**
+	 * wait until more than <code>count</code> messages have been received, or
+	 * the timeout expires
+	 * 
+	 * @param count
+	 *            the last count seen by the caller
+	 * @param timeoutMs
+	 * @return true if a new message was received
+	 * @throws InterruptedException
+	 */
+	public synchronized boolean await(long count, long timeoutMs) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMs;
+		while (this.count <= count) {
+			long wait = deadline - System.currentTimeMillis();
+			if (wait <= 0) {
+				return false;
+			}
+			this.wait(wait);
+		}
+		return true;
+	}
+
+	protected void signal(String message) {
+		synchronized (this) {
+			count++;
+			this.notifyAll();
+		}
+		if (listener != null) {
+			listener.onMessage(channel, message);
+		}
+	}
+
+	@Override
+	public void close() {
+		registry.unregister(this);
+	}
+
+}
@@ -0,0 +1,77 @@
+/*******************************************************************************
+ * Copyright © Squid Solutions, 2016
+ *
+ * This file is part of Open Bouquet software.
+ *  
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * There is a special FOSS exception to the terms and conditions of the 
+ * licenses as they are applied to this program. See LICENSE.txt in
+ * the directory of this program distribution.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * Squid Solutions also offers commercial licenses with additional warranties,
+ * professional functionalities or services. If you purchase a commercial
+ * license, then it supersedes and replaces any other agreement between
+ * you and Squid Solutions (above licenses and LICENSE.txt included).
+ * See http://www.squidsolutions.com/EnterpriseBouquet/
+ *******************************************************************************/
+package com.squid.kraken.v4.caching.redis;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * keep track of the local subscriptions per channel and dispatch the
+ * messages received from Redis
+ *
+ */
+public class RedisSubscriptions {
+
+	private ConcurrentHashMap<String, Set<RedisSubscription>> subscriptions = new ConcurrentHashMap<>();
+
+	public RedisSubscription register(String channel) {
+		return register(channel, null);
+	}
+
+	public RedisSubscription register(String channel, RedisSubscription.Listener listener) {
+		final RedisSubscription subscription = new RedisSubscription(channel, this, listener);
+		// atomic with unregister(), so the subscription cannot be added to a removed set
+		subscriptions.compute(channel, (key, set) -> {
+			if (set == null) {
+				set = new CopyOnWriteArraySet<>();
+			}
+			set.add(subscription);
+			return set;
+		});
+		return subscription;
+	}
+
+	public void unregister(RedisSubscription subscription) {
+		// remove the set once empty
+		subscriptions.computeIfPresent(subscription.getChannel(), (key, set) -> {
+			set.remove(subscription);
+			return set.isEmpty() ? null : set;
+		});
+	}
+
+	public void dispatch(String channel, String message) {
+		Set<RedisSubscription> set = subscriptions.get(channel);
+		if (set != null) {
+			for (RedisSubscription subscription : set) {
+				try {
+					subscription.signal(message);
+				} catch (RuntimeException e) {
+					// don't stop the dispatch
+				}
+			}
+		}
+	}
+
+}
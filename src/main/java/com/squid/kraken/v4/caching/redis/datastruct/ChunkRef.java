@@ -1,5 +1,11 @@
 package com.squid.kraken.v4.caching.redis.datastruct;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
 public class ChunkRef {
 	public String referencedKey;
 	public long lowerBound;
@@ -10,4 +16,27 @@ public class ChunkRef {
 		this.lowerBound=lower;
 		this.upperBound=upper;
 	}
+
+	/**
+	 * serialize the reference as an element of the append-only chunk list
+	 * @return
+	 */
+	public byte[] serialize(){
+		ByteArrayOutputStream baout =  new ByteArrayOutputStream();
+		Output kout = new Output(baout);
+		kout.writeString(referencedKey);
+		kout.writeLong(lowerBound);
+		kout.writeLong(upperBound);
+		kout.close();
+		return baout.toByteArray();
+	}
+
+	public static ChunkRef deserialize(byte[] serialized){
+		Input in = new Input(new ByteArrayInputStream(serialized));
+		try {
+			return new ChunkRef(in.readString(), in.readLong(), in.readLong());
+		} finally {
+			in.close();
+		}
+	}
 }
@@ -0,0 +1,493 @@
+/*******************************************************************************
+ * Copyright © Squid Solutions, 2016
+ *
+ * This file is part of Open Bouquet software.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * There is a special FOSS exception to the terms and conditions of the
+ * licenses as they are applied to this program. See LICENSE.txt in
+ * the directory of this program distribution.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * Squid Solutions also offers commercial licenses with additional warranties,
+ * professional functionalities or services. If you purchase a commercial
+ * license, then it supersedes and replaces any other agreement between
+ * you and Squid Solutions (above licenses and LICENSE.txt included).
+ * See http://www.squidsolutions.com/EnterpriseBouquet/
+ *******************************************************************************/
+package com.squid.kraken.v4.caching.redis.datastruct;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.commons.io.output.ByteArrayOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.squid.core.jdbc.engine.IExecutionItem;
+import com.squid.core.jdbc.formatter.IJDBCDataFormatter;
+import com.squid.core.jdbc.vendor.IVendorSupport;
+import com.squid.core.jdbc.vendor.VendorSupportRegistry;
+
+/**
+ * A RawMatrix that stores the data by column, using primitive arrays and
+ * dictionary-encoded strings (see RawColumn). It is stored in the cache as
+ * RedisCacheType.RAW_MATRIX_COLUMNAR.
+ *
+ * The rows are only materialized if a caller requires the getRows() list; once
+ * materialized, that list becomes the reference for the matrix content and the
+ * columns are released. Use
+ * getRowCount() and getRowData() to iterate without materializing.
+ *
+ */
+public class ColumnarRawMatrix extends RawMatrix {
+
+	static final Logger logger = LoggerFactory.getLogger(ColumnarRawMatrix.class);
+
+	private transient RawColumn[] columns = new RawColumn[0];
+
+	private transient int rowCount = 0;
+
+	private transient ArrayList<RawRow> materialized = null;
+
+	public ColumnarRawMatrix() {
+		super();
+	}
+
+	public ColumnarRawMatrix(int v, HashMap<String, Integer> registration) {
+		super(v, registration);
+	}
+
+	/**
+	 * convert a row based matrix
+	 *
+	 * @param source
+	 */
+	public ColumnarRawMatrix(RawMatrix source) {
+		super();
+		setColNames(new ArrayList<String>(source.getColNames()));
+		setColTypes(new ArrayList<Integer>(source.getColTypes()));
+		setMoreData(source.hasMoreData());
+		setExecutionDate(source.getExecutionDate());
+		setFromCache(source.isFromCache());
+		setRedisKey(source.getRedisKey());
+		initColumns();
+		appendRows(source);
+	}
+
+	/**
+	 * create the empty columns according to the column types
+	 */
+	public void initColumns() {
+		initColumns(0);
+	}
+
+	/**
+	 * create the empty columns, pre-allocated for the expected number of rows
+	 * 
+	 * @param capacity
+	 */
+	public void initColumns(int capacity) {
+		ArrayList<Integer> colTypes = getColTypes();
+		this.columns = new RawColumn[colTypes.size()];
+		for (int i = 0; i < columns.length; i++) {
+			columns[i] = RawColumn.create(colTypes.get(i));
+			if (capacity > 0) {
+				columns[i].ensureCapacity(capacity);
+			}
+		}
+		this.rowCount = 0;
+		this.materialized = null;
+	}
+
+	public RawColumn getColumn(int index) {
+		return columns[index];
+	}
+
+	@Override
+	public int getRowCount() {
+		if (materialized != null) {
+			return materialized.size();
+		} else {
+			return rowCount;
+		}
+	}
+
+	@Override
+	public Object[] getRowData(int index) {
+		if (materialized != null) {
+			return materialized.get(index).data;
+		} else {
+			Object[] data = new Object[columns.length];
+			for (int i = 0; i < columns.length; i++) {
+				data[i] = columns[i].get(index);
+			}
+			return data;
+		}
+	}
+
+	/**
+	 * materialize the rows; this is expensive and should be avoided for large
+	 * matrices
+	 */
+	@Override
+	public ArrayList<RawRow> getRows() {
+		if (materialized == null) {
+			ArrayList<RawRow> rows = new ArrayList<RawRow>(rowCount);
+			for (int i = 0; i < rowCount; i++) {
+				rows.add(new RawRow(getRowData(i)));
+			}
+			materialized = rows;
+			// the rows are the reference now, don't keep the data twice
+			columns = new RawColumn[0];
+			rowCount = 0;
+		}
+		return materialized;
+	}
+
+	@Override
+	public Iterator<RawRow> rowIterator() {
+		if (materialized != null) {
+			return materialized.iterator();
+		} else {
+			return new Iterator<RawRow>() {
+				private int cursor = 0;
+
+				@Override
+				public boolean hasNext() {
+					return cursor < getRowCount();
+				}
+
+				@Override
+				public RawRow next() {
+					if (!hasNext()) {
+						throw new NoSuchElementException();
+					}
+					return new RawRow(getRowData(cursor++));
+				}
+
+				@Override
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+	}
+
+	@Override
+	public void addRow(RawRow e) {
+		addRow(e.data);
+	}
+
+	public void addRow(Object[] data) {
+		if (materialized != null) {
+			materialized.add(new RawRow(data));
+		} else {
+			for (int i = 0; i < columns.length; i++) {
+				addValue(i, data[i]);
+			}
+			rowCount++;
+		}
+	}
+
+	private void addValue(int column, Object value) {
+		if (!columns[column].add(value)) {
+			// not the expected type, fallback to a generic column
+			columns[column] = columns[column].toObjectColumn();
+			columns[column].add(value);
+		}
+	}
+
+	/**
+	 * append the rows from the other matrix, that must have the same layout
+	 *
+	 * @param source
+	 */
+	public void appendRows(RawMatrix source) {
+		for (int i = 0; i < source.getRowCount(); i++) {
+			addRow(source.getRowData(i));
+		}
+	}
+
+	/**
+	 * if the rows have been materialized, rebuild the columns from them so
+	 * they can be serialized
+	 */
+	private void compact() {
+		if (materialized != null) {
+			ArrayList<RawRow> rows = materialized;
+			initColumns();
+			for (RawRow row : rows) {
+				addRow(row.data);
+			}
+		}
+	}
+
+	/**
+	 * rough estimate of the serialized size
+	 *
+	 * @return
+	 */
+	public long estimateSize() {
+		long size = 0;
+		for (RawColumn column : columns) {
+			size += column.estimateSize() + rowCount / 8;
+		}
+		return size;
+	}
+
+	/**
+	 * Serialization format
+	 *
+	 * - the common header (kryo registration, version,
+	 * RedisCacheType.RAW_MATRIX_COLUMNAR)
+	 *
+	 * - number of columns (int), the column names (String list), the column
+	 * types (int list)
+	 *
+	 * - the number of rows (int)
+	 *
+	 * - for each column, the encoding (byte), the null bitmap and the values
+	 * (see RawColumn)
+	 *
+	 * - a boolean indicating if there are more rows to be read from the result
+	 * set
+	 *
+	 * - the execution date (long)
+	 */
+	@Override
+	public byte[] serialize() throws IOException {
+		compact();
+		ByteArrayOutputStream baout = new ByteArrayOutputStream();
+		Output kout = new Output(baout);
+		writeHeader(kout, RedisCacheType.RAW_MATRIX_COLUMNAR);
+		Kryo kryo = RedisCacheKryo.borrow();
+		try {
+			writeColumns(kryo, kout);
+		} finally {
+			RedisCacheKryo.release(kryo);
+		}
+		kout.writeBoolean(hasMoreData());
+		kout.writeLong(getExecutionDate().getTime());
+		kout.close();
+		return RedisCacheCompression.compress(baout.toByteArray());
+	}
+
+	private void writeColumns(Kryo kryo, Output out) {
+		out.writeInt(getColNames().size());
+		for (String n : getColNames())
+			out.writeString(n);
+		for (Integer t : getColTypes())
+			out.writeInt(t);
+		out.writeInt(rowCount);
+		for (RawColumn column : columns) {
+			column.write(kryo, out);
+		}
+	}
+
+	@Override
+	protected void readObject(Input in) throws IOException, ClassNotFoundException {
+		long start = new Date().getTime();
+
+		// READ columns
+		int nbColumns = in.readInt();
+		ArrayList<String> colNames = new ArrayList<String>(nbColumns);
+		for (int i = 0; i < nbColumns; i++)
+			colNames.add(in.readString());
+		ArrayList<Integer> colTypes = new ArrayList<Integer>(nbColumns);
+		for (int i = 0; i < nbColumns; i++)
+			colTypes.add(in.readInt());
+		setColNames(colNames);
+		setColTypes(colTypes);
+
+		// READ data
+		this.rowCount = in.readInt();
+		this.columns = new RawColumn[nbColumns];
+		Kryo kryo = RedisCacheKryo.borrow(this.version, this.registration);
+		try {
+			for (int i = 0; i < nbColumns; i++) {
+				columns[i] = RawColumn.read(kryo, in, colTypes.get(i), rowCount);
+			}
+		} finally {
+			RedisCacheKryo.release(this.version, kryo);
+		}
+		this.materialized = null;
+
+		setMoreData(in.readBoolean());
+		setExecutionDate(new Date(in.readLong()));
+
+		long complete = new Date().getTime();
+		if (logger.isDebugEnabled()) {
+			logger.debug(("deserialized columnar matrix complete in " + (complete - start) + "ms, with " + rowCount
+					+ " rows"));
+		}
+	}
+
+	/**
+	 * read one cell of the resultset into the column using the typed JDBC
+	 * getter, so that the value is not boxed
+	 */
+	private static abstract class CellReader {
+
+		abstract void read(ResultSet result, int index, ColumnarRawMatrix matrix, int column) throws SQLException;
+
+	}
+
+	private static final CellReader INT_READER = new CellReader() {
+		@Override
+		void read(ResultSet result, int index, ColumnarRawMatrix matrix, int column) throws SQLException {
+			int value = result.getInt(index);
+			if (result.wasNull()) {
+				matrix.columns[column].addNull();
+			} else {
+				((RawColumn.IntColumn) matrix.columns[column]).addInt(value);
+			}
+		}
+	};
+
+	private static final CellReader LONG_READER = new CellReader() {
+		@Override
+		void read(ResultSet result, int index, ColumnarRawMatrix matrix, int column) throws SQLException {
+			long value = result.getLong(index);
+			if (result.wasNull()) {
+				matrix.columns[column].addNull();
+			} else {
+				((RawColumn.LongColumn) matrix.columns[column]).addLong(value);
+			}
+		}
+	};
+
+	private static final CellReader DOUBLE_READER = new CellReader() {
+		@Override
+		void read(ResultSet result, int index, ColumnarRawMatrix matrix, int column) throws SQLException {
+			double value = result.getDouble(index);
+			if (result.wasNull()) {
+				matrix.columns[column].addNull();
+			} else {
+				((RawColumn.DoubleColumn) matrix.columns[column]).addDouble(value);
+			}
+		}
+	};
+
+	private static final CellReader TIMESTAMP_READER = new CellReader() {
+		@Override
+		void read(ResultSet result, int index, ColumnarRawMatrix matrix, int column) throws SQLException {
+			matrix.addValue(column, result.getTimestamp(index));
+		}
+	};
+
+	/**
+	 * return the reader for that (normalized) column type, or null if the
+	 * value must go through the formatter; the types match the ones using a
+	 * CellWriter in RawMatrix
+	 */
+	private static CellReader getCellReader(int colType) {
+		switch (colType) {
+		case Types.TINYINT:
+		case Types.SMALLINT:
+		case Types.INTEGER:
+			return INT_READER;
+		case Types.BIGINT:
+			return LONG_READER;
+		case Types.FLOAT:
+		case Types.DOUBLE:
+			return DOUBLE_READER;
+		case Types.TIMESTAMP:
+			return TIMESTAMP_READER;
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * columnar version of RawMatrix.streamExecutionItemToByteArray(): read the
+	 * resultset into columns until the max chunk size is reached, then
+	 * serialize the chunk
+	 */
+	public static RawMatrixStreamExecRes streamExecutionItemToByteArray(IExecutionItem item,
+			long nbLinesExpectedLeft) throws IOException, SQLException {
+		RawMatrixStreamExecRes res = new RawMatrixStreamExecRes();
+		long metter_start = System.currentTimeMillis();
+
+		ResultSet result = item.getResultSet();
+		IJDBCDataFormatter formatter = item.getDataFormatter();
+		ResultSetMetaData metadata = result.getMetaData();
+		int nbColumns = metadata.getColumnCount();
+
+		IVendorSupport vendorSpecific = VendorSupportRegistry.INSTANCE.getVendorSupport(item.getDatabase());
+		int[] colTypes = vendorSpecific.getVendorMetadataSupport().normalizeColumnType(result);
+
+		ColumnarRawMatrix matrix = new ColumnarRawMatrix();
+		for (int i = 0; i < nbColumns; i++) {
+			matrix.getColNames().add(metadata.getColumnLabel(i + 1));
+			matrix.getColTypes().add(colTypes[i]);
+		}
+		matrix.initColumns();
+		// choose the readers once for all the rows
+		CellReader[] readers = new CellReader[nbColumns];
+		for (int i = 0; i < nbColumns; i++) {
+			readers[i] = getCellReader(colTypes[i]);
+		}
+
+		long maxChunkSizeInBytes = maxChunkSizeInMB * 1048576L;
+		int count = 0;
+		boolean moreData = false;
+		boolean maxSizeReached = false;
+
+		while ((!maxSizeReached) && (moreData = result.next())) {
+			for (int i = 0; i < nbColumns; i++) {
+				if (readers[i] != null) {
+					readers[i].read(result, i + 1, matrix, i);
+				} else {
+					Object value = result.getObject(i + 1);
+					matrix.addValue(i, formatter.unboxJDBCObject(value, colTypes[i]));
+				}
+			}
+			matrix.rowCount++;
+			count++;
+
+			// stats: display time for first 100th rows
+			if (count == 100) {
+				long intermediate = new Date().getTime();
+				logger.info("task=ColumnarRawMatrix" + " method=streamExecutionItemToByteArray" + " duration="
+						+ ((intermediate - metter_start)) + " error=false status=running queryid=" + item.getID());
+			}
+			// if max chunk size reached, stop
+			if (count % 100 == 0) {
+				if (matrix.estimateSize() >= maxChunkSizeInBytes) {
+					logger.info("Max size of " + maxChunkSizeInMB + "MB for one chunk reached");
+					maxSizeReached = true;
+				}
+			}
+		}
+
+		matrix.setMoreData(isMoreThanLimit(maxSizeReached, moreData, count, nbLinesExpectedLeft));
+		matrix.setExecutionDate(item.getExecutionDate());
+		byte[] serialized = matrix.serialize();
+
+		long metter_finish = new Date().getTime();
+		res.setHasMore(isMoreToRead(maxSizeReached, count, nbLinesExpectedLeft));
+		res.setExecutionTime(metter_finish - metter_start);
+		res.setNbLines(count);
+		res.setStreamedMatrix(serialized);
+		return res;
+	}
+
+}
@@ -0,0 +1,706 @@
+/*******************************************************************************
+ * Copyright © Squid Solutions, 2016
+ *
+ * This file is part of Open Bouquet software.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * There is a special FOSS exception to the terms and conditions of the
+ * licenses as they are applied to this program. See LICENSE.txt in
+ * the directory of this program distribution.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * Squid Solutions also offers commercial licenses with additional warranties,
+ * professional functionalities or services. If you purchase a commercial
+ * license, then it supersedes and replaces any other agreement between
+ * you and Squid Solutions (above licenses and LICENSE.txt included).
+ * See http://www.squidsolutions.com/EnterpriseBouquet/
+ *******************************************************************************/
+package com.squid.kraken.v4.caching.redis.datastruct;
+
+import java.io.IOException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * A column of a ColumnarRawMatrix. Values are stored in primitive arrays when
+ * the column type allows it, strings are dictionary-encoded, and null values
+ * are tracked with a bitmap.
+ *
+ * A typed column only accepts values of the expected java class; if the
+ * driver returns something else, the column must be converted to an
+ * ObjectColumn using toObjectColumn().
+ *
+ */
+public abstract class RawColumn {
+
+	// column encodings, as written in the stream
+	public static final int ENCODING_LONG = 1;
+	public static final int ENCODING_INT = 2;
+	public static final int ENCODING_DOUBLE = 3;
+	public static final int ENCODING_DATE = 4;
+	public static final int ENCODING_DICTIONARY = 5;
+	public static final int ENCODING_OBJECT = 6;
+
+	private static final int DEFAULT_CAPACITY = 64;
+
+	protected BitSet nulls = new BitSet();
+
+	protected int size = 0;
+
+	/**
+	 * create an empty column for the given (normalized) JDBC type
+	 *
+	 * @param colType
+	 * @return
+	 */
+	public static RawColumn create(int colType) {
+		switch (colType) {
+		case Types.CHAR:
+		case Types.VARCHAR:
+		case Types.LONGVARCHAR:
+			return new DictionaryColumn();
+		case Types.BIGINT:
+			return new LongColumn();
+		case Types.TINYINT:
+		case Types.SMALLINT:
+		case Types.INTEGER:
+			return new IntColumn();
+		case Types.REAL:
+		case Types.FLOAT:
+		case Types.DOUBLE:
+			return new DoubleColumn();
+		case Types.DATE:
+		case Types.TIME:
+		case Types.TIMESTAMP:
+			return new DateColumn();
+		default:
+			return new ObjectColumn();
+		}
+	}
+
+	protected static RawColumn create(int encoding, int colType) throws IOException {
+		switch (encoding) {
+		case ENCODING_LONG:
+			return new LongColumn();
+		case ENCODING_INT:
+			return new IntColumn();
+		case ENCODING_DOUBLE:
+			return new DoubleColumn();
+		case ENCODING_DATE:
+			return new DateColumn();
+		case ENCODING_DICTIONARY:
+			return new DictionaryColumn();
+		case ENCODING_OBJECT:
+			return new ObjectColumn();
+		default:
+			throw new IOException("invalid column encoding " + encoding + " for type " + colType);
+		}
+	}
+
+	public abstract int getEncoding();
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isNull(int row) {
+		return nulls.get(row);
+	}
+
+	public Object get(int row) {
+		if (nulls.get(row)) {
+			return null;
+		} else {
+			return doGet(row);
+		}
+	}
+
+	/**
+	 * append a value to the column
+	 *
+	 * @param value
+	 * @return false if the value is not compatible with the column encoding; in
+	 *         that case the column is left unchanged
+	 */
+	public boolean add(Object value) {
+		if (value == null) {
+			addNull();
+			return true;
+		} else if (accept(value)) {
+			ensureCapacity(size + 1);
+			doSet(size, value);
+			size++;
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	/**
+	 * append a null value to the column
+	 */
+	public void addNull() {
+		ensureCapacity(size + 1);
+		nulls.set(size);
+		size++;
+	}
+
+	/**
+	 * copy the column into a generic ObjectColumn that can accept any value
+	 *
+	 * @return
+	 */
+	public ObjectColumn toObjectColumn() {
+		ObjectColumn copy = new ObjectColumn();
+		copy.ensureCapacity(size);
+		for (int i = 0; i < size; i++) {
+			copy.add(get(i));
+		}
+		return copy;
+	}
+
+	/**
+	 * a rough estimate of the serialized size, used to cap the chunk size
+	 *
+	 * @return
+	 */
+	public abstract long estimateSize();
+
+	protected abstract boolean accept(Object value);
+
+	protected abstract void ensureCapacity(int capacity);
+
+	protected abstract void doSet(int row, Object value);
+
+	protected abstract Object doGet(int row);
+
+	protected abstract void writeValues(Kryo kryo, Output out);
+
+	protected abstract void readValues(Kryo kryo, Input in) throws IOException;
+
+	protected static int grow(int current, int capacity) {
+		int newCapacity = Math.max(current, DEFAULT_CAPACITY);
+		while (newCapacity < capacity) {
+			newCapacity = newCapacity * 2;
+		}
+		return newCapacity;
+	}
+
+	/**
+	 * write the column: encoding, null bitmap, then values
+	 */
+	protected void write(Kryo kryo, Output out) {
+		out.writeByte(getEncoding());
+		long[] bitmap = nulls.toLongArray();
+		out.writeInt(bitmap.length);
+		for (long word : bitmap) {
+			out.writeLong(word);
+		}
+		writeValues(kryo, out);
+	}
+
+	/**
+	 * read a column written by write(), with nbRows values
+	 */
+	protected static RawColumn read(Kryo kryo, Input in, int colType, int nbRows) throws IOException {
+		int encoding = in.readByte();
+		RawColumn column = create(encoding, colType);
+		int nbWords = in.readInt();
+		long[] bitmap = new long[nbWords];
+		for (int i = 0; i < nbWords; i++) {
+			bitmap[i] = in.readLong();
+		}
+		column.nulls = BitSet.valueOf(bitmap);
+		column.ensureCapacity(nbRows);
+		column.size = nbRows;
+		column.readValues(kryo, in);
+		return column;
+	}
+
+	public static class LongColumn extends RawColumn {
+
+		private long[] values = new long[0];
+
+		@Override
+		public int getEncoding() {
+			return ENCODING_LONG;
+		}
+
+		public long getLong(int row) {
+			return values[row];
+		}
+
+		public void addLong(long value) {
+			ensureCapacity(size + 1);
+			values[size] = value;
+			size++;
+		}
+
+		@Override
+		public long estimateSize() {
+			return size * 8L;
+		}
+
+		@Override
+		protected boolean accept(Object value) {
+			return value instanceof Long;
+		}
+
+		@Override
+		protected void ensureCapacity(int capacity) {
+			if (values.length < capacity) {
+				values = Arrays.copyOf(values, grow(values.length, capacity));
+			}
+		}
+
+		@Override
+		protected void doSet(int row, Object value) {
+			values[row] = ((Long) value).longValue();
+		}
+
+		@Override
+		protected Object doGet(int row) {
+			return Long.valueOf(values[row]);
+		}
+
+		@Override
+		protected void writeValues(Kryo kryo, Output out) {
+			for (int i = 0; i < size; i++) {
+				out.writeLong(values[i]);
+			}
+		}
+
+		@Override
+		protected void readValues(Kryo kryo, Input in) {
+			for (int i = 0; i < size; i++) {
+				values[i] = in.readLong();
+			}
+		}
+	}
+
+	public static class IntColumn extends RawColumn {
+
+		private int[] values = new int[0];
+
+		@Override
+		public int getEncoding() {
+			return ENCODING_INT;
+		}
+
+		public int getInt(int row) {
+			return values[row];
+		}
+
+		public void addInt(int value) {
+			ensureCapacity(size + 1);
+			values[size] = value;
+			size++;
+		}
+
+		@Override
+		public long estimateSize() {
+			return size * 4L;
+		}
+
+		@Override
+		protected boolean accept(Object value) {
+			return value instanceof Integer;
+		}
+
+		@Override
+		protected void ensureCapacity(int capacity) {
+			if (values.length < capacity) {
+				values = Arrays.copyOf(values, grow(values.length, capacity));
+			}
+		}
+
+		@Override
+		protected void doSet(int row, Object value) {
+			values[row] = ((Integer) value).intValue();
+		}
+
+		@Override
+		protected Object doGet(int row) {
+			return Integer.valueOf(values[row]);
+		}
+
+		@Override
+		protected void writeValues(Kryo kryo, Output out) {
+			for (int i = 0; i < size; i++) {
+				out.writeInt(values[i]);
+			}
+		}
+
+		@Override
+		protected void readValues(Kryo kryo, Input in) {
+			for (int i = 0; i < size; i++) {
+				values[i] = in.readInt();
+			}
+		}
+	}
+
+	public static class DoubleColumn extends RawColumn {
+
+		private double[] values = new double[0];
+
+		@Override
+		public int getEncoding() {
+			return ENCODING_DOUBLE;
+		}
+
+		public double getDouble(int row) {
+			return values[row];
+		}
+
+		public void addDouble(double value) {
+			ensureCapacity(size + 1);
+			values[size] = value;
+			size++;
+		}
+
+		@Override
+		public long estimateSize() {
+			return size * 8L;
+		}
+
+		@Override
+		protected boolean accept(Object value) {
+			return value instanceof Double;
+		}
+
+		@Override
+		protected void ensureCapacity(int capacity) {
+			if (values.length < capacity) {
+				values = Arrays.copyOf(values, grow(values.length, capacity));
+			}
+		}
+
+		@Override
+		protected void doSet(int row, Object value) {
+			values[row] = ((Double) value).doubleValue();
+		}
+
+		@Override
+		protected Object doGet(int row) {
+			return Double.valueOf(values[row]);
+		}
+
+		@Override
+		protected void writeValues(Kryo kryo, Output out) {
+			for (int i = 0; i < size; i++) {
+				out.writeDouble(values[i]);
+			}
+		}
+
+		@Override
+		protected void readValues(Kryo kryo, Input in) {
+			for (int i = 0; i < size; i++) {
+				values[i] = in.readDouble();
+			}
+		}
+	}
+
+	/**
+	 * store dates as epoch millis; the concrete date class is defined by the
+	 * first non-null value, and timestamps also keep their nanos
+	 *
+	 */
+	public static class DateColumn extends RawColumn {
+
+		private static final int KIND_UNDEFINED = 0;
+		private static final int KIND_UTIL_DATE = 1;
+		private static final int KIND_SQL_DATE = 2;
+		private static final int KIND_SQL_TIME = 3;
+		private static final int KIND_SQL_TIMESTAMP = 4;
+
+		private int kind = KIND_UNDEFINED;
+
+		private long[] values = new long[0];
+
+		private int[] nanos = null;// only for timestamps
+
+		@Override
+		public int getEncoding() {
+			return ENCODING_DATE;
+		}
+
+		public long getTime(int row) {
+			return values[row];
+		}
+
+		@Override
+		public long estimateSize() {
+			return size * (nanos != null ? 12L : 8L);
+		}
+
+		private static int getKind(Object value) {
+			Class<?> type = value.getClass();
+			if (type == java.sql.Timestamp.class) {
+				return KIND_SQL_TIMESTAMP;
+			} else if (type == java.sql.Date.class) {
+				return KIND_SQL_DATE;
+			} else if (type == java.sql.Time.class) {
+				return KIND_SQL_TIME;
+			} else if (type == java.util.Date.class) {
+				return KIND_UTIL_DATE;
+			} else {
+				return KIND_UNDEFINED;
+			}
+		}
+
+		@Override
+		protected boolean accept(Object value) {
+			int check = getKind(value);
+			if (check == KIND_UNDEFINED) {
+				return false;
+			} else if (kind == KIND_UNDEFINED) {
+				kind = check;
+				if (kind == KIND_SQL_TIMESTAMP) {
+					nanos = new int[values.length];
+				}
+				return true;
+			} else {
+				return kind == check;
+			}
+		}
+
+		@Override
+		protected void ensureCapacity(int capacity) {
+			if (values.length < capacity) {
+				int newCapacity = grow(values.length, capacity);
+				values = Arrays.copyOf(values, newCapacity);
+				if (nanos != null) {
+					nanos = Arrays.copyOf(nanos, newCapacity);
+				}
+			}
+		}
+
+		@Override
+		protected void doSet(int row, Object value) {
+			values[row] = ((java.util.Date) value).getTime();
+			if (nanos != null) {
+				nanos[row] = ((java.sql.Timestamp) value).getNanos();
+			}
+		}
+
+		@Override
+		protected Object doGet(int row) {
+			switch (kind) {
+			case KIND_SQL_TIMESTAMP:
+				java.sql.Timestamp timestamp = new java.sql.Timestamp(values[row]);
+				timestamp.setNanos(nanos[row]);
+				return timestamp;
+			case KIND_SQL_DATE:
+				return new java.sql.Date(values[row]);
+			case KIND_SQL_TIME:
+				return new java.sql.Time(values[row]);
+			default:
+				return new java.util.Date(values[row]);
+			}
+		}
+
+		@Override
+		protected void writeValues(Kryo kryo, Output out) {
+			out.writeByte(kind);
+			for (int i = 0; i < size; i++) {
+				out.writeLong(values[i]);
+			}
+			if (nanos != null) {
+				for (int i = 0; i < size; i++) {
+					out.writeInt(nanos[i]);
+				}
+			}
+		}
+
+		@Override
+		protected void readValues(Kryo kryo, Input in) {
+			kind = in.readByte();
+			for (int i = 0; i < size; i++) {
+				values[i] = in.readLong();
+			}
+			if (kind == KIND_SQL_TIMESTAMP) {
+				nanos = new int[values.length];
+				for (int i = 0; i < size; i++) {
+					nanos[i] = in.readInt();
+				}
+			}
+		}
+	}
+
+	/**
+	 * dictionary-encoded strings: each distinct value is stored once, rows
+	 * only keep the value code
+	 *
+	 */
+	public static class DictionaryColumn extends RawColumn {
+
+		private String[] dictionary = new String[0];
+
+		private int dictionarySize = 0;
+
+		private int[] codes = new int[0];
+
+		// only used while building the column
+		private transient HashMap<String, Integer> lookup = new HashMap<String, Integer>();
+
+		private long estimatedSize = 0;
+
+		@Override
+		public int getEncoding() {
+			return ENCODING_DICTIONARY;
+		}
+
+		public int getCode(int row) {
+			return codes[row];
+		}
+
+		public String getDictionaryValue(int code) {
+			return dictionary[code];
+		}
+
+		public int getDictionarySize() {
+			return dictionarySize;
+		}
+
+		@Override
+		public long estimateSize() {
+			return estimatedSize + size * 4L;
+		}
+
+		@Override
+		protected boolean accept(Object value) {
+			return value instanceof String;
+		}
+
+		@Override
+		protected void ensureCapacity(int capacity) {
+			if (codes.length < capacity) {
+				codes = Arrays.copyOf(codes, grow(codes.length, capacity));
+			}
+		}
+
+		@Override
+		protected void doSet(int row, Object value) {
+			String string = (String) value;
+			if (lookup == null) {
+				lookup = new HashMap<String, Integer>();
+				for (int i = 0; i < dictionarySize; i++) {
+					lookup.put(dictionary[i], i);
+				}
+			}
+			Integer code = lookup.get(string);
+			if (code == null) {
+				if (dictionarySize == dictionary.length) {
+					dictionary = Arrays.copyOf(dictionary, grow(dictionary.length, dictionarySize + 1));
+				}
+				code = dictionarySize++;
+				dictionary[code] = string;
+				lookup.put(string, code);
+				estimatedSize += string.length() + 4;
+			}
+			codes[row] = code;
+		}
+
+		@Override
+		protected Object doGet(int row) {
+			return dictionary[codes[row]];
+		}
+
+		@Override
+		protected void writeValues(Kryo kryo, Output out) {
+			out.writeInt(dictionarySize);
+			for (int i = 0; i < dictionarySize; i++) {
+				out.writeString(dictionary[i]);
+			}
+			for (int i = 0; i < size; i++) {
+				out.writeVarInt(codes[i], true);
+			}
+		}
+
+		@Override
+		protected void readValues(Kryo kryo, Input in) {
+			dictionarySize = in.readInt();
+			dictionary = new String[dictionarySize];
+			for (int i = 0; i < dictionarySize; i++) {
+				dictionary[i] = in.readString();
+			}
+			for (int i = 0; i < size; i++) {
+				codes[i] = in.readVarInt(true);
+			}
+			lookup = null;// rebuilt on demand if we append values
+		}
+	}
+
+	/**
+	 * fallback for types that have no primitive encoding; values are
+	 * serialized with kryo
+	 *
+	 */
+	public static class ObjectColumn extends RawColumn {
+
+		private Object[] values = new Object[0];
+
+		@Override
+		public int getEncoding() {
+			return ENCODING_OBJECT;
+		}
+
+		@Override
+		public long estimateSize() {
+			return size * 16L;
+		}
+
+		@Override
+		protected boolean accept(Object value) {
+			return true;
+		}
+
+		@Override
+		protected void ensureCapacity(int capacity) {
+			if (values.length < capacity) {
+				values = Arrays.copyOf(values, grow(values.length, capacity));
+			}
+		}
+
+		@Override
+		protected void doSet(int row, Object value) {
+			values[row] = value;
+		}
+
+		@Override
+		protected Object doGet(int row) {
+			return values[row];
+		}
+
+		@Override
+		protected void writeValues(Kryo kryo, Output out) {
+			for (int i = 0; i < size; i++) {
+				if (!nulls.get(i)) {
+					kryo.writeClassAndObject(out, values[i]);
+				}
+			}
+		}
+
+		@Override
+		protected void readValues(Kryo kryo, Input in) {
+			for (int i = 0; i < size; i++) {
+				if (!nulls.get(i)) {
+					values[i] = kryo.readClassAndObject(in);
+				}
+			}
+		}
+	}
+
+}
@@ -28,10 +28,13 @@ import java.io.IOException;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 
 import org.apache.commons.io.output.ByteArrayOutputStream;
 import org.slf4j.Logger;
@@ -60,10 +63,13 @@ public class RawMatrix extends RedisCacheValue {
 	private transient Date executionDate = new Date();
 
 	// used to deserialize /compatibility with older version
-	private transient int version = VERSION;
-	private transient HashMap<String, Integer> registration;
+	protected transient int version = VERSION;
+	protected transient HashMap<String, Integer> registration;
 
-	private transient static int maxChunkSizeInMB = 10;
+	protected transient static int maxChunkSizeInMB = 10;
+
+	// if true, the query workers store the results using the columnar format
+	private transient static boolean columnarFormat = false;
 		
 	static final Logger logger = LoggerFactory.getLogger(RawMatrix.class);
 
@@ -118,6 +124,26 @@ public class RawMatrix extends RedisCacheValue {
 		return rows;
 	}
 
+	/**
+	 * return the number of rows; use it instead of getRows().size() so that
+	 * columnar matrices don't have to materialize their rows
+	 * 
+	 * @return
+	 */
+	public int getRowCount() {
+		return rows.size();
+	}
+
+	/**
+	 * return the values of the row at the given index
+	 * 
+	 * @param index
+	 * @return
+	 */
+	public Object[] getRowData(int index) {
+		return rows.get(index).data;
+	}
+
 	public ArrayList<String> getColNames() {
 		return this.colNames;
 	}
@@ -126,6 +152,15 @@ public class RawMatrix extends RedisCacheValue {
 		return this.colTypes;
 	}
 
+	/**
+	 * iterate over the rows
+	 * 
+	 * @return
+	 */
+	public Iterator<RawRow> rowIterator() {
+		return rows.iterator();
+	}
+
 	public void addRow(RawRow e) {
 		this.rows.add(e);
 	}
@@ -154,6 +189,14 @@ public class RawMatrix extends RedisCacheValue {
 		maxChunkSizeInMB = size;
 	}
 
+	public static void setColumnarFormat(boolean flag) {
+		columnarFormat = flag;
+	}
+
+	public static boolean isColumnarFormat() {
+		return columnarFormat;
+	}
+
 	@Override
 	public boolean equals(Object obj) {
 		if (obj == null)
@@ -163,7 +206,7 @@ public class RawMatrix extends RedisCacheValue {
 		RawMatrix m = (RawMatrix) obj;
 		if (m.moreData != this.moreData)
 			return false;
-		if (m.rows.size() != this.rows.size())
+		if (m.getRowCount() != this.getRowCount())
 			return false;
 		if (m.colNames.size() != this.colNames.size())
 			return false;
@@ -175,8 +218,8 @@ public class RawMatrix extends RedisCacheValue {
 				return false;
 		}
 
-		for (int i = 0; i < this.rows.size(); i++) {
-			if (!(this.rows.get(i).equals(m.rows.get(i))))
+		for (int i = 0; i < this.getRowCount(); i++) {
+			if (!(new RawRow(this.getRowData(i)).equals(new RawRow(m.getRowData(i)))))
 				return false;
 		}
 		return true;
@@ -196,7 +239,7 @@ public class RawMatrix extends RedisCacheValue {
 		else
 			res += "no more data\n";
 
-		for (RawRow r : this.rows)
+		for (RawRow r : this.getRows())
 			res += r.toString() + "\n";
 		return res;
 	}
@@ -224,6 +267,9 @@ public class RawMatrix extends RedisCacheValue {
 				i++;
 			}
 
+			// values are shared among the queries on the same database
+			String scope = item.getDatabase().getUrl();
+
 			int count = 0;
 			matrix.moreData = false;
 			//
@@ -236,7 +282,7 @@ public class RawMatrix extends RedisCacheValue {
 					Object unbox = formatter.unboxJDBCObject(value, matrix.colTypes.get(i));
 					if (unbox instanceof String) {
 						String stringVal = (String) unbox;
-						rawrow[i] = DimensionValuesDictionary.INSTANCE.getRef(stringVal);
+						rawrow[i] = DimensionValuesDictionary.INSTANCE.getRef(scope, stringVal);
 					} else {
 						rawrow[i] = unbox;
 					}
@@ -261,7 +307,8 @@ public class RawMatrix extends RedisCacheValue {
 	 * 
 	 * 
 	 * - kryo registration # of classes registered to kryo (int) list of full
-	 * classe name(String)/registration ID(Integer)
+	 * classe name(String)/registration ID(Integer); empty since V4, the
+	 * classes use the fixed registration of RedisCacheKryo
 	 *
 	 * - RedisCacheValue.VERSION - RedisCacheValue.RedisCacheType.RAW_MATRIX
 	 * 
@@ -277,7 +324,10 @@ public class RawMatrix extends RedisCacheValue {
 	 * we associated an id to it a flag indicating that this is a first time
 	 * encountered value the serialized String else a flag indicating that this
 	 * is a reference to a previously encountered String (int) the id (int) else
-	 * a flag indicating that its not a string value (int) the serialized object
+	 * a flag indicating that its not a string value (int) the serialized object.
+	 * When streamed from the resultset, the integer, floating point and
+	 * timestamp columns are written as a flag (MEMBER_NULL or the type) and the
+	 * fixed width value
 	 * 
 	 * - a boolean set to false (no more rows)
 	 * 
@@ -290,19 +340,135 @@ public class RawMatrix extends RedisCacheValue {
 	private static final int MEMBER_DEFINITION = 2;// this is a definition
 	// (value+future reference)
 	private static final int MEMBER_VALUE = 3;// this is a simple value
+	// fixed width values written by the CellWriters
+	private static final int MEMBER_NULL = 4;
+	private static final int MEMBER_INT = 5;
+	private static final int MEMBER_LONG = 6;
+	private static final int MEMBER_FLOAT = 7;
+	private static final int MEMBER_DOUBLE = 8;
+	private static final int MEMBER_TIMESTAMP = 9;// millis (long) + nanos (int)
+
+	/**
+	 * write one cell of a column using the typed JDBC getter, so that the value
+	 * is neither boxed nor tagged with its class
+	 */
+	private static abstract class CellWriter {
+
+		abstract void write(ResultSet result, int index, Output out) throws SQLException;
+
+	}
+
+	private static final CellWriter INT_WRITER = new CellWriter() {
+		@Override
+		void write(ResultSet result, int index, Output out) throws SQLException {
+			int value = result.getInt(index);
+			if (result.wasNull()) {
+				out.write(MEMBER_NULL);
+			} else {
+				out.write(MEMBER_INT);
+				out.writeInt(value);
+			}
+		}
+	};
+
+	private static final CellWriter LONG_WRITER = new CellWriter() {
+		@Override
+		void write(ResultSet result, int index, Output out) throws SQLException {
+			long value = result.getLong(index);
+			if (result.wasNull()) {
+				out.write(MEMBER_NULL);
+			} else {
+				out.write(MEMBER_LONG);
+				out.writeLong(value);
+			}
+		}
+	};
+
+	private static final CellWriter FLOAT_WRITER = new CellWriter() {
+		@Override
+		void write(ResultSet result, int index, Output out) throws SQLException {
+			float value = result.getFloat(index);
+			if (result.wasNull()) {
+				out.write(MEMBER_NULL);
+			} else {
+				out.write(MEMBER_FLOAT);
+				out.writeFloat(value);
+			}
+		}
+	};
+
+	private static final CellWriter DOUBLE_WRITER = new CellWriter() {
+		@Override
+		void write(ResultSet result, int index, Output out) throws SQLException {
+			double value = result.getDouble(index);
+			if (result.wasNull()) {
+				out.write(MEMBER_NULL);
+			} else {
+				out.write(MEMBER_DOUBLE);
+				out.writeDouble(value);
+			}
+		}
+	};
+
+	private static final CellWriter TIMESTAMP_WRITER = new CellWriter() {
+		@Override
+		void write(ResultSet result, int index, Output out) throws SQLException {
+			Timestamp value = result.getTimestamp(index);
+			if (value == null) {
+				out.write(MEMBER_NULL);
+			} else {
+				out.write(MEMBER_TIMESTAMP);
+				out.writeLong(value.getTime());
+				out.writeInt(value.getNanos());
+			}
+		}
+	};
+
+	/**
+	 * return the writer for that (normalized) column type, or null if the
+	 * value must go through the formatter and be serialized as an object
+	 */
+	private static CellWriter getCellWriter(int colType) {
+		switch (colType) {
+		case Types.TINYINT:
+		case Types.SMALLINT:
+		case Types.INTEGER:
+			return INT_WRITER;
+		case Types.BIGINT:
+			return LONG_WRITER;
+		case Types.REAL:
+			return FLOAT_WRITER;
+		case Types.FLOAT:
+		case Types.DOUBLE:
+			return DOUBLE_WRITER;
+		case Types.TIMESTAMP:
+			return TIMESTAMP_WRITER;
+		default:
+			return null;
+		}
+	}
 
 	public static RawMatrixStreamExecRes streamExecutionItemToByteArray(IExecutionItem item,
 			long nbLinesExpectedLeft) throws IOException, SQLException {
+		if (columnarFormat) {
+			return ColumnarRawMatrix.streamExecutionItemToByteArray(item, nbLinesExpectedLeft);
+		}
+
+		Kryo kryo = RedisCacheKryo.borrow();
+		try {
+			return streamExecutionItemToByteArray(item, nbLinesExpectedLeft, kryo);
+		} finally {
+			RedisCacheKryo.release(kryo);
+		}
+	}
 
+	private static RawMatrixStreamExecRes streamExecutionItemToByteArray(IExecutionItem item,
+			long nbLinesExpectedLeft, Kryo kryo) throws IOException, SQLException {
 		RawMatrixStreamExecRes res = new RawMatrixStreamExecRes();
 		long metter_start = System.currentTimeMillis();
 		ByteArrayOutputStream baout = new ByteArrayOutputStream();
 		Output kout = new Output(baout);
 
-		Kryo kryo = new Kryo();
-		kryo.setRegistrationRequired(true);
-		kryo.setReferences(false);
-
 		ResultSet result = item.getResultSet();
 		IJDBCDataFormatter formatter = item.getDataFormatter();
 		//
@@ -323,48 +489,11 @@ public class RawMatrix extends RedisCacheValue {
 			colNames[i] = metadata.getColumnLabel(i + 1);
 			i++;
 		}
-		// register
-		// Class mapping have to be registered before we start writing
-		HashMap<String, Integer> registration = new HashMap<String, Integer>();
-		for (int val : colTypes) {
-			if (!isPrimitiveType(val)) {
-				String className = getJavaDatatype(val);
-				try {
-					if (registration.get(className) == null) {
-						registration.put(className, kryo.register(Class.forName(className)).getId());
-					}
-				} catch (ClassNotFoundException e0) {
-					logger.info("Class " + className + " not found");
-				} catch (NullPointerException e1) {
-					logger.info("Class " + className + " not found");
-				}
-			}
-		}
-
-		// Register Hadoop type
-		// registration.put("org.apache.hadoop.io.Text",kryo.register(org.apache.hadoop.io.Text.class).getId());
-		// registration.put("byte[]", kryo.register(byte[].class).getId());
-
 		// start writing!
 
-		// registration
-		kout.writeInt(registration.keySet().size());
-		for (String s : registration.keySet()) {
-			kout.writeString(s);
-			kout.writeInt(registration.get(s));
-			// logger.info(s + " " + registration.get(s));
-		}
-
-		// version
+		// version & Redis cache type; the classes use the fixed registration
 		int version = VERSION;
-		if (version >= 1) {
-			kout.writeInt(-1);// this is for V0 compatibility which miss
-			// version information
-			kout.writeInt(version);
-		}
-
-		// Redis cache type
-		kout.writeInt(RedisCacheType.RAW_MATRIX.ordinal());
+		writeHeader(kout, RedisCacheType.RAW_MATRIX);
 
 		// nb of columns
 		kout.writeInt(nbColumns);
@@ -382,6 +511,11 @@ public class RawMatrix extends RedisCacheValue {
 		HashMap<String, Integer> tempsDict = new HashMap<String, Integer>();
 		int count = 0;
 		int index = 0;
+		// choose the writers once for all the rows
+		CellWriter[] writers = new CellWriter[nbColumns];
+		for (int c = 0; c < nbColumns; c++) {
+			writers[c] = getCellWriter(colTypes[c]);
+		}
 		boolean moreData = false;
 		boolean maxSizeReached = false;
 
@@ -389,6 +523,11 @@ public class RawMatrix extends RedisCacheValue {
 			i = 0;
 			kout.writeBoolean(true);
 			while (i < nbColumns) {
+				if (writers[i] != null) {
+					writers[i].write(result, i + 1, kout);
+					i++;
+					continue;
+				}
 				Object value = result.getObject(i + 1);
 				Object unbox = formatter.unboxJDBCObject(value, colTypes[i]);
 				// if(logger.isDebugEnabled()){logger.debug(("unbox value is
@@ -449,24 +588,8 @@ public class RawMatrix extends RedisCacheValue {
 		
 		
 		//we stop either if maxSize was reach or if there were no more data to read
-		boolean moreToRead = false; // we did not reach the end of the resultset
-		boolean moreThanLimit=false; // is case of a limit query, did we reach the limit
-		if (maxSizeReached){ // we  stopped because reached the hard memory limit for one chunk
-			if ( (nbLinesExpectedLeft>-1) && ( !(count < nbLinesExpectedLeft))){ //we read exqctly as many lines as the limit
-				moreThanLimit =  true;	
-			}else{
-				moreThanLimit = true  ;					
-				moreToRead = true;
-			}
-		}else{ 
-			if ( !moreData){ //no more lines to read
-				if(nbLinesExpectedLeft>-1){ // limit
-					if ( !(count < nbLinesExpectedLeft)){ //we read as many lines as the limit
-						moreThanLimit = true ;	
-					}
-				}
-			}
-		}
+		boolean moreToRead = isMoreToRead(maxSizeReached, count, nbLinesExpectedLeft); // we did not reach the end of the resultset
+		boolean moreThanLimit = isMoreThanLimit(maxSizeReached, moreData, count, nbLinesExpectedLeft); // is case of a limit query, did we reach the limit
 		
 		kout.writeBoolean(moreThanLimit);
 		// -- V1 only
@@ -496,60 +619,76 @@ public class RawMatrix extends RedisCacheValue {
 		res.setHasMore(moreToRead);			
 		res.setExecutionTime(metter_finish - metter_start);
 		res.setNbLines(count);
-		res.setStreamedMatrix(baout.toByteArray());
+		res.setStreamedMatrix(RedisCacheCompression.compress(baout.toByteArray()));
 
 		return res;
 
 	}
 
-	private void writeObject(Output out) throws IOException {
-		if (logger.isDebugEnabled()) {
-			logger.debug((" in write object"));
+	/**
+	 * true if the stream stopped before the end of the resultset, i.e. another
+	 * chunk must be read
+	 */
+	protected static boolean isMoreToRead(boolean maxSizeReached, long count, long nbLinesExpectedLeft) {
+		if (maxSizeReached) { // we stopped because reached the hard memory limit for one chunk
+			// unless we read exactly as many lines as the limit
+			return !((nbLinesExpectedLeft > -1) && (!(count < nbLinesExpectedLeft)));
+		} else {
+			return false;
 		}
-		long start = new Date().getTime();
-
-		Kryo kryo = new Kryo();
-		kryo.setRegistrationRequired(true);
-		kryo.setReferences(false);
-
-		HashMap<String, Integer> registration = new HashMap<String, Integer>();
+	}
 
-		// Class mapping have to be registered before we start writing
-		for (Integer t : this.colTypes) {
-			int val = t.intValue();
-			if (!isPrimitiveType(val)) {
-				String className = getJavaDatatype(val);
-				try {
-					if (registration.get(className) == null) {
-						registration.put(className, kryo.register(Class.forName(className)).getId());
-					}
-				} catch (ClassNotFoundException e0) {
-					logger.info("Class " + className + " not found");
-				} catch (NullPointerException e1) {
-					logger.info("Class " + className + " not found");
-				}
-			}
+	/**
+	 * in case of a limit query, true if we reached the limit
+	 */
+	protected static boolean isMoreThanLimit(boolean maxSizeReached, boolean moreData, long count,
+			long nbLinesExpectedLeft) {
+		if (maxSizeReached) {
+			return true;
+		} else if (!moreData && nbLinesExpectedLeft > -1) { // no more lines to read, limit
+			return !(count < nbLinesExpectedLeft); // we read as many lines as the limit
+		} else {
+			return false;
 		}
+	}
 
-		// registration.put("org.apache.hadoop.io.Text",kryo.register(org.apache.hadoop.io.Text.class).getId());
-		// registration.put("byte[]", kryo.register(byte[].class).getId());
-
-		// WRITE class mapping
-		out.writeInt(registration.keySet().size());
-		for (String s : registration.keySet()) {
-			out.writeString(s);
-			out.writeInt(registration.get(s));
-		}
+	/**
+	 * write the common header: kryo registration, version and Redis cache type
+	 */
+	protected static void writeHeader(Output out, RedisCacheType type) {
+		// WRITE class mapping: empty since V4, see RedisCacheKryo
+		out.writeInt(0);
 
 		// WRITE version
 		int version = VERSION;
 		if (version >= 1) {
-			out.writeInt(-1);
+			out.writeInt(-1);// this is for V0 compatibility which miss
+			// version information
 			out.writeInt(version);
 		}
 
-		// WRITE RedisCacheValue.RedisCacheType.RAW_MATRIX
-		out.writeInt(RedisCacheType.RAW_MATRIX.ordinal());
+		// WRITE RedisCacheValue.RedisCacheType
+		out.writeInt(type.ordinal());
+	}
+
+	private void writeObject(Output out) throws IOException {
+		Kryo kryo = RedisCacheKryo.borrow();
+		try {
+			writeObject(out, kryo);
+		} finally {
+			RedisCacheKryo.release(kryo);
+		}
+	}
+
+	private void writeObject(Output out, Kryo kryo) throws IOException {
+		if (logger.isDebugEnabled()) {
+			logger.debug((" in write object"));
+		}
+		long start = new Date().getTime();
+
+		// WRITE class mapping, version and RedisCacheValue.RedisCacheType.RAW_MATRIX
+		int version = VERSION;
+		writeHeader(out, RedisCacheType.RAW_MATRIX);
 
 		// WRITE nb columns
 		out.writeInt(this.colNames.size());
@@ -607,17 +746,23 @@ public class RawMatrix extends RedisCacheValue {
 		Output kout = new Output(baout);
 		writeObject(kout);
 		kout.close();
-		byte[] res = baout.toByteArray();
+		byte[] res = RedisCacheCompression.compress(baout.toByteArray());
 		return res;
 	}
 
 	protected void readObject(Input in) throws IOException, ClassNotFoundException {
+		Kryo kryo = RedisCacheKryo.borrow(this.version, this.registration);
+		try {
+			readObject(in, kryo);
+		} finally {
+			RedisCacheKryo.release(this.version, kryo);
+		}
+	}
+
+	private void readObject(Input in, Kryo kryo) throws IOException {
 		if (logger.isDebugEnabled()) {
 			logger.debug(("reading from cache "));
 		}
-		Kryo kryo = new Kryo();
-		kryo.setRegistrationRequired(true);
-		kryo.setReferences(false);
 
 		this.rows = new ArrayList<RawRow>();
 		this.colNames = new ArrayList<String>();
@@ -628,10 +773,6 @@ public class RawMatrix extends RedisCacheValue {
 		// we need a different dictionary to check for first occurences
 		HashMap<Integer, Object> tempDict = new HashMap<Integer, Object>();
 
-		for (String className : this.registration.keySet()) {
-			kryo.register(Class.forName(className), this.registration.get(className).intValue());
-		}
-
 		// READ nb columns
 		int rowSize = in.readInt();
 
@@ -674,6 +815,26 @@ public class RawMatrix extends RedisCacheValue {
 				case MEMBER_VALUE:
 					rawrow[ia] = kryo.readClassAndObject(in);// 7
 					break;
+				case MEMBER_NULL:
+					rawrow[ia] = null;
+					break;
+				case MEMBER_INT:
+					rawrow[ia] = in.readInt();
+					break;
+				case MEMBER_LONG:
+					rawrow[ia] = in.readLong();
+					break;
+				case MEMBER_FLOAT:
+					rawrow[ia] = in.readFloat();
+					break;
+				case MEMBER_DOUBLE:
+					rawrow[ia] = in.readDouble();
+					break;
+				case MEMBER_TIMESTAMP:
+					Timestamp timestamp = new Timestamp(in.readLong());
+					timestamp.setNanos(in.readInt());
+					rawrow[ia] = timestamp;
+					break;
 				}
 			}
 			RawRow row = new RawRow(rawrow);
@@ -693,7 +854,7 @@ public class RawMatrix extends RedisCacheValue {
 	}
 
 	public static RawMatrix deserialize(byte[] serializedMatrix) throws IOException, ClassNotFoundException {
-		Input in = new Input(new ByteArrayInputStream(serializedMatrix));
+		Input in = new Input(new ByteArrayInputStream(RedisCacheCompression.decompress(serializedMatrix)));
 		try {
 			HashMap<String, Integer> registration = new HashMap<String, Integer>();
 	
@@ -733,6 +894,10 @@ public class RawMatrix extends RedisCacheValue {
 				RawMatrix res = new RawMatrix(version, registration);
 				res.readObject(in);
 				return res;
+			} else if (type == RedisCacheType.RAW_MATRIX_COLUMNAR.ordinal()) {
+				ColumnarRawMatrix res = new ColumnarRawMatrix(version, registration);
+				res.readObject(in);
+				return res;
 			} else {
 				throw new ClassNotFoundException("Could not deserialize");
 			}
@@ -844,13 +1009,74 @@ public class RawMatrix extends RedisCacheValue {
 			&&  (mergeInto.getColNames().equals(toMerge.getColNames())))){ 
 			throw new ComputingException("Trying to merge matrices with difference signature types");
 		}
-		mergeInto.getRows().addAll(toMerge.getRows());
+		if (mergeInto instanceof ColumnarRawMatrix) {
+			((ColumnarRawMatrix) mergeInto).appendRows(toMerge);
+		} else {
+			mergeInto.getRows().addAll(toMerge.getRows());
+		}
 		mergeInto.setExecutionDate(toMerge.getExecutionDate());
 		mergeInto.setFromCache(toMerge.isFromCache());
 		mergeInto.setMoreData(toMerge.moreData);
 		mergeInto.setRedisKey(null);
 		return mergeInto;
 	}
+
+	/**
+	 * merge a list of chunks in a single pass, allocating the result only once
+	 * 
+	 * @param chunks
+	 * @return the merged matrix, or null if the list is empty
+	 * @throws ComputingException
+	 */
+	public static RawMatrix mergeMatrices(List<RawMatrix> chunks) throws ComputingException {
+		if (chunks.isEmpty()) {
+			return null;
+		}
+		RawMatrix first = chunks.get(0);
+		if (chunks.size() == 1) {
+			return first;
+		}
+		int total = 0;
+		for (RawMatrix chunk : chunks) {
+			// check if the columns are the same (type +name) for all chunks
+			if (!(first.getColTypes().equals(chunk.getColTypes())
+					&& (first.getColNames().equals(chunk.getColNames())))) {
+				throw new ComputingException("Trying to merge matrices with difference signature types");
+			}
+			total += chunk.getRowCount();
+		}
+		RawMatrix res;
+		if (first instanceof ColumnarRawMatrix) {
+			ColumnarRawMatrix columnar = new ColumnarRawMatrix();
+			columnar.setColNames(first.getColNames());
+			columnar.setColTypes(first.getColTypes());
+			columnar.initColumns(total);
+			for (RawMatrix chunk : chunks) {
+				columnar.appendRows(chunk);
+			}
+			res = columnar;
+		} else {
+			res = new RawMatrix();
+			res.setColNames(first.getColNames());
+			res.setColTypes(first.getColTypes());
+			res.rows = new ArrayList<RawRow>(total);
+			for (RawMatrix chunk : chunks) {
+				if (chunk instanceof ColumnarRawMatrix) {
+					for (int i = 0; i < chunk.getRowCount(); i++) {
+						res.rows.add(new RawRow(chunk.getRowData(i)));
+					}
+				} else {
+					res.rows.addAll(chunk.getRows());
+				}
+			}
+		}
+		RawMatrix last = chunks.get(chunks.size() - 1);
+		res.setExecutionDate(last.getExecutionDate());
+		res.setFromCache(last.isFromCache());
+		res.setMoreData(last.moreData);
+		res.setRedisKey(null);
+		return res;
+	}
 	
 	
 }
@@ -0,0 +1,183 @@
+/*******************************************************************************
+ * Copyright © Squid Solutions, 2016
+ *
+ * This file is part of Open Bouquet software.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * There is a special FOSS exception to the terms and conditions of the
+ * licenses as they are applied to this program. See LICENSE.txt in
+ * the directory of this program distribution.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * Squid Solutions also offers commercial licenses with additional warranties,
+ * professional functionalities or services. If you purchase a commercial
+ * license, then it supersedes and replaces any other agreement between
+ * you and Squid Solutions (above licenses and LICENSE.txt included).
+ * See http://www.squidsolutions.com/EnterpriseBouquet/
+ *******************************************************************************/
+package com.squid.kraken.v4.caching.redis.datastruct;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Optional compression of the serialized matrices before they are stored in
+ * redis.
+ *
+ * A compressed payload starts with a header: the MAGIC byte, the codec id and
+ * the uncompressed length. Uncompressed payloads start with the number of
+ * registered kryo classes written as a big-endian int, so their first byte is
+ * always 0 and entries written before compression was enabled are still read
+ * as is.
+ *
+ */
+public class RedisCacheCompression {
+
+	static final Logger logger = LoggerFactory.getLogger(RedisCacheCompression.class);
+
+	private static final byte MAGIC = (byte) 0xBC;
+
+	private static final int HEADER_SIZE = 6;
+
+	public enum Codec {
+		NONE(0, Deflater.NO_COMPRESSION),
+		// cheap compression, for the chunks written while the query is running
+		DEFLATE_FAST(1, Deflater.BEST_SPEED),
+		// better ratio, more cpu on the workers
+		DEFLATE(2, Deflater.DEFAULT_COMPRESSION);
+
+		private final byte id;
+		private final int level;
+
+		private Codec(int id, int level) {
+			this.id = (byte) id;
+			this.level = level;
+		}
+
+		public static Codec fromId(byte id) throws IOException {
+			for (Codec codec : values()) {
+				if (codec.id == id) {
+					return codec;
+				}
+			}
+			throw new IOException("unknown compression codec " + id);
+		}
+	}
+
+	private static Codec codec = Codec.NONE;
+
+	// smaller payloads are stored uncompressed
+	private static int minSizeInBytes = 1024;
+
+	public static void setCodec(Codec codec) {
+		RedisCacheCompression.codec = codec;
+	}
+
+	public static Codec getCodec() {
+		return codec;
+	}
+
+	public static void setMinSizeInBytes(int minSizeInBytes) {
+		RedisCacheCompression.minSizeInBytes = minSizeInBytes;
+	}
+
+	/**
+	 * compress the payload using the configured codec; return it unchanged if
+	 * compression is disabled or does not save space
+	 */
+	public static byte[] compress(byte[] data) {
+		if (codec == Codec.NONE || data.length < minSizeInBytes) {
+			return data;
+		}
+		Deflater deflater = new Deflater(codec.level);
+		try {
+			deflater.setInput(data);
+			deflater.finish();
+			byte[] res = new byte[data.length];
+			res[0] = MAGIC;
+			res[1] = codec.id;
+			res[2] = (byte) (data.length >>> 24);
+			res[3] = (byte) (data.length >>> 16);
+			res[4] = (byte) (data.length >>> 8);
+			res[5] = (byte) data.length;
+			int size = HEADER_SIZE;
+			while (!deflater.finished() && size < res.length) {
+				size += deflater.deflate(res, size, res.length - size);
+			}
+			if (!deflater.finished()) {
+				// not worth it
+				return data;
+			}
+			if (logger.isDebugEnabled()) {
+				logger.debug("compressed " + data.length + " bytes to " + size + " bytes using " + codec);
+			}
+			byte[] compressed = new byte[size];
+			System.arraycopy(res, 0, compressed, 0, size);
+			return compressed;
+		} finally {
+			deflater.end();
+		}
+	}
+
+	public static boolean isCompressed(byte[] data) {
+		return data.length >= HEADER_SIZE && data[0] == MAGIC;
+	}
+
+	/**
+	 * return the size of the uncompressed payload, read from the header if
+	 * the payload is compressed
+	 */
+	public static int getUncompressedLength(byte[] data) {
+		if (!isCompressed(data)) {
+			return data.length;
+		}
+		return ((data[2] & 0xFF) << 24) | ((data[3] & 0xFF) << 16) | ((data[4] & 0xFF) << 8) | (data[5] & 0xFF);
+	}
+
+	/**
+	 * return the uncompressed payload; uncompressed data is returned unchanged
+	 */
+	public static byte[] decompress(byte[] data) throws IOException {
+		if (!isCompressed(data)) {
+			return data;
+		}
+		Codec used = Codec.fromId(data[1]);
+		int length = getUncompressedLength(data);
+		if (used == Codec.NONE) {
+			throw new IOException("invalid compression header");
+		}
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(data, HEADER_SIZE, data.length - HEADER_SIZE);
+			byte[] res = new byte[length];
+			int size = 0;
+			while (size < length) {
+				int read = inflater.inflate(res, size, length - size);
+				if (read == 0 && (inflater.finished() || inflater.needsInput())) {
+					break;
+				}
+				size += read;
+			}
+			if (size != length) {
+				throw new IOException("truncated compressed payload, read " + size + " bytes out of " + length);
+			}
+			return res;
+		} catch (DataFormatException e) {
+			throw new IOException("invalid compressed payload", e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+}
@@ -0,0 +1,117 @@
+/*******************************************************************************
+ * Copyright © Squid Solutions, 2016
+ *
+ * This file is part of Open Bouquet software.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * There is a special FOSS exception to the terms and conditions of the
+ * licenses as they are applied to this program. See LICENSE.txt in
+ * the directory of this program distribution.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * Squid Solutions also offers commercial licenses with additional warranties,
+ * professional functionalities or services. If you purchase a commercial
+ * license, then it supersedes and replaces any other agreement between
+ * you and Squid Solutions (above licenses and LICENSE.txt included).
+ * See http://www.squidsolutions.com/EnterpriseBouquet/
+ *******************************************************************************/
+package com.squid.kraken.v4.caching.redis.datastruct;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.pool.KryoFactory;
+import com.esotericsoftware.kryo.pool.KryoPool;
+
+/**
+ * Shared Kryo instances used to (de)serialize the matrices.
+ *
+ * Since version 4 of the format, the classes are registered with fixed ids so
+ * the registration table is no longer written in the header and the Kryo
+ * instances can be reused. Older entries carry their own registration and get
+ * a dedicated Kryo.
+ *
+ * The ids below are part of the format: never change or reuse one, only add
+ * new classes at the end (with a new format version).
+ *
+ */
+public class RedisCacheKryo {
+
+	// first version of the format using the fixed registration
+	public static final int FIXED_REGISTRATION_VERSION = 4;
+
+	// kryo default registrations (primitives, wrappers and String) use ids 0 to 9
+	private static final Map<Class<?>, Integer> REGISTRATION = new LinkedHashMap<Class<?>, Integer>();
+
+	static {
+		REGISTRATION.put(java.math.BigDecimal.class, 20);
+		REGISTRATION.put(java.sql.Date.class, 21);
+		REGISTRATION.put(java.sql.Time.class, 22);
+		REGISTRATION.put(java.sql.Timestamp.class, 23);
+		REGISTRATION.put(java.lang.Object.class, 24);
+		REGISTRATION.put(byte[].class, 25);
+		REGISTRATION.put(java.util.Date.class, 26);
+		REGISTRATION.put(java.math.BigInteger.class, 27);
+	}
+
+	private static final KryoPool pool = new KryoPool.Builder(new KryoFactory() {
+		@Override
+		public Kryo create() {
+			Kryo kryo = newKryo();
+			for (Map.Entry<Class<?>, Integer> entry : REGISTRATION.entrySet()) {
+				kryo.register(entry.getKey(), entry.getValue());
+			}
+			return kryo;
+		}
+	}).softReferences().build();
+
+	private static Kryo newKryo() {
+		Kryo kryo = new Kryo();
+		kryo.setRegistrationRequired(true);
+		kryo.setReferences(false);
+		return kryo;
+	}
+
+	/**
+	 * get a Kryo using the fixed registration; it must be given back using
+	 * release()
+	 */
+	public static Kryo borrow() {
+		return pool.borrow();
+	}
+
+	/**
+	 * get a Kryo able to read a stream written with that version and
+	 * registration; it must be given back using release(version, kryo)
+	 */
+	public static Kryo borrow(int version, HashMap<String, Integer> registration) throws ClassNotFoundException {
+		if (version >= FIXED_REGISTRATION_VERSION) {
+			return pool.borrow();
+		}
+		// legacy format
+		Kryo kryo = newKryo();
+		for (String className : registration.keySet()) {
+			kryo.register(Class.forName(className), registration.get(className).intValue());
+		}
+		return kryo;
+	}
+
+	public static void release(Kryo kryo) {
+		pool.release(kryo);
+	}
+
+	public static void release(int version, Kryo kryo) {
+		if (version >= FIXED_REGISTRATION_VERSION) {
+			pool.release(kryo);
+		}
+	}
+
+}
@@ -32,10 +32,11 @@ import com.esotericsoftware.kryo.io.Input;
 public class RedisCacheValue {
 	
 	public enum RedisCacheType{
-		RAW_MATRIX, CACHE_REFERENCE, CACHE_REFERENCE_LIST
+		RAW_MATRIX, CACHE_REFERENCE, CACHE_REFERENCE_LIST, RAW_MATRIX_COLUMNAR
 	}
 	
-	public static final int VERSION = 3;
+	// V4: matrices use the fixed kryo registration of RedisCacheKryo
+	public static final int VERSION = 4;
 	
 	private transient String redisKey = null;
 
@@ -67,7 +68,7 @@ public class RedisCacheValue {
 	}
 	
     public static RedisCacheValue deserialize(byte[] serializedVal) throws IOException, ClassNotFoundException{
-        Input in = new Input( new ByteArrayInputStream(serializedVal));
+        Input in = new Input( new ByteArrayInputStream(RedisCacheCompression.decompress(serializedVal)));
         try {
 		    HashMap <String, Integer> registration = new HashMap <String, Integer>() ;
 		
@@ -110,6 +111,12 @@ public class RedisCacheValue {
 		        in.close();
 		        return res;
 		
+		    }else if (type == RedisCacheType.RAW_MATRIX_COLUMNAR.ordinal()){
+		        ColumnarRawMatrix res =  new ColumnarRawMatrix(version, registration );
+		        res.readObject(in) ;
+		        in.close();
+		        return res;
+
 		    }else{
 		    	if (type == RedisCacheType.CACHE_REFERENCE.ordinal()){
 		    		RedisCacheReference  res = new RedisCacheReference();
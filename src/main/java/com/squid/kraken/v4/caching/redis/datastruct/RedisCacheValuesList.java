@@ -43,6 +43,26 @@ public class RedisCacheValuesList extends RedisCacheValue {
 	private State state;
 
 
+	/**
+	 * the channel used to notify that the list stored under that key has been updated
+	 * @param key
+	 * @return
+	 */
+	public static String getNotificationChannel(String key){
+		return "chunks:"+key;
+	}
+
+	/**
+	 * the key of the append-only Redis list storing the chunk references. When
+	 * it exists, it replaces the references serialized in the value itself, so
+	 * the worker only has to append the new chunks and update the state.
+	 * @param key
+	 * @return
+	 */
+	public static String getChunkRefsKey(String key){
+		return key+":refs";
+	}
+
 	public RedisCacheValuesList(){
 		this.referenceKeys  = new ArrayList<ChunkRef>();
 		this.state = State.ONGOING;
@@ -69,6 +89,11 @@ public class RedisCacheValuesList extends RedisCacheValue {
 	}
 
 
+	public RedisCacheValuesList(State state){
+		this();
+		this.state = state;
+	}
+
 	public void setDone(){
 		this.state=State.DONE;
 	}
@@ -24,10 +24,13 @@
 package com.squid.kraken.v4.caching.redis.generationalkeysserver;
 
 import java.util.ArrayList;
+import java.util.Map;
 
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -64,4 +67,11 @@ public class GenerationalKeysRestService {
 	public synchronized String hello() {
 		return serv.hello();
 	}	
+
+	@GET
+	@Path("/stats")
+	@Produces({ MediaType.APPLICATION_JSON })
+	public Map<String, Object> stats() {
+		return serv.getStatistics();
+	}
 }	
@@ -23,22 +23,35 @@
  *******************************************************************************/
 package com.squid.kraken.v4.caching.redis.generationalkeysserver;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.squid.kraken.v4.KrakenConfig;
 import com.squid.kraken.v4.caching.redis.IRedisCacheProxy;
+import com.squid.kraken.v4.caching.redis.RedisSubscription;
 import com.squid.kraken.v4.caching.redis.ServerID;
 
 /**
  * abstract version to be used by both actual and mockup
+ * 
+ * The keys versions are stored in a Redis hash, so a refresh is an atomic increment; the key JSON only keeps the
+ * key metadata.
+ * The keys are kept in a local map. Each key update is broadcast to the other nodes, which update their local copy;
+ * in case a notification is lost, a local key is checked again against Redis after MAX_STALENESS_MS.
  * @author sergefantino
  *
  */
@@ -49,14 +62,41 @@ public abstract class GenerationalKeysServerStandard implements IGenerationalKey
 
 	public static final String REDISKEY_VERSION = "";// use it as a kill switch to clear any cache when releasing a new version
     public static final String REDISKEY_PREFIX = "rediskey" + REDISKEY_VERSION + "-";
+    // the hash that stores the keys versions: the key JSON version is only used if the key has no field there
+    public static final String REDISKEY_VERSIONS = "rediskey" + REDISKEY_VERSION + ":versions";
 
     private IRedisCacheProxy redis;
 
+    // the channel used to broadcast the keys updates
+    public static final String NOTIFICATION_CHANNEL = "genkeys";
+
+    // the maximum time a local key is used without checking Redis
+    private static final long MAX_STALENESS_MS = new Long(KrakenConfig.getProperty("feature.genkeys.staleness", "60000"));
+
     private ConcurrentHashMap<String, RedisKey> keys;
 
+    // the last time each local key was known to be up to date
+    private ConcurrentHashMap<String, Long> checked;
+
+    private RedisSubscription subscription;
+
+    // stats
+    private final AtomicLong localHits = new AtomicLong();
+    private final AtomicLong redisReads = new AtomicLong();
+    private final AtomicLong staleChecks = new AtomicLong();
+    private final AtomicLong notificationsSent = new AtomicLong();
+    private final AtomicLong notificationsReceived = new AtomicLong();
+
     public GenerationalKeysServerStandard(ServerID redisID) {
         this.keys = new ConcurrentHashMap<String, RedisKey>();
+        this.checked = new ConcurrentHashMap<String, Long>();
         this.redis = initRedisService(redisID);
+        this.subscription = this.redis.subscribe(NOTIFICATION_CHANNEL, new RedisSubscription.Listener() {
+            @Override
+            public void onMessage(String channel, String message) {
+                onKeyUpdate(message);
+            }
+        });
     }
     
     protected abstract IRedisCacheProxy initRedisService(ServerID redisID);
@@ -115,50 +155,138 @@ public abstract class GenerationalKeysServerStandard implements IGenerationalKey
     
     @Override
     public boolean refresh(Collection<String> dependencies) {
-        for (String name : dependencies) {
-        	RedisKey k = this.getExistingKey(name);
-        	if (k ==null){
-        		try {
-					k = this.createKey(name, null);
-				} catch (GenKeyException e) {
-					logger.error("failed to refresh key for " + name +" with error:" + e.toString());
-					continue;
-				}
-            } else {
-                k.increaseVersion();;
-            }
-            this.saveKeyToRedis(k);
-            //logger.info("refreshed key for " + name + ": " + k.getStringKey());
+        // the metadata don't change, only the versions
+        Map<String, RedisKey> existing = this.getExistingKeys(dependencies, false);
+        Map<String, Long> versions = this.redis.incrementFields(REDISKEY_VERSIONS, dependencies);
+        List<RedisKey> refreshed = new ArrayList<RedisKey>(dependencies.size());
+        Map<String, String> created = new LinkedHashMap<String, String>();
+        try {
+	        for (String name : dependencies) {
+	        	RedisKey k = existing.get(name);
+	        	int version = versions.get(name).intValue();
+	        	if (k ==null){
+	        		k = new RedisKey(name, UUID.randomUUID(), version, null);
+	        		created.put(REDISKEY_PREFIX + name, k.toJson());
+	            } else {
+	                k = new RedisKey(k.getName(), k.getUniqueID(), version, k.getDepGen());
+	            }
+	        	refreshed.add(k);
+	            //logger.info("refreshed key for " + name + ": " + k.getStringKey());
+	        }
+        } catch (JsonProcessingException e) {
+            logger.error("failed to save key to redis: " + e.getMessage());
+            throw new RuntimeException(e);
         }
+        this.redis.putAll(created);
+        this.updateLocalKeys(refreshed);
         return true;
     }
     
     private RedisKey getExistingKey(String name){
-    	RedisKey k = this.keys.get(name);
-    	if (k!=null) {// got a key
-    		if (!k.getName().equals(name)) {
-    			// alert, it's not valid
-    			logger.error("inconsistent genkey found for key=" + name);
-    			return null;
-    		} else {
-    			// the normal way
-    			return k;
+    	return getExistingKey(name, false);
+    }
+
+    /**
+     * get the key from the local map if it is fresh enough, or from Redis
+     * @param name
+     * @param forceCheck : if true, always check the Redis version
+     * @return the key or null if it does not exist
+     */
+    private RedisKey getExistingKey(String name, boolean forceCheck){
+    	return getExistingKeys(Collections.singleton(name), forceCheck).get(name);
+    }
+
+    /**
+     * get the keys from the local map if they are fresh enough; the other keys are read from Redis in a single request
+     * @param names
+     * @param forceCheck : if true, always check the Redis versions
+     * @return the existing keys by name
+     */
+    private Map<String, RedisKey> getExistingKeys(Collection<String> names, boolean forceCheck){
+    	Map<String, RedisKey> res = new HashMap<String, RedisKey>(names.size());
+    	Map<String, RedisKey> toCheck = new HashMap<String, RedisKey>();
+    	long now = System.currentTimeMillis();
+    	for (String name : names) {
+    		RedisKey k = this.keys.get(name);
+    		if (k!=null) {// got a key
+    			if (!k.getName().equals(name)) {
+    				// alert, it's not valid
+    				logger.error("inconsistent genkey found for key=" + name);
+    				continue;
+    			}
+    			Long time = this.checked.get(name);
+    			if (!forceCheck && time!=null && now-time<=MAX_STALENESS_MS) {
+    				// the normal way
+    				localHits.incrementAndGet();
+    				res.put(name, k);
+    				continue;
+    			}
+    			staleChecks.incrementAndGet();
     		}
-    	} else if (redis.inCache(REDISKEY_PREFIX + name)) { // k==null
-    		// the key is in Redis
-    		try {
-    			// got it
-				return this.retrieveKeyFromRedis(name);
-			} catch (GenKeyException e) {
-				// some error
-				logger.error("cannot retrieve genkey found for key=" + name, e);
-				return null;
-			}
-    	} else {
-    		// unknown key
-    		return null;
+    		toCheck.put(name, k);
+    	}
+    	if (toCheck.isEmpty()) {
+    		return res;
+    	}
+    	Map<String, RedisKey> remotes;
+    	try {
+    		remotes = this.retrieveKeysFromRedis(toCheck.keySet());
+    	} catch (RuntimeException e) {
+    		if (toCheck.values().contains(null)) {
+    			throw e;
+    		}
+    		logger.warn("cannot check genkeys " + toCheck.keySet() + ", using the local versions: " + e.getMessage());
+    		res.putAll(toCheck);
+    		return res;
+    	}
+    	for (Map.Entry<String, RedisKey> entry : toCheck.entrySet()) {
+    		RedisKey remote = remotes.get(entry.getKey());
+    		if (remote!=null) {
+    			res.put(entry.getKey(), remote);
+    		} else if (entry.getValue()!=null) {
+    			// not in Redis anymore, keep using the local key
+    			this.checked.put(entry.getKey(), now);
+    			res.put(entry.getKey(), entry.getValue());
+    		}
+    		// else unknown key
+    	}
+    	return res;
+    }
+
+    /**
+     * a key was updated by a node (this one included): update the local copy if we have one
+     * @param message : the key JSON
+     */
+    private void onKeyUpdate(String message) {
+    	notificationsReceived.incrementAndGet();
+    	RedisKey update = message!=null?RedisKey.fromJson(message):null;
+    	if (update==null || update.getName()==null) {
+    		return;
+    	}
+    	String name = update.getName();
+    	RedisKey local = this.keys.get(name);
+    	if (local!=null) {
+    		if (!update.getUniqueID().equals(local.getUniqueID()) || update.getVersion()>=local.getVersion()) {
+    			this.keys.put(name, update);
+    		}
+    		this.checked.put(name, System.currentTimeMillis());
     	}
     }
+
+    /**
+     * @return the local keys and notifications statistics
+     */
+    public Map<String, Object> getStatistics() {
+    	Map<String, Object> res = new LinkedHashMap<String, Object>();
+    	res.put("keys", keys.size());
+    	res.put("localHits", localHits.get());
+    	res.put("redisReads", redisReads.get());
+    	res.put("staleChecks", staleChecks.get());
+    	res.put("notificationsSent", notificationsSent.get());
+    	res.put("notificationsReceived", notificationsReceived.get());
+    	res.put("maxStalenessMs", MAX_STALENESS_MS);
+    	return res;
+    }
     
     private HashMap<String, Integer> getGenDeps(Collection<String> names) throws GenKeyException {
     	if (names == null)
@@ -167,53 +295,137 @@ public abstract class GenerationalKeysServerStandard implements IGenerationalKey
     	HashMap<String, Integer> res = new HashMap<String, Integer>();
         
     	if (names!=null) {
-	        HashSet<String> doneDeps = new HashSet<String>(names);
+    		// resolve all the dependencies at once, and create the missing ones at once
+    		Map<String, RedisKey> existing = this.getExistingKeys(names, false);
+    		List<RedisKey> created = new ArrayList<RedisKey>();
 	        for (String name: names) {
-	        	doneDeps.add(name);
-	        	RedisKey dep = this.getExistingKey(name);
+	        	RedisKey dep = existing.get(name);
 	        	if (dep == null)
 	        	{
-	                dep = this.createKey(name, null) ;
+	                dep = new RedisKey(name, UUID.randomUUID(), 0, null);
+	                existing.put(name, dep);
+	                created.add(dep);
 	            }
 	        	res.put(name, new Integer(dep.getVersion())); 
 	        }
+	        this.createKeys(created);
+	        for (RedisKey dep : created) {
+	        	res.put(dep.getName(), new Integer(dep.getVersion()));
+	        }
     	}
         
         return res;
     }
 
-    private void saveKeyToRedis(RedisKey toSave) {
-        String key = REDISKEY_PREFIX + toSave.getName();
+    /**
+     * create the keys versions if they don't exist yet (another node may have created them first, or
+     * refreshed them since), then save the keys with the stored versions and let the other nodes know
+     */
+    private void createKeys(Collection<RedisKey> created) {
+        if (created.isEmpty()) {
+            return;
+        }
+        Map<String, Long> versions = new LinkedHashMap<String, Long>(created.size());
+        for (RedisKey k : created) {
+            versions.put(k.getName(), (long) k.getVersion());
+        }
+        Map<String, Long> stored = this.redis.initFields(REDISKEY_VERSIONS, versions);
+        for (RedisKey k : created) {
+            Long version = stored.get(k.getName());
+            if (version != null) {
+                k.setVersion(version.intValue());
+            }
+        }
+        this.saveKeysToRedis(created);
+    }
+
+    /**
+     * save the keys metadata in a single request, and let the other nodes know; the versions are only
+     * updated by initFields() and incrementFields()
+     */
+    private void saveKeysToRedis(Collection<RedisKey> toSave) {
+        if (toSave.isEmpty()) {
+            return;
+        }
+        Map<String, String> values = new LinkedHashMap<String, String>(toSave.size());
         try {
-            this.redis.put(key, toSave.toJson());
+            for (RedisKey k : toSave) {
+                values.put(REDISKEY_PREFIX + k.getName(), k.toJson());
+            }
         } catch (JsonProcessingException e) {
             logger.error("failed to save key to redis: " + e.getMessage());
             throw new RuntimeException(e);
         }
+        this.redis.putAll(values);
+        this.updateLocalKeys(toSave);
+    }
 
+    /**
+     * update the local copies of keys that were just saved, and let the other nodes know
+     */
+    private void updateLocalKeys(Collection<RedisKey> updated) {
+        List<String> messages = new ArrayList<String>(updated.size());
+        long now = System.currentTimeMillis();
+        for (RedisKey k : updated) {
+            this.keys.put(k.getName(), k);
+            this.checked.put(k.getName(), now);
+            try {
+                messages.add(k.toJson());
+            } catch (JsonProcessingException e) {
+                // the other nodes will check the key later
+            }
+        }
+        this.redis.publishAll(NOTIFICATION_CHANNEL, messages);
+        notificationsSent.addAndGet(messages.size());
     }
     
     //private ConcurrentHashMap<String, RedisKey> reverseCheck = new ConcurrentHashMap<>();
 
-    private RedisKey retrieveKeyFromRedis(String name) throws GenKeyException {
-        String key = REDISKEY_PREFIX + name;
-        byte[] b = this.redis.get(key);
-        if (b != null) {
-        	RedisKey k = RedisKey.fromJson(new String(b)) ;
-        	this.keys.put(name, k);
-        	/*
-        	RedisKey check = reverseCheck.get(k.getStringKey());
-        	if (check!=null && !check.getName().equals(name)) {
-        	    logger.error("inconsistent genKey: we have a collision with " + check.getName());
-        	} else {
-        	    reverseCheck.put(k.getStringKey(), k);
-        	    logger.info("create genKey=" + k.getStringKey());
+    /**
+     * read the keys from Redis in a single request and update the local copies
+     * @return the keys found in Redis, by name
+     */
+    private Map<String, RedisKey> retrieveKeysFromRedis(Collection<String> names) {
+        Map<String, String> redisKeys = new HashMap<String, String>(names.size());
+        for (String name : names) {
+            redisKeys.put(REDISKEY_PREFIX + name, name);
+        }
+        redisReads.incrementAndGet();
+        Map<String, byte[]> values = this.redis.getAll(redisKeys.keySet());
+        Map<String, RedisKey> res = new HashMap<String, RedisKey>(values.size());
+        for (Map.Entry<String, byte[]> entry : values.entrySet()) {
+        	String name = redisKeys.get(entry.getKey());
+        	RedisKey k = RedisKey.fromJson(new String(entry.getValue())) ;
+        	if (k != null) {
+        		res.put(name, k);
         	}
-        	*/
-            return k;
-        } else {
-            throw new GenKeyException("cannot find redisKey '" + name +"'");
         }
+        if (res.isEmpty()) {
+        	return res;
+        }
+        // the current versions
+        Map<String, Long> versions = this.redis.getFields(REDISKEY_VERSIONS, res.keySet());
+        Map<String, Long> missing = new HashMap<String, Long>();
+        for (Map.Entry<String, RedisKey> entry : res.entrySet()) {
+        	Long version = versions.get(entry.getKey());
+        	if (version == null) {
+        		// a key saved before the versions hash: use its JSON version
+        		missing.put(entry.getKey(), (long) entry.getValue().getVersion());
+        	}
+        }
+        versions.putAll(this.redis.initFields(REDISKEY_VERSIONS, missing));
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, RedisKey> entry : res.entrySet()) {
+        	String name = entry.getKey();
+        	RedisKey k = entry.getValue();
+        	Long version = versions.get(name);
+        	if (version != null) {
+        		k.setVersion(version.intValue());
+        	}
+        	this.keys.put(name, k);
+        	this.checked.put(name, now);
+        }
+        return res;
     }
 
     public boolean isFresh(RedisKey k) throws GenKeyException {
@@ -230,8 +442,9 @@ public abstract class GenerationalKeysServerStandard implements IGenerationalKey
     			if (k.getDepGen() == null){
     				return true;
     			}else{
+    				Map<String, RedisKey> deps = this.getExistingKeys(k.getDepGen().keySet(), false);
     				for (String name : k.getDepGen().keySet()) {
-    					RedisKey dep = this.getExistingKey(name);
+    					RedisKey dep = deps.get(name);
     					if (dep == null){
     						//throw new GenKeyException("dependency " + name + " cannot be found");
     					    return false;
@@ -251,9 +464,11 @@ public abstract class GenerationalKeysServerStandard implements IGenerationalKey
     private RedisKey updateKey(RedisKey old) throws GenKeyException {
     	HashMap<String, Integer> depVersions = this.getGenDeps(old.getDepGen().keySet());
   
-        RedisKey newKey = new RedisKey(old.getName(), old.getUniqueID(), old.getVersion() + 1, depVersions);
+        // increment the stored version, not the local one, so concurrent updates are not lost
+        Map<String, Long> versions = this.redis.incrementFields(REDISKEY_VERSIONS, Collections.singleton(old.getName()));
+        RedisKey newKey = new RedisKey(old.getName(), old.getUniqueID(), versions.get(old.getName()).intValue(), depVersions);
         this.keys.put(old.getName(), newKey);
-        this.saveKeyToRedis(newKey);
+        this.saveKeysToRedis(Collections.singletonList(newKey));
         return newKey;
     }
 
@@ -261,8 +476,7 @@ public abstract class GenerationalKeysServerStandard implements IGenerationalKey
         UUID uniqueID = UUID.randomUUID();
         HashMap<String, Integer> depVersions = this.getGenDeps(dependencies);
         RedisKey newKey = new RedisKey(id, uniqueID, 0, depVersions);
-        this.keys.put(id, newKey);
-        this.saveKeyToRedis(newKey);
+        this.createKeys(Collections.singletonList(newKey));
         return newKey;
     }
 
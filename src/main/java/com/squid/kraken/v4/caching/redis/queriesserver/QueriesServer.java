@@ -24,12 +24,12 @@
 package com.squid.kraken.v4.caching.redis.queriesserver;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -41,31 +41,46 @@ import com.squid.kraken.v4.caching.redis.queryworkerserver.IQueryWorkerServer;
 import com.squid.kraken.v4.caching.redis.queryworkerserver.QueryWorkerFactory;
 import com.squid.kraken.v4.caching.redis.queryworkerserver.QueryWorkerJobRequest;
 import com.squid.kraken.v4.caching.redis.queryworkerserver.QueryWorkerJobStatus;
+import com.squid.kraken.v4.caching.redis.queryworkerserver.QueryWorkerLoad;
 
 public class QueriesServer implements IQueriesServer {
 
 	static final Logger logger = LoggerFactory.getLogger(QueriesServer.class);
 
 	public static enum LoadDistributionPolicy {
-		ROUND_ROBIN, LESS_LOADED
+		ROUND_ROBIN, LESS_LOADED, COST_AWARE
 	}
 
-	private HashMap<String, ExecutorService> executors;
+	// how long the load reported by a worker is trusted
+	private static final long LOAD_STATUS_TTL_MS = 1000;
+
+	// costs are expressed in number of small queries
+	private static final double BYTES_PER_QUERY = 10 * 1024 * 1024;
+	private static final double ROWS_PER_QUERY = 100000;
+	private static final double NEW_DATASOURCE_COST = 1;
+	// latency of a worker considered normal
+	private static final double REFERENCE_LATENCY_MS = 1000;
+	private static final double LATENCY_EWMA_ALPHA = 0.2;
+
+	private QueryScheduler scheduler;
 	private ArrayList<IQueryWorkerServer> workers;
+	private ConcurrentHashMap<IQueryWorkerServer, WorkerState> states = new ConcurrentHashMap<>();
 	private boolean debug;
 
-	private int nextWorker = 0;
+	private AtomicInteger nextWorker = new AtomicInteger();
 
-	private LoadDistributionPolicy policy = LoadDistributionPolicy.LESS_LOADED;
+	private LoadDistributionPolicy policy = LoadDistributionPolicy.COST_AWARE;
 
 	private int threadPoolSize = 5;
 
-	private HashMap<String, Future<Integer>> ongoingQueries;
+	private int maxThreads = 50;
+
+	private ConcurrentHashMap<String, CompletableFuture<Integer>> ongoingQueries;
 
 	public QueriesServer() {
-		executors = new HashMap<String, ExecutorService>();
-		ongoingQueries = new HashMap<String, Future<Integer>>();
+		ongoingQueries = new ConcurrentHashMap<String, CompletableFuture<Integer>>();
 		this.workers = new ArrayList<IQueryWorkerServer>();
+		this.scheduler = new QueryScheduler(maxThreads, threadPoolSize);
 		logger.info("new Queries server");
 	}
 
@@ -73,6 +88,8 @@ public class QueriesServer implements IQueriesServer {
 		this();
 		this.debug = conf.getDebug();
 		this.threadPoolSize = conf.getQuerieServerThreadPoolSize();
+		this.maxThreads = conf.getQuerieServerMaxThreads();
+		this.scheduler = new QueryScheduler(maxThreads, threadPoolSize);
 		if (conf.getWorkers() == null) {
 			// create local worker
 			this.workers.add(
@@ -95,12 +112,25 @@ public class QueriesServer implements IQueriesServer {
 		}
 	}
 
-	private IQueryWorkerServer getNextWorker() {
+	private IQueryWorkerServer getNextWorker(QueryWorkerJobRequest request) {
 		if (this.workers.size() == 1) {
 			return this.workers.get(0);
 		} else {
 
-			if (this.policy == LoadDistributionPolicy.LESS_LOADED) {
+			if (this.policy == LoadDistributionPolicy.COST_AWARE) {
+				String datasource = QueryWorkerLoad.getDatasourceKey(request);
+				IQueryWorkerServer bestWorkerServ = null;
+				double minimumCost = Double.MAX_VALUE;
+				for (IQueryWorkerServer worker : this.workers) {
+					double cost = getState(worker).getCost(datasource);
+					if (cost < minimumCost) {
+						minimumCost = cost;
+						bestWorkerServ = worker;
+					}
+				}
+				return bestWorkerServ;
+
+			} else if (this.policy == LoadDistributionPolicy.LESS_LOADED) {
 				IQueryWorkerServer bestWorkerServ = this.workers.get(0);
 				int minimumLoad = bestWorkerServ.getLoad();
 				if (minimumLoad == 0) {
@@ -121,11 +151,88 @@ public class QueriesServer implements IQueriesServer {
 
 			} else {
 				// defaul policy Round Robin
-				IQueryWorkerServer nextWorkerServ = this.workers.get(this.nextWorker);
-				this.nextWorker = (this.nextWorker + 1) % this.workers.size();
-				return nextWorkerServ;
+				int next = Math.floorMod(this.nextWorker.getAndIncrement(), this.workers.size());
+				return this.workers.get(next);
+			}
+		}
+	}
+
+	private WorkerState getState(IQueryWorkerServer worker) {
+		return states.computeIfAbsent(worker, w -> new WorkerState(w));
+	}
+
+	/**
+	 * run the request on the best worker available when it starts
+	 */
+	private Integer fetchOnNextWorker(QueryWorkerJobRequest request) {
+		IQueryWorkerServer worker = this.getNextWorker(request);
+		WorkerState state = getState(worker);
+		state.pending.incrementAndGet();
+		long start = System.currentTimeMillis();
+		try {
+			return new CallableFetch(request, worker).call();
+		} finally {
+			state.pending.decrementAndGet();
+			state.recordLatency(System.currentTimeMillis() - start);
+		}
+	}
+
+	/**
+	 * what we know about the load of a worker: the queries we sent and are
+	 * not yet answered, the recent latency, and the last load it reported
+	 *
+	 */
+	private static class WorkerState {
+
+		private final IQueryWorkerServer worker;
+
+		private final AtomicInteger pending = new AtomicInteger();
+
+		private volatile double latency = 0;
+
+		private volatile QueryWorkerLoad load = new QueryWorkerLoad();
+
+		private volatile long loadTimestamp = 0;
+
+		public WorkerState(IQueryWorkerServer worker) {
+			this.worker = worker;
+		}
+
+		public synchronized void recordLatency(long duration) {
+			latency = LATENCY_EWMA_ALPHA * duration + (1 - LATENCY_EWMA_ALPHA) * latency;
+		}
+
+		private QueryWorkerLoad getLoad() {
+			long now = System.currentTimeMillis();
+			if (now - loadTimestamp > LOAD_STATUS_TTL_MS) {
+				loadTimestamp = now;
+				try {
+					QueryWorkerLoad update = worker.getLoadStatus();
+					if (update != null) {
+						load = update;
+					}
+				} catch (RuntimeException e) {
+					logger.warn("failed to get the load of worker " + worker + ": " + e.getLocalizedMessage());
+				}
+			}
+			return load;
+		}
+
+		/**
+		 * the cost of running one more query on that worker, in number of
+		 * small queries
+		 */
+		public double getCost(String datasource) {
+			QueryWorkerLoad current = getLoad();
+			double cost = 1 + pending.get() + current.getJobs() + current.getInFlightBytes() / BYTES_PER_QUERY
+					+ current.getInFlightRows() / ROWS_PER_QUERY;
+			cost = cost * (1 + latency / REFERENCE_LATENCY_MS);
+			if (current.getDatasources() == null || !current.getDatasources().contains(datasource)) {
+				cost += NEW_DATASOURCE_COST;
 			}
+			return cost;
 		}
+
 	}
 
 	@Override
@@ -133,45 +240,35 @@ public class QueriesServer implements IQueriesServer {
 		if (logger.isDebugEnabled()) {
 			logger.debug(("fetching job " + request.getJobId()));
 		}
-		Future<Integer> processingQuery;
-		boolean isFirst = false;
-
-		String executorKey;
-		ExecutorService executor;
+		final String executorKey;
 		if (this.debug)
 			executorKey = "debug";
 		else
 			executorKey = request.getJdbcURL();
+		final String customerId = request.getProjectPK() != null ? request.getProjectPK().getCustomerId()
+				: request.getUserID();
 
-		synchronized (this.executors) {
-			executor = this.executors.get(executorKey);
-			if (executor == null) {
-				executor = Executors.newFixedThreadPool(threadPoolSize);
-				executors.put(executorKey, executor);
+		// same query already running? share its result
+		final boolean[] isFirst = new boolean[] { false };
+		CompletableFuture<Integer> processingQuery = this.ongoingQueries.computeIfAbsent(request.getKey(), key -> {
+			if (logger.isDebugEnabled()) {
+				logger.debug(("new query " + request.getSQLQuery()));
 			}
-		}
-
-		synchronized (this.ongoingQueries) {
-			processingQuery = this.ongoingQueries.get(request.getKey());
-			if (processingQuery == null) {
-				if (logger.isDebugEnabled()) {
-					logger.debug(("new query " + request.getSQLQuery()));
-				}
-				isFirst = true;
-				CallableFetch cf = new CallableFetch(request, this.getNextWorker());
-				processingQuery = (Future<Integer>) executor.submit(cf);
-				this.ongoingQueries.put(request.getKey(), processingQuery);
-			} else {
-				if (logger.isDebugEnabled()) {
-					logger.debug(("ongoing query " + request.getSQLQuery()));
-				}
+			isFirst[0] = true;
+			// the worker is chosen when the query starts
+			return scheduler.submit(executorKey, customerId != null ? customerId : "",
+					() -> fetchOnNextWorker(request));
+		});
+		if (isFirst[0]) {
+			final CompletableFuture<Integer> future = processingQuery;
+			future.whenComplete((res, e) -> this.ongoingQueries.remove(request.getKey(), future));
+		} else {
+			if (logger.isDebugEnabled()) {
+				logger.debug(("ongoing query " + request.getSQLQuery()));
 			}
 		}
-		boolean failed = true;// check if the processing failed
 		try {
-			Integer res = processingQuery.get();
-			failed = false;// no error
-			return res;
+			return processingQuery.get();
 		} catch (InterruptedException | ExecutionException e) {
 			if (e.getCause() != null && e.getCause() instanceof RedisCacheException) {
 				throw (RedisCacheException) e.getCause();
@@ -179,15 +276,17 @@ public class QueriesServer implements IQueriesServer {
 				// do't really need the stack trace here
 				throw new RedisCacheException(e.getLocalizedMessage());
 			}
-		} finally {
-			if (isFirst || failed) {
-				synchronized (this.ongoingQueries) {
-					this.ongoingQueries.remove(request.getKey());
-				}
-			}
 		}
 	}
 
+	/**
+	 * scheduler statistics: queue depth per datasource and wait times
+	 * @return
+	 */
+	public Map<String, Object> getStatistics() {
+		return scheduler.getStatistics();
+	}
+
 	@Override
 	public boolean isQueryOngoing(String key) {
 		for (IQueryWorkerServer worker : this.workers) {
@@ -24,10 +24,13 @@
 package com.squid.kraken.v4.caching.redis.queriesserver;
 
 import java.util.List;
+import java.util.Map;
 
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
 
 import com.squid.kraken.v4.caching.redis.queryworkerserver.QueryWorkerJobRequest;
 import com.squid.kraken.v4.caching.redis.queryworkerserver.QueryWorkerJobStatus;
@@ -59,6 +62,13 @@ public class QueriesServerRestService {
 		return this.delegate.getOngoingQueries(customerId);
 	}
 
+	@GET
+	@Path("/stats")
+	@Produces({ MediaType.APPLICATION_JSON })
+	public Map<String, Object> stats() {
+		return this.delegate.getStatistics();
+	}
+
 	@GET
 	@Path("/hello")
 	public String hello() {
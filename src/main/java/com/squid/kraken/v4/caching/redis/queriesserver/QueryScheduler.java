@@ -0,0 +1,230 @@
+/*******************************************************************************
+ * Copyright © Squid Solutions, 2016
+ *
+ * This file is part of Open Bouquet software.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * There is a special FOSS exception to the terms and conditions of the
+ * licenses as they are applied to this program. See LICENSE.txt in
+ * the directory of this program distribution.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * Squid Solutions also offers commercial licenses with additional warranties,
+ * professional functionalities or services. If you purchase a commercial
+ * license, then it supersedes and replaces any other agreement between
+ * you and Squid Solutions (above licenses and LICENSE.txt included).
+ * See http://www.squidsolutions.com/EnterpriseBouquet/
+ *******************************************************************************/
+package com.squid.kraken.v4.caching.redis.queriesserver;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Run the queries on a single pool of threads shared by all the datasources.
+ *
+ * Each datasource runs at most maxPerDatasource queries at a time; the
+ * pending queries are queued by customer and the customers are served in
+ * turn, so a customer sending a lot of queries does not delay the others.
+ *
+ */
+public class QueryScheduler {
+
+	static final Logger logger = LoggerFactory.getLogger(QueryScheduler.class);
+
+	private final ExecutorService executor;
+
+	private final int maxPerDatasource;
+
+	private final ConcurrentHashMap<String, DatasourceQueue> datasources = new ConcurrentHashMap<>();
+
+	// stats
+	private final AtomicLong scheduled = new AtomicLong();
+	private final AtomicLong totalWaitTime = new AtomicLong();
+	private final AtomicLong maxWaitTime = new AtomicLong();
+
+	public QueryScheduler(int poolSize, int maxPerDatasource) {
+		this.maxPerDatasource = maxPerDatasource;
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "queries-server-" + count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		// don't keep threads when there is nothing to run
+		pool.allowCoreThreadTimeOut(true);
+		this.executor = pool;
+	}
+
+	/**
+	 * schedule the task for that datasource and customer
+	 * @return a future completed with the task result
+	 */
+	public <T> CompletableFuture<T> submit(String datasource, String customerId, Callable<T> task) {
+		CompletableFuture<T> future = new CompletableFuture<T>();
+		DatasourceQueue queue = datasources.computeIfAbsent(datasource, k -> new DatasourceQueue());
+		queue.add(customerId, new Job<T>(task, future));
+		dispatch(queue);
+		return future;
+	}
+
+	/**
+	 * start as many pending jobs as the datasource allows
+	 */
+	private void dispatch(DatasourceQueue queue) {
+		Job<?> job;
+		while ((job = queue.poll(maxPerDatasource)) != null) {
+			final Job<?> next = job;
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						next.run();
+					} finally {
+						queue.release();
+						dispatch(queue);
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * queue depth and running queries for each datasource, and the time spent
+	 * by the queries waiting for a thread
+	 */
+	public Map<String, Object> getStatistics() {
+		Map<String, Object> res = new LinkedHashMap<String, Object>();
+		Map<String, Object> details = new LinkedHashMap<String, Object>();
+		int queued = 0;
+		int running = 0;
+		for (Map.Entry<String, DatasourceQueue> entry : datasources.entrySet()) {
+			DatasourceQueue queue = entry.getValue();
+			Map<String, Object> stats = queue.getStatistics();
+			queued += (Integer) stats.get("queued");
+			running += (Integer) stats.get("running");
+			details.put(entry.getKey(), stats);
+		}
+		long count = scheduled.get();
+		res.put("queued", queued);
+		res.put("running", running);
+		res.put("scheduled", count);
+		res.put("averageWaitTimeMs", count > 0 ? totalWaitTime.get() / count : 0);
+		res.put("maxWaitTimeMs", maxWaitTime.get());
+		res.put("datasources", details);
+		return res;
+	}
+
+	private void recordWaitTime(long wait) {
+		scheduled.incrementAndGet();
+		totalWaitTime.addAndGet(wait);
+		long max;
+		while ((max = maxWaitTime.get()) < wait && !maxWaitTime.compareAndSet(max, wait))
+			;
+	}
+
+	private class Job<T> {
+
+		private final Callable<T> task;
+		private final CompletableFuture<T> future;
+		private final long queued = System.currentTimeMillis();
+
+		public Job(Callable<T> task, CompletableFuture<T> future) {
+			this.task = task;
+			this.future = future;
+		}
+
+		public void run() {
+			recordWaitTime(System.currentTimeMillis() - queued);
+			try {
+				future.complete(task.call());
+			} catch (Throwable e) {
+				future.completeExceptionally(e);
+			}
+		}
+
+	}
+
+	/**
+	 * the pending jobs of a datasource, one queue per customer
+	 *
+	 */
+	private static class DatasourceQueue {
+
+		private final LinkedHashMap<String, ArrayDeque<Job<?>>> customers = new LinkedHashMap<>();
+
+		private int queued = 0;
+
+		private int running = 0;
+
+		public synchronized void add(String customerId, Job<?> job) {
+			ArrayDeque<Job<?>> jobs = customers.get(customerId);
+			if (jobs == null) {
+				jobs = new ArrayDeque<Job<?>>();
+				customers.put(customerId, jobs);
+			}
+			jobs.add(job);
+			queued++;
+		}
+
+		/**
+		 * take the next job if the limit is not reached: the first customer in
+		 * line is moved to the end of the line
+		 */
+		public synchronized Job<?> poll(int maxRunning) {
+			if (running >= maxRunning || queued == 0) {
+				return null;
+			}
+			Iterator<Map.Entry<String, ArrayDeque<Job<?>>>> iter = customers.entrySet().iterator();
+			Map.Entry<String, ArrayDeque<Job<?>>> first = iter.next();
+			iter.remove();
+			Job<?> job = first.getValue().poll();
+			if (!first.getValue().isEmpty()) {
+				customers.put(first.getKey(), first.getValue());
+			}
+			queued--;
+			running++;
+			return job;
+		}
+
+		public synchronized void release() {
+			running--;
+		}
+
+		public synchronized Map<String, Object> getStatistics() {
+			Map<String, Object> res = new LinkedHashMap<String, Object>();
+			res.put("queued", queued);
+			res.put("running", running);
+			res.put("customers", customers.size());
+			return res;
+		}
+
+	}
+
+}
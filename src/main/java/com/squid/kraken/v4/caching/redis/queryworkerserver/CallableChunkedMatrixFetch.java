@@ -25,7 +25,12 @@ package com.squid.kraken.v4.caching.redis.queryworkerserver;
 
 import java.io.IOException;
 import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -39,7 +44,12 @@ import com.squid.kraken.v4.caching.redis.datastruct.RedisCacheValuesList;
 
 /**
  * This internal class support continuing the matrix fetch from an ExecutionItem
- * in background
+ * in background.
+ * 
+ * The resultset is read by this thread while a separate writer stores the
+ * completed chunks in redis, so the database cursor is not idle during the
+ * redis round trips. The queue between them is bounded to limit the memory
+ * used by the pending chunks.
  * 
  * @author sergefantino
  *
@@ -48,23 +58,38 @@ class CallableChunkedMatrixFetch implements Callable<Boolean> {
 
 	static final Logger logger = LoggerFactory.getLogger(CallableChunkedMatrixFetch.class);
 
+	// max number of chunks read but not yet stored
+	private static final int MAX_PENDING_CHUNKS = 2;
+
 	private QueryWorkerJobRequest request;
 	
 	private IExecutionItem item;
 	private long nbLinesLeftToRead;
-	private int nbBatches;
+	private volatile int nbBatches;
 	private long batchLowerBound;
-	private long batchUpperBound;
+	private volatile long batchUpperBound;
 	private RedisCacheValuesList valuesList;
 	private QueryWorkerServer server;
 	private String workerId;
 	private long start;
 	
 	private volatile boolean cancel = false;
+	
+	// bytes read by this fetch, accounted in the worker load
+	private long bytesRead = 0;
+	private long rowsRead = 0;
+	
+	// set by the writer if it failed to store a chunk
+	private volatile boolean writeError = false;
+	
+	// set when the writer stopped, normally or not
+	private volatile boolean writerStopped = false;
+	
+	private BlockingQueue<PendingChunk> pending = new ArrayBlockingQueue<PendingChunk>(MAX_PENDING_CHUNKS);
 
 	public CallableChunkedMatrixFetch(QueryWorkerServer server, QueryWorkerJobRequest request,
 			RedisCacheValuesList valuesList, 
-			IExecutionItem item, long nbLinesRead, long start) {
+			IExecutionItem item, long nbLinesRead, long nbBytesRead, long start) {
 		this.server = server;
 		this.request = request;
 		this.item = item;
@@ -75,53 +100,62 @@ class CallableChunkedMatrixFetch implements Callable<Boolean> {
 		this.nbBatches = 1;
 		this.workerId = this.server.getWorkerId();
 		this.start = start;
+		// the first chunk was read by the server
+		this.rowsRead = nbLinesRead;
+		this.bytesRead = nbBytesRead;
 	}
 
 	@Override
-	public Boolean call() throws SQLException {
-		boolean done = false;
+	public Boolean call() throws SQLException, InterruptedException {
+		boolean hasMore = true;
 		RawMatrixStreamExecRes nextBatch = null;
-		boolean error = false;
+		boolean readError = false;
 		long end = System.currentTimeMillis();
 		try {
 			server.incrementLoad();
-			do {
-				try {
-					nextBatch = RawMatrix.streamExecutionItemToByteArray(item, nbLinesLeftToRead);
-					end = System.currentTimeMillis();
-				} catch (IOException | SQLException e) {
-					error = true;
-				}
-				if (error || cancel) {
-					valuesList.setError();
-				} else {
-					nbLinesLeftToRead -= nextBatch.getNbLines();
-					batchLowerBound = batchUpperBound;
-					batchUpperBound = batchLowerBound + nextBatch.getNbLines();
-					String batchKey = request.getKey() + "_" + batchLowerBound + "-" + (batchUpperBound - 1);
-					if (server.put(batchKey, nextBatch.getStreamedMatrix(), request.getTTL())) {
-						valuesList.addReferenceKey(new ChunkRef(batchKey, batchLowerBound, batchUpperBound));
-						if (!nextBatch.hasMore()) {
-							valuesList.setDone();
-							done = true;
-						}
-					} else {
-						valuesList.setError();
-						error = true;
+			server.addInFlight(rowsRead, bytesRead);
+			Future<Boolean> writer = server.getWriterExecutor().submit(new ChunkWriter());
+			try {
+				do {
+					try {
+						nextBatch = RawMatrix.streamExecutionItemToByteArray(item, nbLinesLeftToRead);
+						end = System.currentTimeMillis();
+					} catch (IOException | SQLException e) {
+						readError = true;
 					}
-				}
-				server.put(request.getKey(), valuesList);
-				this.nbBatches += 1;
-
-			} while (!done && !error && !cancel);
+					if (!readError && !cancel) {
+						nbLinesLeftToRead -= nextBatch.getNbLines();
+						batchLowerBound = batchUpperBound;
+						batchUpperBound = batchLowerBound + nextBatch.getNbLines();
+						String batchKey = request.getKey() + "_" + batchLowerBound + "-" + (batchUpperBound - 1);
+						hasMore = nextBatch.hasMore();
+						rowsRead += nextBatch.getNbLines();
+						bytesRead += nextBatch.getStreamedMatrix().length;
+						server.addInFlight(nextBatch.getNbLines(), nextBatch.getStreamedMatrix().length);
+						enqueue(new PendingChunk(new ChunkRef(batchKey, batchLowerBound, batchUpperBound),
+								nextBatch.getStreamedMatrix()));
+						this.nbBatches += 1;
+					}
+				} while (hasMore && !readError && !cancel && !writeError);
+			} finally {
+				// tell the writer we are done, and wait for the last chunks to be stored
+				enqueueEndOfStream(!hasMore && !readError && !cancel);
+			}
+			boolean stored;
+			try {
+				stored = writer.get();
+			} catch (ExecutionException e) {
+				logger.error("failed to store chunks for queryid=" + item.getID(), e.getCause());
+				stored = false;
+			}
 
-			if (cancel && !done) {
+			if (cancel && hasMore) {
 				logger.info("Canceling SQLQuery#" + item.getID() + " jobId " + request.getJobId() + "for userId "+ request.getUserIdandLogin() + " on worker " + workerId
 						+ " duration=" + (end-start) + " ms; read=" + batchUpperBound + " lines; queryid=" + item.getID());
 				throw new RedisCacheException("Canceling read result for queryid=" + item.getID()
 						+ " jobId " + request.getJobId() + " on worker " + workerId + " in redis");
 			} else
-			if (error) {
+			if (readError || !stored) {
 				throw new RedisCacheException("We did not manage to store the result for queryid=" + item.getID()
 						+ " jobId " + request.getJobId() + " on worker " + workerId + " in redis");
 			} else {
@@ -131,6 +165,7 @@ class CallableChunkedMatrixFetch implements Callable<Boolean> {
 			return true;
 		} finally {
 			server.decrementLoad();
+			server.addInFlight(-rowsRead, -bytesRead);
 			server.removeOngoingQuery(request.getKey());
 			if (item != null) {
 				item.close();
@@ -138,6 +173,115 @@ class CallableChunkedMatrixFetch implements Callable<Boolean> {
 		}
 	}
 
+	/**
+	 * hand the chunk to the writer; blocks if the writer is late, unless it
+	 * already stopped
+	 */
+	private void enqueue(PendingChunk chunk) throws InterruptedException {
+		while (!pending.offer(chunk, 1, TimeUnit.SECONDS)) {
+			if (writerStopped) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * hand the end of stream to the writer, even if this thread is
+	 * interrupted: otherwise the writer would wait for it forever
+	 */
+	private void enqueueEndOfStream(boolean complete) {
+		PendingChunk end = PendingChunk.endOfStream(complete);
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					enqueue(end);
+					return;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * store the chunks in redis as they come, then the final state of the list
+	 *
+	 */
+	private class ChunkWriter implements Callable<Boolean> {
+
+		@Override
+		public Boolean call() throws InterruptedException {
+			try {
+				return write();
+			} catch (RuntimeException e) {
+				writeError = true;
+				server.putState(request.getKey(), RedisCacheValuesList.State.ERROR);
+				throw e;
+			} finally {
+				writerStopped = true;
+			}
+		}
+
+		private boolean write() throws InterruptedException {
+			while (true) {
+				PendingChunk chunk = pending.take();
+				if (chunk.isEndOfStream()) {
+					if (chunk.isComplete() && !writeError) {
+						valuesList.setDone();
+					} else {
+						valuesList.setError();
+					}
+					boolean ok = server.putState(request.getKey(), valuesList.getState());
+					return ok && !writeError && chunk.isComplete();
+				} else if (!writeError) {
+					if (server.put(chunk.ref.referencedKey, chunk.data, request.getTTL())
+							&& server.appendChunkRef(request.getKey(), chunk.ref, request.getTTL())) {
+						valuesList.addReferenceKey(chunk.ref);
+					} else {
+						writeError = true;
+					}
+				}
+			}
+		}
+
+	}
+
+	private static class PendingChunk {
+
+		private ChunkRef ref;
+		private byte[] data;
+		private boolean complete;
+
+		public PendingChunk(ChunkRef ref, byte[] data) {
+			this.ref = ref;
+			this.data = data;
+		}
+
+		/**
+		 * mark the end of the stream
+		 * @param complete true if the whole resultset was read
+		 */
+		public static PendingChunk endOfStream(boolean complete) {
+			PendingChunk end = new PendingChunk(null, null);
+			end.complete = complete;
+			return end;
+		}
+
+		public boolean isEndOfStream() {
+			return ref == null;
+		}
+
+		public boolean isComplete() {
+			return complete;
+		}
+
+	}
+
 	/**
 	 * cancel the fetch execution
 	 * @return
@@ -33,6 +33,12 @@ public interface IQueryWorkerServer {
 
 	public int getLoad();
 
+	/**
+	 * return the detailed load of the worker
+	 * @return
+	 */
+	public QueryWorkerLoad getLoadStatus();
+
 	public String hello();
 
 	public boolean isQueryOngoing(String k);
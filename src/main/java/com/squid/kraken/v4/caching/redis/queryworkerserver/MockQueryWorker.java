@@ -112,6 +112,11 @@ public class MockQueryWorker implements IQueryWorkerServer {
 		return 0;
 	}
 
+	@Override
+	public QueryWorkerLoad getLoadStatus() {
+		return new QueryWorkerLoad();
+	}
+
 	@Override
 	public boolean isQueryOngoing(String k) {
 		// TODO Auto-generated method stub
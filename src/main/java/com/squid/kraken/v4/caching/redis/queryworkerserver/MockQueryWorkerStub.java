@@ -83,6 +83,11 @@ public class MockQueryWorkerStub implements IQueryWorkerServer {
 		return 0;
 	}
 
+	@Override
+	public QueryWorkerLoad getLoadStatus() {
+		return new QueryWorkerLoad();
+	}
+
 	@Override
 	public boolean isQueryOngoing(String k) {
 		if (logger.isDebugEnabled()) {
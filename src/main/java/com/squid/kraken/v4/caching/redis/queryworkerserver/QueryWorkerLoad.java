@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * Copyright © Squid Solutions, 2016
+ *
+ * This file is part of Open Bouquet software.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * There is a special FOSS exception to the terms and conditions of the
+ * licenses as they are applied to this program. See LICENSE.txt in
+ * the directory of this program distribution.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * Squid Solutions also offers commercial licenses with additional warranties,
+ * professional functionalities or services. If you purchase a commercial
+ * license, then it supersedes and replaces any other agreement between
+ * you and Squid Solutions (above licenses and LICENSE.txt included).
+ * See http://www.squidsolutions.com/EnterpriseBouquet/
+ *******************************************************************************/
+package com.squid.kraken.v4.caching.redis.queryworkerserver;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.hash.Hashing;
+
+/**
+ * A POJO that describes the current load of a query worker, used by the
+ * queries server to choose a worker
+ *
+ */
+public class QueryWorkerLoad {
+
+	// queries being executed or read
+	private int jobs;
+
+	// rows and bytes read so far by the queries still being read
+	private long inFlightRows;
+	private long inFlightBytes;
+
+	// the datasources the worker has a connection pool for (see
+	// getDatasourceKey())
+	private List<String> datasources = new ArrayList<String>();
+
+	public QueryWorkerLoad() {
+	}
+
+	public QueryWorkerLoad(int jobs, long inFlightRows, long inFlightBytes, List<String> datasources) {
+		this.jobs = jobs;
+		this.inFlightRows = inFlightRows;
+		this.inFlightBytes = inFlightBytes;
+		this.datasources = datasources;
+	}
+
+	/**
+	 * identify the datasource used by a request; the key is a hash, since the
+	 * load status is public and the URL may contain the database credentials
+	 */
+	public static String getDatasourceKey(QueryWorkerJobRequest request) {
+		return Hashing.sha256().hashString(request.getUsername() + "\\" + request.getJdbcURL(), StandardCharsets.UTF_8)
+				.toString().substring(0, 16);
+	}
+
+	public int getJobs() {
+		return jobs;
+	}
+
+	public void setJobs(int jobs) {
+		this.jobs = jobs;
+	}
+
+	public long getInFlightRows() {
+		return inFlightRows;
+	}
+
+	public void setInFlightRows(long inFlightRows) {
+		this.inFlightRows = inFlightRows;
+	}
+
+	public long getInFlightBytes() {
+		return inFlightBytes;
+	}
+
+	public void setInFlightBytes(long inFlightBytes) {
+		this.inFlightBytes = inFlightBytes;
+	}
+
+	public List<String> getDatasources() {
+		return datasources;
+	}
+
+	public void setDatasources(List<String> datasources) {
+		this.datasources = datasources;
+	}
+
+}
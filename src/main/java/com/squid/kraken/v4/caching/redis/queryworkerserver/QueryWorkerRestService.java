@@ -27,7 +27,9 @@ import java.util.List;
 
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -61,6 +63,13 @@ public class QueryWorkerRestService {
 		return this.serv.getLoad();
 	}
 
+	@GET
+	@Path("/loadstatus")
+	@Produces({ MediaType.APPLICATION_JSON })
+	public QueryWorkerLoad getLoadStatus() {
+		return this.serv.getLoadStatus();
+	}
+
 	@GET
 	@Path("/ongoing")
 	public boolean fetch(@QueryParam("key") String key, @QueryParam("sqlquery") String SQLQuery)
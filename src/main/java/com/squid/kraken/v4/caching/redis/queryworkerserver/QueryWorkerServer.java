@@ -29,11 +29,13 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -47,6 +49,7 @@ import com.squid.kraken.v4.caching.redis.ServerID;
 import com.squid.kraken.v4.caching.redis.datastruct.ChunkRef;
 import com.squid.kraken.v4.caching.redis.datastruct.RawMatrix;
 import com.squid.kraken.v4.caching.redis.datastruct.RawMatrixStreamExecRes;
+import com.squid.kraken.v4.caching.redis.datastruct.RedisCacheCompression;
 import com.squid.kraken.v4.caching.redis.datastruct.RedisCacheValuesList;
 import com.squid.kraken.v4.core.database.impl.ExecuteQueryTask;
 import com.squid.kraken.v4.core.database.impl.SimpleDatabaseManager;
@@ -66,7 +69,13 @@ public class QueryWorkerServer implements IQueryWorkerServer {
 
 	private int threadPoolSize = 5;
 	private AtomicInteger load;
+	// rows and bytes read so far by the queries still being read
+	private AtomicLong inFlightRows = new AtomicLong();
+	private AtomicLong inFlightBytes = new AtomicLong();
+	// the datasources we have a connection pool for
+	private Set<String> datasources = ConcurrentHashMap.newKeySet();
 	private ExecutorService executor;
+	private ExecutorService writerExecutor;
 
 	private int defaultTTLinSec = 3600;
 
@@ -81,6 +90,8 @@ public class QueryWorkerServer implements IQueryWorkerServer {
 	public QueryWorkerServer(RedisCacheConfig conf) {
 		this.load = new AtomicInteger(0);
 		this.executor = Executors.newFixedThreadPool(threadPoolSize);
+		// one writer per long running query
+		this.writerExecutor = Executors.newFixedThreadPool(threadPoolSize);
 
 		// redis
 
@@ -90,6 +101,14 @@ public class QueryWorkerServer implements IQueryWorkerServer {
 		this.defaultTTLinSec = conf.getTtlInSecond();
 
 		RawMatrix.setMaxChunkSizeInMB(conf.getMaxChunkSizeInMByte());
+		RawMatrix.setColumnarFormat(conf.isColumnarMatrix());
+		try {
+			RedisCacheCompression.setCodec(RedisCacheCompression.Codec.valueOf(conf.getCompressionCodec().toUpperCase()));
+		} catch (IllegalArgumentException | NullPointerException e) {
+			logger.warn("unknown compression codec " + conf.getCompressionCodec() + ", results will not be compressed");
+			RedisCacheCompression.setCodec(RedisCacheCompression.Codec.NONE);
+		}
+		RedisCacheCompression.setMinSizeInBytes(conf.getCompressionMinSizeInBytes());
 
 		this.executingQueries = new ConcurrentHashMap<>();
 		this.longRunningQueries = new ConcurrentHashMap<>();
@@ -122,6 +141,7 @@ public class QueryWorkerServer implements IQueryWorkerServer {
 				if (db == null) {
 					db = new SimpleDatabaseManager(request.getJdbcURL(), request.getUsername(), request.getPwd());
 					managers.put(dbKey, db);
+					datasources.add(QueryWorkerLoad.getDatasourceKey(request));
 				}
 			}
 
@@ -165,12 +185,20 @@ public class QueryWorkerServer implements IQueryWorkerServer {
 					throw new RedisCacheException("We did not manage to store the result for queryid=" + item.getID()
 							+ " jobId " + request.getJobId() + " in redis");
 				}
-				// save the batch list under the main key
+				// save the batch list under the main key: the state is stored in the value, the chunk
+				// references are appended to a separate list
 				RedisCacheValuesList valuesList = new RedisCacheValuesList();
-				valuesList.addReferenceKey(new ChunkRef(batchKey, 0, serializedRes.getNbLines() - 1));
+				redis.clearChunkRefs(request.getKey());
 				put(request.getKey(), valuesList);
+				ChunkRef firstChunk = new ChunkRef(batchKey, 0, serializedRes.getNbLines() - 1);
+				valuesList.addReferenceKey(firstChunk);
+				if (!appendChunkRef(request.getKey(), firstChunk, request.getTTL())) {
+					throw new RedisCacheException("We did not manage to store the result for queryid=" + item.getID()
+							+ " jobId " + request.getJobId() + " in redis");
+				}
 				// process the remaining row in a separate thread
-				CallableChunkedMatrixFetch chunkedMatrixFetch = new CallableChunkedMatrixFetch(this, request, valuesList, item, serializedRes.getNbLines(), start);
+				CallableChunkedMatrixFetch chunkedMatrixFetch = new CallableChunkedMatrixFetch(this, request, valuesList, item, serializedRes.getNbLines(),
+						serializedRes.getStreamedMatrix().length, start);
 				this.executor.submit(chunkedMatrixFetch);
 				this.executingQueries.remove(request.getKey());
 				this.longRunningQueries.put(request.getKey(), chunkedMatrixFetch);
@@ -190,20 +218,72 @@ public class QueryWorkerServer implements IQueryWorkerServer {
 		return this.load.get();
 	}
 
+	@Override
+	public QueryWorkerLoad getLoadStatus() {
+		return new QueryWorkerLoad(this.executingQueries.size() + this.load.get(), this.inFlightRows.get(),
+				this.inFlightBytes.get(), new ArrayList<String>(this.datasources));
+	}
+
+	/**
+	 * account for the rows and bytes read by a query still running; use
+	 * negative values when it is done
+	 */
+	protected void addInFlight(long rows, long bytes) {
+		this.inFlightRows.addAndGet(rows);
+		this.inFlightBytes.addAndGet(bytes);
+	}
+
 	protected boolean put(String batchKey, byte[] data, int ttl) {
 		boolean ok = redis.put(batchKey, data);
+		setTTL(batchKey, ttl);
+		return ok;
+	}
+
+	private void setTTL(String key, int ttl) {
 		if (ttl == -2) {
-			redis.setTTL(batchKey, defaultTTLinSec);
+			redis.setTTL(key, defaultTTLinSec);
 		} else {
 			if (ttl != -1) {
-				redis.setTTL(batchKey, ttl);
+				redis.setTTL(key, ttl);
 			}
 		}
+	}
+
+	/**
+	 * append a chunk to the list stored under key, without rewriting the list
+	 */
+	protected boolean appendChunkRef(String key, ChunkRef ref, int ttl) {
+		boolean ok = redis.appendChunkRef(key, ref);
+		if (ok) {
+			setTTL(RedisCacheValuesList.getChunkRefsKey(key), ttl);
+			redis.publish(RedisCacheValuesList.getNotificationChannel(key), ref.referencedKey);
+		}
 		return ok;
 	}
 
+	/**
+	 * update the state of the list stored under key; the chunk references are
+	 * not rewritten
+	 */
+	protected boolean putState(String key, RedisCacheValuesList.State state) {
+		return put(key, new RedisCacheValuesList(state));
+	}
+
+	/**
+	 * the pool running the chunk writers of the long running queries
+	 */
+	protected ExecutorService getWriterExecutor() {
+		return this.writerExecutor;
+	}
+
 	protected boolean put(String key, RedisCacheValuesList valuesList) {
-		return redis.put(key, valuesList.serialize());
+		boolean ok = redis.put(key, valuesList.serialize());
+		if (ok) {
+			// wake up the readers waiting for the next chunk
+			redis.publish(RedisCacheValuesList.getNotificationChannel(key),
+					Integer.toString(valuesList.getReferenceKeys().size()));
+		}
+		return ok;
 	}
 
 	protected void incrementLoad() {
@@ -26,6 +26,7 @@ package com.squid.kraken.v4.caching.redis.queryworkerserver;
 import java.util.List;
 
 import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.MediaType;
 
 import org.apache.cxf.jaxrs.client.WebClient;
 import org.slf4j.Logger;
@@ -80,6 +81,15 @@ public class QueryWorkerServerStub implements IQueryWorkerServer {
 		return res;
 	}
 
+	@Override
+	public QueryWorkerLoad getLoadStatus() {
+		WebClient client = WebClient.create(baseURL);
+		client.path("loadstatus");
+		client.accept(MediaType.APPLICATION_JSON);
+		QueryWorkerLoad res = client.get(QueryWorkerLoad.class);
+		return res;
+	}
+
 	@Override
 	public boolean isQueryOngoing(String k) {
 		WebClient client = WebClient.create(baseURL);
@@ -0,0 +1,211 @@
+/*******************************************************************************
+ * Copyright © Squid Solutions, 2016
+ *
+ * This file is part of Open Bouquet software.
+ *  
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * There is a special FOSS exception to the terms and conditions of the 
+ * licenses as they are applied to this program. See LICENSE.txt in
+ * the directory of this program distribution.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * Squid Solutions also offers commercial licenses with additional warranties,
+ * professional functionalities or services. If you purchase a commercial
+ * license, then it supersedes and replaces any other agreement between
+ * you and Squid Solutions (above licenses and LICENSE.txt included).
+ * See http://www.squidsolutions.com/EnterpriseBouquet/
+ *******************************************************************************/
+package com.squid.kraken.v4.core.analysis.datamatrix;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IllegalFormatException;
+import java.util.Locale;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Format the values of a DataTable column, giving the same result as String.format(Locale.US, format, value).
+ * 
+ * The formatter is compiled once per column: the default formats (see DataMatrix.computeFormat()) are handled by
+ * pre-built number and date formats; the other formats use String.format, but the conversion that works for each
+ * value class is resolved once so the failing conversions are not retried for every value.
+ * 
+ * Note that the formatter is not thread-safe.
+ */
+public class CellFormatter {
+
+	static final Logger logger = LoggerFactory.getLogger(CellFormatter.class);
+
+	public static final String INTEGER_FORMAT = "%,d";
+
+	public static final String DECIMAL_FORMAT = "%,.2f";
+
+	public static final String TIMESTAMP_FORMAT = "%tY-%<tm-%<tdT%<tH:%<tM:%<tS.%<tLZ";
+
+	private enum Conversion {
+		DIRECT, // format the value
+		NUMBER, // format the number as a long if it is an integer, as a double otherwise
+		NONE // keep the value
+	}
+
+	private final String format;
+
+	private final boolean numeric;
+
+	// the pre-built formats, if any
+	private DecimalFormat decimalFormat = null;
+
+	private SimpleDateFormat dateFormat = null;
+
+	private boolean integerOnly = false;
+
+	// the conversion resolved for each value class
+	private final HashMap<Class<?>, Conversion> conversions = new HashMap<>();
+
+	// the NUMBER conversion support, resolved on first use
+	private Boolean longSupported = null;
+
+	private Boolean doubleSupported = null;
+
+	/**
+	 * @param format
+	 *            the column format
+	 * @param numeric
+	 *            if true and the value cannot be formatted, try to format it as a long or double
+	 */
+	public CellFormatter(String format, boolean numeric) {
+		this.format = format;
+		this.numeric = numeric;
+		if (INTEGER_FORMAT.equals(format)) {
+			decimalFormat = new DecimalFormat("#,##0", DecimalFormatSymbols.getInstance(Locale.US));
+			integerOnly = true;
+		} else if (DECIMAL_FORMAT.equals(format)) {
+			decimalFormat = new DecimalFormat("#,##0.00", DecimalFormatSymbols.getInstance(Locale.US));
+			decimalFormat.setRoundingMode(RoundingMode.HALF_UP);
+		} else if (TIMESTAMP_FORMAT.equals(format)) {
+			dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+		}
+	}
+
+	/**
+	 * format the value; return the value itself if it cannot be formatted
+	 */
+	public Object format(Object value) {
+		if (value == null) {
+			return null;
+		}
+		if (decimalFormat != null && value instanceof Number) {
+			return formatNumber((Number) value);
+		}
+		if (dateFormat != null && value instanceof Date) {
+			return dateFormat.format((Date) value);
+		}
+		Conversion conversion = conversions.get(value.getClass());
+		if (conversion == null) {
+			conversion = resolve(value);
+			conversions.put(value.getClass(), conversion);
+			return format(value);
+		}
+		switch (conversion) {
+		case DIRECT:
+			return String.format(Locale.US, format, value);
+		case NUMBER:
+			return formatAsNumber((Number) value);
+		default:
+			return value;
+		}
+	}
+
+	private Object formatNumber(Number value) {
+		if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+			if (integerOnly) {
+				return decimalFormat.format(value.longValue());
+			}
+		} else if (value instanceof BigInteger) {
+			if (integerOnly) {
+				return decimalFormat.format(value);
+			}
+		} else if (value instanceof Double || value instanceof Float) {
+			double dbValue = value.doubleValue();
+			if (Double.isNaN(dbValue) || Double.isInfinite(dbValue)) {
+				return value;
+			}
+			if (!integerOnly) {
+				// String.format rounds the shortest decimal representation of the double
+				return decimalFormat.format(new BigDecimal(Double.toString(dbValue)).setScale(2, RoundingMode.HALF_UP));
+			}
+		} else if (value instanceof BigDecimal) {
+			if (!integerOnly) {
+				return decimalFormat.format(((BigDecimal) value).setScale(2, RoundingMode.HALF_UP));
+			}
+		} else {
+			return value;
+		}
+		// not the format type: try to convert as a long
+		if (numeric && integerOnly) {
+			double dbValue = value.doubleValue();
+			if (Math.floor(dbValue) == dbValue) {
+				return decimalFormat.format((long) dbValue);
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * find the conversion that works for that value class
+	 */
+	private Conversion resolve(Object value) {
+		try {
+			String.format(Locale.US, format, value);
+			return Conversion.DIRECT;
+		} catch (IllegalFormatException e) {
+			if (numeric && value instanceof Number) {
+				return Conversion.NUMBER;
+			} else {
+				logger.info(e.toString());
+				return Conversion.NONE;
+			}
+		}
+	}
+
+	private Object formatAsNumber(Number value) {
+		// try to cast to a primitive value and format again
+		double dbValue = value.doubleValue();
+		if (Math.floor(dbValue) == dbValue) {
+			long lgValue = (long) dbValue;
+			if (longSupported == null) {
+				longSupported = isSupported(lgValue);
+			}
+			return longSupported ? String.format(Locale.US, format, lgValue) : value;
+		} else {
+			if (doubleSupported == null) {
+				doubleSupported = isSupported(dbValue);
+			}
+			return doubleSupported ? String.format(Locale.US, format, dbValue) : value;
+		}
+	}
+
+	private boolean isSupported(Object value) {
+		try {
+			String.format(Locale.US, format, value);
+			return true;
+		} catch (IllegalFormatException e) {
+			return false;
+		}
+	}
+
+}
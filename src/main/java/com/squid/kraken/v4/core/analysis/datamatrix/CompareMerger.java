@@ -75,13 +75,13 @@ public class CompareMerger extends JoinMerger {
 			LocalDate delta = (new LocalDate(((Date)left).getTime())).minus(offset);
 			return new java.sql.Date(delta.toDate().getTime());
 		} else {
-			return right;
+			return left;
 		}
 	}
 
 	@Override
 	protected int compareJoinValue(int pos, Object left, Object right) {
-		if (right instanceof Date && offset!=null) {
+		if (left instanceof Date && right instanceof Date && offset!=null) {
 			return ((Date)left).compareTo((new LocalDate(((Date)right).getTime())).plus(offset).toDate());
 		} else {
 			return super.compareJoinValue(pos, left, right);
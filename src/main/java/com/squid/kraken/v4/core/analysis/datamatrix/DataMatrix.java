@@ -25,16 +25,18 @@ package com.squid.kraken.v4.core.analysis.datamatrix;
 
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.IllegalFormatException;
 import java.util.List;
-import java.util.Locale;
+import java.util.ListIterator;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.StringTokenizer;
 
 import org.slf4j.Logger;
@@ -97,6 +99,16 @@ public class DataMatrix {
 
 	private List<RawRow> rows = new ArrayList<RawRow>();
 
+	// sort in parallel above that number of rows
+	private static final int PARALLEL_SORT_THRESHOLD = 100000;
+
+	// the dictionary index used by the soft-filters, built on demand
+	private RowIndex rowIndex = null;
+	private List<RawRow> indexedRows = null;
+
+	// identifies the rows read from the cache, as long as they are not modified
+	private String indexKey = null;
+
 	private boolean fromCache = false;// true if the data come from the cache
 
 	private boolean fromSmartCache = false;// true if the data come from the
@@ -231,6 +243,9 @@ public class DataMatrix {
 		}
 		// set rows
 		rows = rawMatrix.getRows();
+		if (rawMatrix.getRedisKey() != null && rawMatrix.getExecutionDate() != null) {
+			indexKey = rawMatrix.getRedisKey() + "/" + rawMatrix.getExecutionDate().getTime();
+		}
 
 		// (T1057) disabling
 		/*
@@ -345,6 +360,7 @@ public class DataMatrix {
 	}
 
 	public void pushRow(RawRow r) {
+		indexKey = null;
 		rows.add(r);
 	}
 
@@ -426,6 +442,17 @@ public class DataMatrix {
 	 * @param orderBy
 	 */
 	public void orderBy(List<OrderBy> orderBy) {
+		orderBy(orderBy, null, null);
+	}
+
+	/**
+	 * orderBy this matrix and truncate it given limit & offset: if there is a limit, only the top rows are sorted
+	 *
+	 * @param orderBy
+	 * @param limitValue
+	 * @param offsetValue
+	 */
+	public void orderBy(List<OrderBy> orderBy, Long limitValue, Long offsetValue) {
 		final List<Integer> ordering = new ArrayList<>();
 		final List<ORDERING> direction = new ArrayList<>();
 		final List<NULLS_ORDERING> nulls = new ArrayList<>();
@@ -490,32 +517,152 @@ public class DataMatrix {
 				}
 			}
 		}
-		final int size = ordering.size();
-		Collections.sort(rows, new Comparator<RawRow>() {
+		RowComparator comparator = new RowComparator(ordering, direction, nulls);
+		long top = -1;
+		if (limitValue != null) {
+			top = limitValue + (offsetValue != null ? Math.max(0, offsetValue) : 0);
+		}
+		if (top >= 0 && top < rows.size() / 2) {
+			sortTop(comparator, (int) top);
+		} else {
+			sortAll(comparator);
+		}
+		if (limitValue != null || offsetValue != null) {
+			truncate(limitValue, offsetValue);
+		}
+	}
+
+	/**
+	 * sort all the rows, in parallel for large matrices
+	 */
+	private void sortAll(Comparator<RawRow> comparator) {
+		rowIndex = null;
+		indexKey = null;
+		if (rows.size() < PARALLEL_SORT_THRESHOLD) {
+			Collections.sort(rows, comparator);
+		} else {
+			RawRow[] sorted = rows.toArray(new RawRow[rows.size()]);
+			Arrays.parallelSort(sorted, comparator);// stable, like Collections.sort
+			ListIterator<RawRow> iter = rows.listIterator();
+			for (RawRow row : sorted) {
+				iter.next();
+				iter.set(row);
+			}
+		}
+	}
+
+	/**
+	 * keep only the top rows, sorted, using a bounded heap; ties are resolved by the rows position so it gives the
+	 * same result as sorting all the rows
+	 */
+	private void sortTop(final Comparator<RawRow> comparator, int top) {
+		final List<RawRow> input = rows;
+		// the ascending order of the rows
+		final Comparator<Integer> ascending = new Comparator<Integer>() {
 			@Override
-			public int compare(RawRow o1, RawRow o2) {
-				for (int i = 0; i < size; i++) {
-					Object v1 = getValue(ordering.get(i), o1);
-					Object v2 = getValue(ordering.get(i), o2);
-					int cc = compareValues(v1, v2);
-					if (direction.get(i) == ORDERING.DESCENT)
-						cc = -cc;// reverse
-					if (nulls.get(i) == NULLS_ORDERING.NULLS_FIRST || nulls.get(i) == NULLS_ORDERING.NULLS_LAST) {
-						if ((v1 == null && v2 != null) || (v1 != null && v2 == null) ) {
-							if (nulls.get(i) == NULLS_ORDERING.NULLS_FIRST) {
-								cc = (v1==null?-1:1);
-							} else {
-								cc = (v1==null?1:-1);
-							}
+			public int compare(Integer o1, Integer o2) {
+				int cc = comparator.compare(input.get(o1), input.get(o2));
+				return cc != 0 ? cc : Integer.compare(o1, o2);
+			}
+		};
+		// the heap head is the last of the top rows
+		PriorityQueue<Integer> heap = new PriorityQueue<>(top + 1, Collections.reverseOrder(ascending));
+		if (top > 0) {
+			for (int i = 0; i < input.size(); i++) {
+				if (heap.size() < top) {
+					heap.add(i);
+				} else if (ascending.compare(i, heap.peek()) < 0) {
+					heap.poll();
+					heap.add(i);
+				}
+			}
+		}
+		Integer[] positions = heap.toArray(new Integer[heap.size()]);
+		Arrays.sort(positions, ascending);
+		List<RawRow> result = new ArrayList<>(positions.length);
+		for (Integer position : positions) {
+			result.add(input.get(position));
+		}
+		rows = result;
+		indexKey = null;
+	}
+
+	/**
+	 * compare the rows on the orderBy columns; the numeric values are compared without boxing
+	 *
+	 */
+	private class RowComparator implements Comparator<RawRow> {
+
+		private final int size;
+		private final int[] columns;
+		private final boolean[] descent;
+		private final NULLS_ORDERING[] nulls;
+
+		public RowComparator(List<Integer> ordering, List<ORDERING> direction, List<NULLS_ORDERING> nulls) {
+			this.size = ordering.size();
+			this.columns = new int[size];
+			this.descent = new boolean[size];
+			this.nulls = new NULLS_ORDERING[size];
+			for (int i = 0; i < size; i++) {
+				int pos = ordering.get(i);
+				// same as getValue()
+				if (dataIndirection == null) {
+					columns[i] = pos;
+				} else if (pos < axes.size()) {
+					columns[i] = axesIndirection[pos];
+				} else {
+					columns[i] = dataIndirection[pos - axes.size()];
+				}
+				descent[i] = direction.get(i) == ORDERING.DESCENT;
+				this.nulls[i] = nulls.get(i);
+			}
+		}
+
+		@Override
+		public int compare(RawRow o1, RawRow o2) {
+			for (int i = 0; i < size; i++) {
+				Object v1 = o1.data[columns[i]];
+				Object v2 = o2.data[columns[i]];
+				int cc;
+				if (v1 == null || v2 == null) {
+					cc = compareValues(v1, v2);
+				} else {
+					cc = compareColumn(v1, v2);
+				}
+				if (descent[i])
+					cc = -cc;// reverse
+				if (nulls[i] == NULLS_ORDERING.NULLS_FIRST || nulls[i] == NULLS_ORDERING.NULLS_LAST) {
+					if ((v1 == null && v2 != null) || (v1 != null && v2 == null) ) {
+						if (nulls[i] == NULLS_ORDERING.NULLS_FIRST) {
+							cc = (v1==null?-1:1);
+						} else {
+							cc = (v1==null?1:-1);
 						}
 					}
-					if (cc != 0)
-						return cc;
 				}
-				// equal !
-				return 0;
+				if (cc != 0)
+					return cc;
 			}
-		});
+			// equal !
+			return 0;
+		}
+
+	}
+
+	/**
+	 * compare two non-null values, dispatching on their actual class: integral and floating values use the primitive
+	 * comparison, anything else uses compareValues()
+	 */
+	private int compareColumn(Object v1, Object v2) {
+		Class<?> c1 = v1.getClass();
+		Class<?> c2 = v2.getClass();
+		if ((c1 == Long.class || c1 == Integer.class) && (c2 == Long.class || c2 == Integer.class)) {
+			return Long.compare(((Number) v1).longValue(), ((Number) v2).longValue());
+		} else if ((c1 == Double.class || c1 == Float.class) && (c2 == Double.class || c2 == Float.class)) {
+			return Double.compare(((Number) v1).doubleValue(), ((Number) v2).doubleValue());
+		} else {
+			return compareValues(v1, v2);
+		}
 	}
 
 	private int compareValues(Object v1, Object v2) {
@@ -538,6 +685,7 @@ public class DataMatrix {
 	public void truncate(Long limitValue, Long offsetValue) {
 		int from = offsetValue != null ? ((int) Math.max(0, offsetValue)) : 0;
 		int to = limitValue != null ? ((int) Math.min(rows.size(), from + limitValue)) : rows.size();
+		this.indexKey = null;
 		this.rows = this.rows.subList(from, to);// this is not a copy, just a
 		// view
 	}
@@ -554,6 +702,19 @@ public class DataMatrix {
 		return merger.merge(true);
 	}
 
+	/**
+	 * merge two matrix with different KPIs but must be on the same space, using a hash join:
+	 * the rows are not sorted, use it if the ordering does not matter
+	 *
+	 * @param that
+	 * @return
+	 * @throws ScopeException
+	 */
+	public DataMatrix hashMerge(DataMatrix that) throws ScopeException {
+		HashMerger merger = new HashMerger(this, that);
+		return merger.merge();
+	}
+
 	public DataMatrix filter(DashboardSelection selection) throws ScopeException {
 		return filter(selection, true);
 	}
@@ -604,15 +765,7 @@ public class DataMatrix {
 		if (automaton.isEmpty()) {
 			return this;
 		} else {
-			DataMatrix result = new DataMatrix(this);
-
-			for (RawRow row : getRows()) {
-				boolean filter = checkRowAND(row, automaton);
-				if (filter) {
-					result.pushRow(row);
-				}
-			}
-			return result;
+			return select(automaton);
 		}
 	}
 
@@ -636,7 +789,10 @@ public class DataMatrix {
 		}
 
 		public boolean filter(RawRow row) {
-			Object m = getAxisValue(index, row);
+			return match(getAxisValue(index, row));
+		}
+
+		private boolean match(Object m) {
 			if (isInterval) {
 				if (m == null) {
 					return this.nullIsValid;
@@ -659,6 +815,32 @@ public class DataMatrix {
 			}
 		}
 
+		/**
+		 * select the rows matching the condition using the index; if candidates is not null, only these rows are
+		 * checked
+		 */
+		public BitSet select(RowIndex rowIndex, BitSet candidates) {
+			RowIndex.Column column = rowIndex.getColumn(dataIndirection != null ? axesIndirection[index] : index, rows);
+			Object[] values = column.getValues();
+			BitSet selected = new BitSet(values.length);
+			if (isInterval) {
+				// check each distinct value once
+				for (int code = 0; code < values.length; code++) {
+					if (match(values[code])) {
+						selected.set(code);
+					}
+				}
+			} else {
+				for (Object item : items) {
+					int code = column.getCode(item);
+					if (code >= 0) {
+						selected.set(code);
+					}
+				}
+			}
+			return column.select(selected, nullIsValid, candidates);
+		}
+
 		public void add(DimensionMember filter) {
 			Object value = filter.getID();
 			items.add(value);
@@ -736,39 +918,42 @@ public class DataMatrix {
 		if (automaton.isEmpty()) {
 			return this;
 		} else {
-			DataMatrix result = new DataMatrix(this);
-			for (RawRow row : getRows()) {
-				boolean filter = checkRowOR(row, automaton);
-				if (filter) {
-					result.pushRow(row);
-				}
-			}
-			return result;
+			return select(automaton);
 		}
 	}
 
-	private boolean checkRowOR(RawRow row, Collection<ApplyFilterCondition> automaton) {
-		int failed = 0;
+	/**
+	 * select the rows that match all the conditions, using the matrix dictionary index: the result shares the rows
+	 * with this matrix
+	 */
+	private DataMatrix select(Collection<ApplyFilterCondition> automaton) {
+		RowIndex index = getRowIndex();
+		BitSet selection = null;
 		for (ApplyFilterCondition item : automaton) {
-			if (!item.filter(row)) {
-				failed++;
-				if ((failed >= 1))
-					return false;
+			selection = item.select(index, selection);
+			if (selection.isEmpty()) {
+				break;
 			}
 		}
-		return true;
+		List<RawRow> selected = new ArrayList<RawRow>(selection.cardinality());
+		for (int i = selection.nextSetBit(0); i >= 0; i = selection.nextSetBit(i + 1)) {
+			selected.add(rows.get(i));
+		}
+		DataMatrix result = new DataMatrix(this);
+		result.rows = selected;
+		return result;
 	}
 
-	private boolean checkRowAND(RawRow row, Collection<ApplyFilterCondition> automaton) {
-
-		boolean filter = true;// challenge it
-		for (ApplyFilterCondition item : automaton) {
-			if (!item.filter(row)) {
-				filter = false;
-				break;
-			}
+	/**
+	 * get the dictionary index on the current rows, build a new one if the rows changed; the rows read from the cache
+	 * use the shared index
+	 */
+	private synchronized RowIndex getRowIndex() {
+		if (rowIndex == null || indexedRows != rows || rowIndex.size() != rows.size()) {
+			rowIndex = indexKey != null ? RowIndex.getShared(indexKey, rows.size()) : new RowIndex(rows.size());
+			indexedRows = rows;
 		}
-		return filter;
+		return rowIndex;
 	}
 
 	/**
@@ -782,6 +967,8 @@ public class DataMatrix {
 			if (!isSorted) {
 				synchronized (this) {
 					if (!isSorted) {
+						rowIndex = null;
+						indexKey = null;
 						Collections.sort(rows, new Comparator<RawRow>() {
 							@Override
 							public int compare(RawRow left, RawRow right) {
@@ -940,7 +1127,7 @@ public class DataMatrix {
 	private String computeFormat(ExtendedType type) {
 		IDomain image = type.getDomain();
 		if (image.isInstanceOf(IDomain.TIMESTAMP)) {
-			return "%tY-%<tm-%<tdT%<tH:%<tM:%<tS.%<tLZ";
+			return CellFormatter.TIMESTAMP_FORMAT;
 		}
 		if (image.isInstanceOf(IDomain.NUMERIC)) {
 			switch (type.getDataType()) {
@@ -948,15 +1135,15 @@ public class DataMatrix {
 				case Types.BIGINT:
 				case Types.SMALLINT:
 				case Types.TINYINT:
-					return "%,d";
+					return CellFormatter.INTEGER_FORMAT;
 				case Types.DOUBLE:
 				case Types.DECIMAL:
 				case Types.FLOAT:
 				case Types.NUMERIC:
 					if (type.getScale() > 0) {
-						return "%,.2f";
+						return CellFormatter.DECIMAL_FORMAT;
 					} else {
-						return "%,d";
+						return CellFormatter.INTEGER_FORMAT;
 					}
 				default:
 					break;
@@ -1091,6 +1278,19 @@ public class DataMatrix {
 		List<DataTable.Row> tableRows = table.getRows();
 		int axes_count = getAxes().size();
 		int kpi_count = getKPIs().size();
+		// compile the column formatters once
+		CellFormatter[] formatters = new CellFormatter[header.size()];
+		if (applyFormat) {
+			for (int colIdx = 0; colIdx < header.size(); colIdx++) {
+				Col col = header.get(colIdx);
+				if (col.getFormat() != null) {
+					// try to convert the measures if they cannot be formatted
+					boolean numeric = col.getRole() == Col.Role.DATA
+							&& col.getExtendedType().getDomain().isInstanceOf(IDomain.NUMERIC);
+					formatters[colIdx] = new CellFormatter(col.getFormat(), numeric);
+				}
+			}
+		}
 		if (startIndex == null) {
 			startIndex = 0;
 		}
@@ -1105,75 +1305,32 @@ public class DataMatrix {
 				RawRow row = rows.get(rowIndex);
 				Object[] values = new Object[header.size()];
 				int colIdx = 0;
-				int nbAxesVisibles = -1;
 				for (int i = 0; i < axes_count; i++) {
 					AxisValues m = axes.get(i);
 					if (m.isVisible()) {
-						nbAxesVisibles += 1;
-						String format = header.get(colIdx).getFormat();
-
 						Object value = getAxisValue(i, row);
 						if ((value == null) && replaceNullValues) {
-							values[colIdx++] = "";
+							values[colIdx] = "";
+						} else if (formatters[colIdx] != null) {
+							values[colIdx] = formatters[colIdx].format(value);
 						} else {
-							if (applyFormat && value != null && format != null) {
-								try {
-									value = String.format(Locale.US, format, value);
-								} catch (IllegalFormatException e) {
-									// ignore
-									logger.info(e.toString());
-
-								}
-							}
-							values[colIdx++] = value;
+							values[colIdx] = value;
 						}
+						colIdx++;
 					}
 				}
-				if (nbAxesVisibles == -1) {
-					nbAxesVisibles = 0;
-				}
-				int nbKPIVisibles = -1;
 				for (int i = 0; i < kpi_count; i++) {
 					MeasureValues m = kpis.get(i);
-
 					if (m.isVisible()) {
-						nbKPIVisibles += 1;
-						String format = header.get(colIdx).getFormat();
 						Object value = getDataValue(i, row);
 						if ((value == null) && replaceNullValues) {
-							values[colIdx++] = "";
+							values[colIdx] = "";
+						} else if (formatters[colIdx] != null) {
+							values[colIdx] = formatters[colIdx].format(value);
 						} else {
-							if (applyFormat && value != null && format != null) {
-								try {
-									value = String.format(Locale.US, format, value);
-								} catch (IllegalFormatException e) {
-									IDomain image = header.get(nbAxesVisibles + nbKPIVisibles).getExtendedType()
-											.getDomain();
-									if (image.isInstanceOf(IDomain.NUMERIC)) {
-										if (value instanceof Number) {
-											// try to cast to a primitive value
-											// and format again
-											double dbValue = ((Number) value).doubleValue();
-											if (Math.floor(dbValue) == dbValue) {
-												long lgValue = (long) dbValue;
-												try {
-													value = String.format(Locale.US, format, lgValue);
-												} catch (IllegalFormatException e2) {
-													// ignore
-												}
-
-											} else {
-												try {
-													value = String.format(Locale.US, format, dbValue);
-												} catch (IllegalFormatException e2) {
-												}
-											}
-										}
-									}
-								}
-							}
-							values[colIdx++] = value;
+							values[colIdx] = value;
 						}
+						colIdx++;
 					}
 				}
 				//
@@ -0,0 +1,210 @@
+/*******************************************************************************
+ * Copyright © Squid Solutions, 2016
+ *
+ * This file is part of Open Bouquet software.
+ *  
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * There is a special FOSS exception to the terms and conditions of the 
+ * licenses as they are applied to this program. See LICENSE.txt in
+ * the directory of this program distribution.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * Squid Solutions also offers commercial licenses with additional warranties,
+ * professional functionalities or services. If you purchase a commercial
+ * license, then it supersedes and replaces any other agreement between
+ * you and Squid Solutions (above licenses and LICENSE.txt included).
+ * See http://www.squidsolutions.com/EnterpriseBouquet/
+ *******************************************************************************/
+package com.squid.kraken.v4.core.analysis.datamatrix;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+
+import com.squid.core.expression.scope.ScopeException;
+import com.squid.kraken.v4.caching.redis.datastruct.RawRow;
+
+/**
+ * HashMerger merges 2 DataMatrix based on their axes, like the Merger, but using a hash join instead of a sort-merge:
+ * the input matrices don't need to be sorted, and the output rows are in the order of the left matrix, followed by
+ * the rows only in the right matrix.
+ * 
+ * The rows are joined on a composite key computed once per row. When all the axes are integers or dates, the key is
+ * a primitive long array.
+ */
+public class HashMerger extends Merger {
+
+	public HashMerger(DataMatrix left, DataMatrix right) throws ScopeException {
+		super(left, right);
+	}
+
+	public DataMatrix merge() {
+		List<RawRow> leftRows = left.getRows();
+		List<RawRow> rightRows = right.getRows();
+		DataMatrix merge = createMatrix();
+		//
+		// index the right rows by key; rows with the same key are chained and joined in order
+		int size = rightRows.size();
+		HashMap<Object, Integer> index = new HashMap<>(Math.max(16, (int) (size / 0.75f) + 1));
+		int[] next = new int[size];
+		int[] last = new int[size];
+		for (int i = 0; i < size; i++) {
+			next[i] = -1;
+			Object key = key(right, rightRows.get(i));
+			Integer head = index.get(key);
+			if (head == null) {
+				index.put(key, i);
+				last[i] = i;
+			} else {
+				next[last[head]] = i;
+				last[head] = i;
+			}
+		}
+		//
+		// stream the left rows
+		boolean[] matched = new boolean[size];
+		for (RawRow leftrow : leftRows) {
+			Object key = key(left, leftrow);
+			Integer head = index.get(key);
+			if (head == null) {
+				merge.pushRow(merge(merge, leftrow, null));
+			} else {
+				int pos = head;
+				if (next[pos] < 0) {
+					index.remove(key);
+				} else {
+					index.put(key, next[pos]);
+					last[next[pos]] = last[pos];
+				}
+				matched[pos] = true;
+				merge.pushRow(merge(merge, leftrow, rightRows.get(pos)));
+			}
+		}
+		//
+		// then the right rows without a match
+		for (int i = 0; i < size; i++) {
+			if (!matched[i]) {
+				merge.pushRow(merge(merge, null, rightRows.get(i)));
+			}
+		}
+		return merge;
+	}
+
+	/**
+	 * compute the row composite key; the values are normalized so that the keys are equal if the Merger compare the
+	 * rows as equal
+	 */
+	private Object key(DataMatrix matrix, RawRow row) {
+		int size = matrix.getAxesSize();
+		long[] primitive = new long[size];
+		for (int i = 0; i < size; i++) {
+			Object value = matrix.getAxisValue(i, row);
+			if (value instanceof Date) {
+				primitive[i] = ((Date) value).getTime();
+			} else if (value instanceof Integer || value instanceof Long || value instanceof Short
+					|| value instanceof Byte) {
+				primitive[i] = ((Number) value).longValue();
+			} else {
+				return objectKey(matrix, row);
+			}
+		}
+		return new LongKey(primitive);
+	}
+
+	private Object objectKey(DataMatrix matrix, RawRow row) {
+		int size = matrix.getAxesSize();
+		Object[] values = new Object[size];
+		for (int i = 0; i < size; i++) {
+			values[i] = normalize(matrix.getAxisValue(i, row));
+		}
+		return new ObjectKey(values);
+	}
+
+	private Object normalize(Object value) {
+		if (value instanceof Date) {
+			return ((Date) value).getTime();
+		} else if (value instanceof Integer || value instanceof Long || value instanceof Short
+				|| value instanceof Byte) {
+			return ((Number) value).longValue();
+		} else if (value instanceof BigInteger) {
+			BigInteger big = (BigInteger) value;
+			return big.bitLength() < 64 ? (Object) big.longValue() : big;
+		} else if (value instanceof BigDecimal) {
+			// compareTo ignores the scale
+			BigDecimal big = (BigDecimal) value;
+			return big.signum() == 0 ? BigDecimal.ZERO : big.stripTrailingZeros();
+		} else if (value instanceof Float) {
+			return ((Float) value).doubleValue();
+		} else {
+			return value;
+		}
+	}
+
+	private static class LongKey {
+
+		private final long[] values;
+		private final int hash;
+
+		public LongKey(long[] values) {
+			this.values = values;
+			this.hash = Arrays.hashCode(values);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			} else if (obj instanceof LongKey) {
+				LongKey that = (LongKey) obj;
+				return hash == that.hash && Arrays.equals(values, that.values);
+			} else {
+				return false;
+			}
+		}
+
+	}
+
+	private static class ObjectKey {
+
+		private final Object[] values;
+		private final int hash;
+
+		public ObjectKey(Object[] values) {
+			this.values = values;
+			this.hash = Arrays.hashCode(values);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			} else if (obj instanceof ObjectKey) {
+				ObjectKey that = (ObjectKey) obj;
+				return hash == that.hash && Arrays.equals(values, that.values);
+			} else {
+				return false;
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,186 @@
+/*******************************************************************************
+ * Copyright © Squid Solutions, 2016
+ *
+ * This file is part of Open Bouquet software.
+ *  
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * There is a special FOSS exception to the terms and conditions of the 
+ * licenses as they are applied to this program. See LICENSE.txt in
+ * the directory of this program distribution.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * Squid Solutions also offers commercial licenses with additional warranties,
+ * professional functionalities or services. If you purchase a commercial
+ * license, then it supersedes and replaces any other agreement between
+ * you and Squid Solutions (above licenses and LICENSE.txt included).
+ * See http://www.squidsolutions.com/EnterpriseBouquet/
+ *******************************************************************************/
+package com.squid.kraken.v4.core.analysis.datamatrix;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.squid.kraken.v4.caching.redis.datastruct.RawRow;
+
+/**
+ * A dictionary index on the rows of a DataMatrix, used to evaluate the soft-filters without hashing every row value:
+ * each indexed column is encoded once as an array of value codes, and a selection is computed as a BitSet of row
+ * positions.
+ * 
+ * The columns are indexed on demand. The index is only valid for the rows it was built on: it must be dropped if the
+ * rows are modified or re-ordered.
+ * 
+ * The index of the rows read from the cache is shared, so the requests filtering the same cached matrix do not build
+ * it again.
+ */
+class RowIndex {
+
+	// max number of rows of the shared indexes
+	private static final long SHARED_ROWS = 5000000;
+
+	private static final Cache<String, RowIndex> shared = CacheBuilder.newBuilder()
+			.maximumWeight(SHARED_ROWS)
+			.weigher(new Weigher<String, RowIndex>() {
+				@Override
+				public int weigh(String key, RowIndex index) {
+					return index.size;
+				}
+			})
+			.expireAfterAccess(10, TimeUnit.MINUTES)
+			.build();
+
+	/**
+	 * get the shared index of the cached rows
+	 * 
+	 * @param key
+	 *            identifies the cached rows
+	 * @param size
+	 *            the number of rows
+	 */
+	public static RowIndex getShared(String key, int size) {
+		RowIndex index = shared.getIfPresent(key);
+		if (index == null || index.size != size) {
+			index = new RowIndex(size);
+			shared.put(key, index);
+		}
+		return index;
+	}
+
+	private final int size;
+
+	private final Map<Integer, Column> columns = new HashMap<>();
+
+	public RowIndex(int size) {
+		this.size = size;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * get the dictionary of the column, build it from the rows if needed
+	 */
+	public synchronized Column getColumn(int column, List<RawRow> rows) {
+		Column index = columns.get(column);
+		if (index == null) {
+			index = new Column(column, rows);
+			columns.put(column, index);
+		}
+		return index;
+	}
+
+	/**
+	 * the column values encoded by the dictionary; null is encoded as -1
+	 */
+	public class Column {
+
+		private final HashMap<Object, Integer> dictionary = new HashMap<>();
+
+		private final Object[] values;
+
+		private final int[] codes;
+
+		private Column(int column, List<RawRow> rows) {
+			codes = new int[size];
+			int i = 0;
+			for (RawRow row : rows) {
+				Object value = row.data[column];
+				if (value == null) {
+					codes[i++] = -1;
+				} else {
+					Integer code = dictionary.get(value);
+					if (code == null) {
+						code = dictionary.size();
+						dictionary.put(value, code);
+					}
+					codes[i++] = code;
+				}
+			}
+			values = new Object[dictionary.size()];
+			for (Map.Entry<Object, Integer> entry : dictionary.entrySet()) {
+				values[entry.getValue()] = entry.getKey();
+			}
+		}
+
+		/**
+		 * the code of the value, or -1 if the column does not contain it
+		 */
+		public int getCode(Object value) {
+			Integer code = dictionary.get(value);
+			return code != null ? code : -1;
+		}
+
+		/**
+		 * the distinct values of the column, indexed by code
+		 */
+		public Object[] getValues() {
+			return values;
+		}
+
+		/**
+		 * select the rows whose code is selected, restricted to the candidate rows if not null
+		 * 
+		 * @param selected
+		 *            the selected codes
+		 * @param nullIsValid
+		 *            select the null values too
+		 * @param candidates
+		 *            if not null, only check these rows
+		 * @return the selected rows
+		 */
+		public BitSet select(BitSet selected, boolean nullIsValid, BitSet candidates) {
+			BitSet result = new BitSet(size);
+			if (candidates == null) {
+				for (int i = 0; i < size; i++) {
+					int code = codes[i];
+					if (code < 0 ? nullIsValid : selected.get(code)) {
+						result.set(i);
+					}
+				}
+			} else {
+				for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+					int code = codes[i];
+					if (code < 0 ? nullIsValid : selected.get(code)) {
+						result.set(i);
+					}
+				}
+			}
+			return result;
+		}
+
+	}
+
+}
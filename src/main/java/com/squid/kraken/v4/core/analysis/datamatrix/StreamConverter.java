@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * Copyright © Squid Solutions, 2016
+ *
+ * This file is part of Open Bouquet software.
+ *  
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * There is a special FOSS exception to the terms and conditions of the 
+ * licenses as they are applied to this program. See LICENSE.txt in
+ * the directory of this program distribution.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * Squid Solutions also offers commercial licenses with additional warranties,
+ * professional functionalities or services. If you purchase a commercial
+ * license, then it supersedes and replaces any other agreement between
+ * you and Squid Solutions (above licenses and LICENSE.txt included).
+ * See http://www.squidsolutions.com/EnterpriseBouquet/
+ *******************************************************************************/
+package com.squid.kraken.v4.core.analysis.datamatrix;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+import com.squid.kraken.v4.caching.redis.datastruct.RawRow;
+import com.squid.kraken.v4.model.AnalyticsQuery;
+import com.squid.kraken.v4.model.DataLayout;
+
+/**
+ * return the DataMatrix as a stream: the rows are written directly by the JSON generator when the result is
+ * serialized, without building the records first. The output is the same as the RecordConverter or the
+ * TableConverter output.
+ *
+ */
+public class StreamConverter implements IDataMatrixConverter<StreamConverter.DataStream> {
+
+	private final boolean records;
+
+	/**
+	 * @param format
+	 *            must be RECORDS or TABLE
+	 */
+	public StreamConverter(DataLayout format) {
+		if (format != DataLayout.RECORDS && format != DataLayout.TABLE) {
+			throw new IllegalArgumentException("cannot stream the format=" + format);
+		}
+		this.records = format == DataLayout.RECORDS;
+	}
+
+	/**
+	 * check if the format can be streamed
+	 */
+	public static boolean isSupported(DataLayout format) {
+		return format == DataLayout.RECORDS || format == DataLayout.TABLE;
+	}
+
+	@Override
+	public DataStream convert(AnalyticsQuery query, DataMatrix matrix) {
+		List<RawRow> rows = matrix.getRows();
+		// handling pages
+		Integer startIndex = query.getStartIndex();
+		if (startIndex == null) {
+			startIndex = 0;
+		}
+		startIndex = Math.max(startIndex, 0);
+		Integer maxResults = query.getMaxResults();
+		if (maxResults == null) {
+			maxResults = rows.size();
+		}
+		maxResults = Math.max(maxResults, 0);
+		int endIndex = Math.min(rows.size(), startIndex + maxResults);
+		return new DataStream(matrix, startIndex, Math.max(startIndex, endIndex));
+	}
+
+	/**
+	 * the rows of the DataMatrix page, serialized on demand
+	 *
+	 */
+	public class DataStream implements JsonSerializable {
+
+		private final DataMatrix matrix;
+
+		private final int startIndex;
+
+		private final int endIndex;
+
+		// the columns to write and their names, computed once
+		private final String[] names;
+
+		private final int[] columns;
+
+		private DataStream(DataMatrix matrix, int startIndex, int endIndex) {
+			this.matrix = matrix;
+			this.startIndex = startIndex;
+			this.endIndex = endIndex;
+			int size = matrix.getAxes().size() + matrix.getKPIs().size();
+			String[] allNames = new String[size];
+			int i = 0;
+			for (AxisValues axis : matrix.getAxes()) {
+				allNames[i++] = axis.getAxis().getName();
+			}
+			for (MeasureValues measure : matrix.getKPIs()) {
+				allNames[i++] = measure.getMeasure().getName();
+			}
+			if (records) {
+				// like the record map, keep only the last column with the same name
+				HashMap<String, Integer> last = new HashMap<>(size);
+				for (i = 0; i < size; i++) {
+					last.put(allNames[i], i);
+				}
+				names = new String[last.size()];
+				columns = new int[last.size()];
+				int k = 0;
+				for (i = 0; i < size; i++) {
+					if (last.get(allNames[i]) == i) {
+						names[k] = allNames[i];
+						columns[k++] = i;
+					}
+				}
+			} else {
+				names = allNames;
+				columns = new int[size];
+				for (i = 0; i < size; i++) {
+					columns[i] = i;
+				}
+			}
+		}
+
+		/**
+		 * the number of rows in the page
+		 */
+		public int size() {
+			return endIndex - startIndex;
+		}
+
+		@Override
+		public void serialize(JsonGenerator gen, SerializerProvider provider) throws IOException {
+			List<RawRow> rows = matrix.getRows();
+			gen.writeStartArray();
+			for (int rowIndex = startIndex; rowIndex < endIndex; rowIndex++) {
+				RawRow row = rows.get(rowIndex);
+				if (records) {
+					gen.writeStartObject();
+					for (int k = 0; k < columns.length; k++) {
+						Object value = matrix.getValue(columns[k], row);
+						if (value == null) {
+							gen.writeNullField(names[k]);
+						} else {
+							provider.defaultSerializeField(names[k], value, gen);
+						}
+					}
+					gen.writeEndObject();
+				} else {
+					gen.writeStartArray();
+					for (int k = 0; k < columns.length; k++) {
+						provider.defaultSerializeValue(matrix.getValue(columns[k], row), gen);
+					}
+					gen.writeEndArray();
+				}
+			}
+			gen.writeEndArray();
+		}
+
+		@Override
+		public void serializeWithType(JsonGenerator gen, SerializerProvider provider, TypeSerializer typeSer)
+				throws IOException {
+			serialize(gen, provider);
+		}
+
+	}
+
+}
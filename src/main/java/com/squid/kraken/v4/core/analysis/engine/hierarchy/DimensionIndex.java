@@ -509,4 +509,16 @@ public class DimensionIndex {
 		return this.getStore().isCorrelationIndexationDone(lastIndexedCorrelation);
 	}
 
+	public void startIndexation() {
+		this.getStore().startIndexation();
+	}
+
+	public boolean awaitDimensionIndexation(String lastIndexedDimension) throws InterruptedException {
+		return this.getStore().awaitDimensionIndexation(lastIndexedDimension);
+	}
+
+	public boolean awaitCorrelationIndexation(String lastIndexedCorrelation) throws InterruptedException {
+		return this.getStore().awaitCorrelationIndexation(lastIndexedCorrelation);
+	}
+
 }
@@ -23,11 +23,23 @@
  *******************************************************************************/
 package com.squid.kraken.v4.core.analysis.engine.hierarchy;
 
-import java.util.concurrent.ConcurrentHashMap;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.hash.Hashing;
 
 /**
  * Shared string pool for optimizing matrix storage
  * 
+ * The pool is split by scope (the database the values come from) and each
+ * scope keeps at most maximumSize values, the least recently used being
+ * evicted first. Use getStatistics() to check if the size fits the working
+ * set.
+ * 
  * @author sergefantino
  *
  */
@@ -35,14 +47,106 @@ public class DimensionValuesDictionary {
 
 	public static final DimensionValuesDictionary INSTANCE = new DimensionValuesDictionary();
 	
-	ConcurrentHashMap<String, String> dict;
+	private static final String DEFAULT_SCOPE = "";
+	
+	private static final int MAX_SCOPES = 100;
+	
+	private volatile long maximumSize = 100000;
+	
+	private volatile Cache<String, Cache<String, String>> scopes;
 	
 	public DimensionValuesDictionary(){
-		this.dict = new ConcurrentHashMap<String, String>();
+		this.scopes = newScopes();
+	}
+	
+	private Cache<String, Cache<String, String>> newScopes() {
+		return CacheBuilder.newBuilder().maximumSize(MAX_SCOPES).build();
+	}
+	
+	/**
+	 * set the max number of values kept for each scope; this clears the
+	 * dictionary
+	 * @param maximumSize
+	 */
+	public void setMaximumSize(long maximumSize) {
+		this.maximumSize = maximumSize;
+		this.scopes = newScopes();
+	}
+	
+	public long getMaximumSize() {
+		return maximumSize;
 	}
 	
-	public  String getRef(String s){
-		String ref = dict.putIfAbsent(s, s);
+	public String getRef(String s){
+		return getRef(DEFAULT_SCOPE, s);
+	}
+	
+	/**
+	 * return the shared instance of the string for that scope
+	 * @param scope
+	 * @param s
+	 * @return
+	 */
+	public String getRef(String scope, String s){
+		Cache<String, String> dict = getScope(scope != null ? scope : DEFAULT_SCOPE);
+		String ref = dict.getIfPresent(s);
+		if (ref == null) {
+			ref = dict.asMap().putIfAbsent(s, s);
+		}
 		return ref!=null?ref:s;
 	}
+	
+	private Cache<String, String> getScope(String scope) {
+		Cache<String, Cache<String, String>> current = this.scopes;
+		Cache<String, String> dict = current.getIfPresent(scope);
+		if (dict == null) {
+			dict = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+			Cache<String, String> previous = current.asMap().putIfAbsent(scope, dict);
+			if (previous != null) {
+				dict = previous;
+			}
+		}
+		return dict;
+	}
+	
+	/**
+	 * the dictionary statistics: global size, hit rate and evictions, and the
+	 * same figures for each scope; the scopes are identified by a hash, since
+	 * they may contain database URLs
+	 * @return
+	 */
+	public Map<String, Object> getStatistics() {
+		Map<String, Object> res = new LinkedHashMap<String, Object>();
+		Map<String, Object> details = new LinkedHashMap<String, Object>();
+		long size = 0;
+		CacheStats total = new CacheStats(0, 0, 0, 0, 0, 0);
+		for (Map.Entry<String, Cache<String, String>> entry : scopes.asMap().entrySet()) {
+			Cache<String, String> dict = entry.getValue();
+			CacheStats stats = dict.stats();
+			size += dict.size();
+			total = total.plus(stats);
+			details.put(getScopeId(entry.getKey()), getStatistics(dict.size(), stats));
+		}
+		res.putAll(getStatistics(size, total));
+		res.put("maximumSize", maximumSize);
+		res.put("scopes", details);
+		return res;
+	}
+	
+	private String getScopeId(String scope) {
+		if (DEFAULT_SCOPE.equals(scope)) {
+			return "default";
+		}
+		return Hashing.sha256().hashString(scope, StandardCharsets.UTF_8).toString().substring(0, 16);
+	}
+	
+	private Map<String, Object> getStatistics(long size, CacheStats stats) {
+		Map<String, Object> res = new LinkedHashMap<String, Object>();
+		res.put("size", size);
+		res.put("hitCount", stats.hitCount());
+		res.put("missCount", stats.missCount());
+		res.put("hitRate", stats.hitRate());
+		res.put("evictionCount", stats.evictionCount());
+		return res;
+	}
 }
@@ -235,7 +235,7 @@ public class DomainHierarchyCompute extends DomainHierarchyQueryGenerator {
 
 		} else {
 			ExecuteHierarchyQueryResult res = job.get();
-			res.waitForIndexationCompletion(index, 5);
+			res.waitForIndexationCompletion(index);
 		}
 		return (index.getStatus() == Status.DONE || index.getStatus() == Status.ERROR);
 	}
@@ -28,9 +28,11 @@ import java.sql.ResultSetMetaData;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.concurrent.Future;
 
 import org.slf4j.Logger;
@@ -164,13 +166,14 @@ public class ExecuteHierarchyQuery implements CancellableCallable<ExecuteHierarc
 	public ExecuteHierarchyQueryResult call() throws Exception {
 		//
 
-		HashMap<DimensionIndex, String> lastIndexedDimension = new HashMap<DimensionIndex, String>();
-		HashMap<DimensionIndex, String> lastIndexedCorrelation = new HashMap<DimensionIndex, String>();
+		final HashMap<DimensionIndex, String> lastIndexedDimension = new HashMap<DimensionIndex, String>();
+		final HashMap<DimensionIndex, String> lastIndexedCorrelation = new HashMap<DimensionIndex, String>();
+		HierarchyIndexingPipeline pipeline = new HierarchyIndexingPipeline();
 
 		this.state = State.ONGOING_EXECUTION;
 		ExecutionManager.INSTANCE.registerTask(this);
 		//
-		List<DimensionMapping> dx_map = query.getDimensionMapping();
+		final List<DimensionMapping> dx_map = query.getDimensionMapping();
 		long metter_start = (new Date()).getTime();
 		IExecutionItem item = null;
 		//
@@ -203,8 +206,8 @@ public class ExecuteHierarchyQuery implements CancellableCallable<ExecuteHierarc
 				indexes.add(m.getDimensionIndex());
 			}
 			// prepare the hierarchy
-			Map<DimensionIndex, List<Integer>> hierarchies_pos = new HashMap<>();
-			Map<DimensionIndex, List<DimensionIndex>> hierarchies_type = new HashMap<>();
+			final Map<DimensionIndex, List<Integer>> hierarchies_pos = new HashMap<>();
+			final Map<DimensionIndex, List<DimensionIndex>> hierarchies_type = new HashMap<>();
 			for (int i = 0; i < dx_map.size(); i++) {
 				DimensionIndex index = indexes.get(i);
 				DimensionIndex root = index.getRoot();
@@ -219,6 +222,16 @@ public class ExecuteHierarchyQuery implements CancellableCallable<ExecuteHierarc
 				pos.add(i);// add the child
 				type.add(index);
 			}
+			// only wait for the batches sent by this query
+			Set<DimensionIndex> started = new HashSet<>(indexes);
+			for (DimensionIndex index : indexes) {
+				index.startIndexation();
+			}
+			for (DimensionIndex root : hierarchies_pos.keySet()) {
+				if (started.add(root)) {
+					root.startIndexation();
+				}
+			}
 			//
 			this.count = 0;
 			int maxRecords = -1;
@@ -302,19 +315,32 @@ public class ExecuteHierarchyQuery implements CancellableCallable<ExecuteHierarc
 				// flush buffer ?
 				if (rowBuffer.size() == bufferCommitSize) {
 					long startES = new Date().getTime();
-					// commit the index buffers
-					this.flushDimensionBuffer(dx_map, indexBuffer, lastIndexedDimension, wait);
-					// map the correlation
-
-					this.flushCorrelationBuffer(dx_map, hierarchies_pos, hierarchies_type, rowBuffer, indexBuffer,
-							lastIndexedCorrelation, wait);
+					if (wait || !HierarchyIndexingPipeline.PARALLEL_FLAG) {
+						// commit the index buffers
+						this.flushDimensionBuffer(dx_map, indexBuffer, lastIndexedDimension, wait);
+						// map the correlation
+						this.flushCorrelationBuffer(dx_map, hierarchies_pos, hierarchies_type, rowBuffer, indexBuffer,
+								lastIndexedCorrelation, wait);
+					} else {
+						// index in the background while reading the next rows
+						final ArrayList<DimensionMember[]> rows = rowBuffer;
+						final ArrayList<DimensionMember>[] members = indexBuffer;
+						pipeline.submit(new HierarchyIndexingPipeline.Batch() {
+							@Override
+							public void index() throws IndexationException {
+								flushDimensionBuffer(dx_map, members, lastIndexedDimension, false);
+								flushCorrelationBuffer(dx_map, hierarchies_pos, hierarchies_type, rows, members,
+										lastIndexedCorrelation, false);
+							}
+						});
+					}
 					
 					// only check ES state for the first batch
 					if (wait) {
 						wait = false;
 					}
-					// clear buffers
-					rowBuffer.clear();
+					// new buffers, the previous ones may still be indexed
+					rowBuffer = new ArrayList<>(bufferCommitSize);
 					indexBuffer = new ArrayList[dx_map.size()];
 					long endES = new Date().getTime();					
 					timeSpentInLoopWithES += (endES -startES);
@@ -322,6 +348,11 @@ public class ExecuteHierarchyQuery implements CancellableCallable<ExecuteHierarc
 				// end of while loop
 			}
 
+			// the last batch must be indexed after all the others
+			long startES = new Date().getTime();
+			pipeline.await();
+			timeSpentInLoopWithES += (new Date().getTime() - startES);
+
 			// flush last buffer ?
 			if (!rowBuffer.isEmpty()) {
 				// check ES state for the last batch
@@ -335,7 +366,7 @@ public class ExecuteHierarchyQuery implements CancellableCallable<ExecuteHierarc
 			item.close();
 
 			// check and set Indexes status
-			this.waitForIndexationCompletion(lastIndexedDimension, lastIndexedCorrelation, 5);
+			this.waitForIndexationCompletion(lastIndexedDimension, lastIndexedCorrelation);
 			// check also empty dimensionIndexes
 			for (DimensionIndex index : indexes) {
 				if (!lastIndexedDimension.containsKey(index) && !lastIndexedCorrelation.containsKey(index)) {
@@ -371,6 +402,7 @@ public class ExecuteHierarchyQuery implements CancellableCallable<ExecuteHierarc
 			}
 			throw e;
 		} finally {
+			pipeline.cancel();
 			if (item != null)
 				try {
 					item.close();
@@ -385,24 +417,17 @@ public class ExecuteHierarchyQuery implements CancellableCallable<ExecuteHierarc
 	}
 
 	private void waitForIndexationCompletion(HashMap<DimensionIndex, String> lastIndexedDimension,
-			HashMap<DimensionIndex, String> lastIndexedCorrelation, int timeOutInSec) {
-
-		try {
-			Thread.sleep(timeOutInSec * 1000);
-		} catch (InterruptedException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
+			HashMap<DimensionIndex, String> lastIndexedCorrelation) throws InterruptedException {
 
 		for (DimensionIndex di : lastIndexedCorrelation.keySet()) {
-			if (!di.isCorrelationIndexationDone(lastIndexedCorrelation.get(di))) {
+			if (!di.awaitCorrelationIndexation(lastIndexedCorrelation.get(di))) {
 				logger.info("timeout during correlation indexing " + di.getDimensionName());
 				di.setPermanentError("timeout during correlation indexing");
 			}
 		}
 
 		for (DimensionIndex di : lastIndexedDimension.keySet()) {
-			if (di.isDimensionIndexationDone(lastIndexedDimension.get(di))) {
+			if (di.awaitDimensionIndexation(lastIndexedDimension.get(di))) {
 				logger.info("indexing  ok " + di.getDimensionName());
 				di.setDone();
 			} else {
@@ -424,7 +449,10 @@ public class ExecuteHierarchyQuery implements CancellableCallable<ExecuteHierarc
 																						// have
 																						// been
 																						// initialized
+				long start = System.currentTimeMillis();
 				String id = m.getDimensionIndex().index(indexBuffer[j], wait);
+				HierarchyIndexingPipeline.record(m.getDimensionIndex(), indexBuffer[j].size(), 0,
+						System.currentTimeMillis() - start);
 				if (wait) {
 					lastIndexed.put(m.getDimensionIndex(), id);
 				}
@@ -449,7 +477,10 @@ public class ExecuteHierarchyQuery implements CancellableCallable<ExecuteHierarc
 					}
 					batch.add(values);
 				}
+				long start = System.currentTimeMillis();
 				String id = entry.getKey().indexCorrelations(hierarchies_type.get(entry.getKey()), batch, wait);
+				HierarchyIndexingPipeline.record(entry.getKey(), 0, batch.size(),
+						System.currentTimeMillis() - start);
 				if (wait) {
 					lastIndexed.put(entry.getKey(), id);
 				}
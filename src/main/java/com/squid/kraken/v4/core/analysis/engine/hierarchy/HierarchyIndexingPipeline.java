@@ -0,0 +1,242 @@
+/*******************************************************************************
+ * Copyright © Squid Solutions, 2016
+ *
+ * This file is part of Open Bouquet software.
+ *  
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * There is a special FOSS exception to the terms and conditions of the 
+ * licenses as they are applied to this program. See LICENSE.txt in
+ * the directory of this program distribution.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * Squid Solutions also offers commercial licenses with additional warranties,
+ * professional functionalities or services. If you purchase a commercial
+ * license, then it supersedes and replaces any other agreement between
+ * you and Squid Solutions (above licenses and LICENSE.txt included).
+ * See http://www.squidsolutions.com/EnterpriseBouquet/
+ *******************************************************************************/
+package com.squid.kraken.v4.core.analysis.engine.hierarchy;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.squid.kraken.v4.KrakenConfig;
+import com.squid.kraken.v4.core.analysis.engine.index.IndexationException;
+
+/**
+ * Index the hierarchy batches in the background while the query results are still being read.
+ * 
+ * The batches are run by a pool of indexing threads shared by all the hierarchy queries. Each pipeline accepts at
+ * most QUEUE_SIZE pending batches: when full, submit() blocks the reader until a batch is done.
+ * 
+ * The pipeline also records the indexing throughput of each dimension, see getStatistics().
+ *
+ */
+public class HierarchyIndexingPipeline {
+
+	static final Logger logger = LoggerFactory.getLogger(HierarchyIndexingPipeline.class);
+
+	public static final boolean PARALLEL_FLAG = new Boolean(KrakenConfig.getProperty("feature.indexing.parallel", "true"));
+
+	private static final int WORKERS = new Integer(KrakenConfig.getProperty("feature.indexing.workers", "4"));
+
+	private static final int QUEUE_SIZE = new Integer(KrakenConfig.getProperty("feature.indexing.queue", "4"));
+
+	private static final ExecutorService executor = createExecutor();
+
+	private static final Cache<String, DimensionStatistics> statistics = CacheBuilder.newBuilder().maximumSize(1000).build();
+
+	/**
+	 * a batch to index
+	 *
+	 */
+	public interface Batch {
+		public void index() throws IndexationException;
+	}
+
+	private final Semaphore permits = new Semaphore(QUEUE_SIZE);
+
+	private final AtomicReference<IndexationException> error = new AtomicReference<>();
+
+	private volatile boolean cancelled = false;
+
+	// time spent by the reader waiting for the pipeline
+	private long waitTime = 0;
+
+	private static ExecutorService createExecutor() {
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(WORKERS, WORKERS, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "hierarchy-indexing-" + count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		// don't keep threads when there is nothing to index
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
+	}
+
+	/**
+	 * queue the batch; block if the pipeline is full
+	 * 
+	 * @throws IndexationException
+	 *             if a previous batch failed
+	 * @throws InterruptedException
+	 */
+	public void submit(final Batch batch) throws IndexationException, InterruptedException {
+		checkError();
+		long start = System.currentTimeMillis();
+		permits.acquire();
+		waitTime += System.currentTimeMillis() - start;
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						if (!cancelled && error.get() == null) {
+							batch.index();
+						}
+					} catch (IndexationException e) {
+						error.compareAndSet(null, e);
+					} catch (RuntimeException e) {
+						error.compareAndSet(null, new IndexationException(e));
+					} finally {
+						permits.release();
+					}
+				}
+			});
+		} catch (RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * wait until all the submitted batches are indexed
+	 * 
+	 * @throws IndexationException
+	 *             if a batch failed
+	 * @throws InterruptedException
+	 */
+	public void await() throws IndexationException, InterruptedException {
+		long start = System.currentTimeMillis();
+		permits.acquire(QUEUE_SIZE);
+		permits.release(QUEUE_SIZE);
+		waitTime += System.currentTimeMillis() - start;
+		checkError();
+	}
+
+	/**
+	 * skip the pending batches
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * @return the time spent waiting for the pipeline, in ms
+	 */
+	public long getWaitTime() {
+		return waitTime;
+	}
+
+	private void checkError() throws IndexationException {
+		IndexationException e = error.get();
+		if (e != null) {
+			throw e;
+		}
+	}
+
+	/**
+	 * record an indexing request for that dimension
+	 * 
+	 * @param index
+	 * @param members
+	 *            the number of members indexed
+	 * @param correlations
+	 *            the number of correlations indexed
+	 * @param duration
+	 *            the request duration in ms
+	 */
+	public static void record(DimensionIndex index, int members, int correlations, long duration) {
+		// the same dimension name may be used in several domains and projects
+		String key = index.getDimension().getId().toUUID();
+		DimensionStatistics stats = statistics.getIfPresent(key);
+		if (stats == null) {
+			stats = new DimensionStatistics(index.getDimensionName());
+			DimensionStatistics previous = statistics.asMap().putIfAbsent(key, stats);
+			if (previous != null) {
+				stats = previous;
+			}
+		}
+		stats.batches.incrementAndGet();
+		stats.members.addAndGet(members);
+		stats.correlations.addAndGet(correlations);
+		stats.time.addAndGet(duration);
+	}
+
+	/**
+	 * the indexing statistics of each dimension: batches, members and correlations indexed, and the throughput
+	 * 
+	 * @return
+	 */
+	public static Map<String, Object> getStatistics() {
+		Map<String, Object> res = new LinkedHashMap<String, Object>();
+		Map<String, Object> details = new LinkedHashMap<String, Object>();
+		for (Map.Entry<String, DimensionStatistics> entry : statistics.asMap().entrySet()) {
+			DimensionStatistics stats = entry.getValue();
+			Map<String, Object> dimension = new LinkedHashMap<String, Object>();
+			long time = stats.time.get();
+			dimension.put("name", stats.name);
+			dimension.put("batches", stats.batches.get());
+			dimension.put("members", stats.members.get());
+			dimension.put("correlations", stats.correlations.get());
+			dimension.put("timeMs", time);
+			dimension.put("membersPerSecond", time > 0 ? stats.members.get() * 1000 / time : 0);
+			dimension.put("correlationsPerSecond", time > 0 ? stats.correlations.get() * 1000 / time : 0);
+			details.put(entry.getKey(), dimension);
+		}
+		res.put("parallel", PARALLEL_FLAG);
+		res.put("workers", WORKERS);
+		res.put("queueSize", QUEUE_SIZE);
+		res.put("dimensions", details);
+		return res;
+	}
+
+	private static class DimensionStatistics {
+		private final String name;
+		private final AtomicLong batches = new AtomicLong();
+		private final AtomicLong members = new AtomicLong();
+		private final AtomicLong correlations = new AtomicLong();
+		private final AtomicLong time = new AtomicLong();
+
+		public DimensionStatistics(String name) {
+			this.name = name;
+		}
+	}
+
+}
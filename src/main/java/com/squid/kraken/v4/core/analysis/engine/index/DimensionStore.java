@@ -330,6 +330,22 @@ public class DimensionStore extends DimensionStoreAbstract {
 		return true;
 	}
 
+	@Override
+	public void startIndexation() {
+		// nothing to track
+	}
+
+	@Override
+	public boolean awaitDimensionIndexation(String lastIndexedDimension) {
+		// indexing is synchronous
+		return isDimensionIndexationDone(lastIndexedDimension);
+	}
+
+	@Override
+	public boolean awaitCorrelationIndexation(String lastIndexedCorrelation) {
+		return isCorrelationIndexationDone(lastIndexedCorrelation);
+	}
+
 	@Override
 	public void setup(DimensionIndex index, String query)
 			throws ESIndexFacadeException {
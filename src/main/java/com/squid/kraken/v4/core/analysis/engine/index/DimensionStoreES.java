@@ -39,6 +39,7 @@ import com.squid.core.domain.IDomain;
 import com.squid.core.expression.ExpressionAST;
 import com.squid.core.expression.parser.ParseException;
 import com.squid.core.expression.scope.ScopeException;
+import com.squid.kraken.v4.ESIndexFacade.BulkIndexingTracker;
 import com.squid.kraken.v4.ESIndexFacade.ESIndexFacade;
 import com.squid.kraken.v4.ESIndexFacade.ESIndexFacade.MappingState;
 import com.squid.kraken.v4.ESIndexFacade.ESIndexFacadeException;
@@ -79,6 +80,10 @@ public class DimensionStoreES extends DimensionStoreAbstract {
 	// the type name for the hierarchy correlation
 	private String hierarchyTypeName = null;
 
+	// the batches sent by the current indexation
+	private volatile BulkIndexingTracker.Scope dimensionScope = null;
+	private volatile BulkIndexingTracker.Scope correlationScope = null;
+
 	private boolean mappingInitialized;
 	protected boolean correlationMappingInitialized;
 
@@ -904,4 +909,24 @@ public class DimensionStoreES extends DimensionStoreAbstract {
 		}
 	}
 
+	@Override
+	public void startIndexation() {
+		this.dimensionScope = master.beginIndexation(indexName, dimensionTypeName);
+		if (hierarchyTypeName != null) {
+			this.correlationScope = master.beginIndexation(indexName, hierarchyTypeName);
+		}
+	}
+
+	@Override
+	public boolean awaitDimensionIndexation(String lastIndexedDimension) throws InterruptedException {
+		return (dimensionScope == null || master.awaitIndexation(dimensionScope))
+				&& isDimensionIndexationDone(lastIndexedDimension);
+	}
+
+	@Override
+	public boolean awaitCorrelationIndexation(String lastIndexedCorrelation) throws InterruptedException {
+		return (correlationScope == null || master.awaitIndexation(correlationScope))
+				&& isCorrelationIndexationDone(lastIndexedCorrelation);
+	}
+
 }
@@ -131,6 +131,28 @@ public interface IDimensionStore {
 
 	boolean isCorrelationIndexationDone(String lastIndexedCorrelation);
 
+	/**
+	 * start a new indexation: the await methods only consider the batches
+	 * sent from now on
+	 */
+	void startIndexation();
+
+	/**
+	 * wait until the dimension batches are indexed, then check the last member
+	 * 
+	 * @param lastIndexedDimension
+	 * @return false if the indexation failed or did not complete in time
+	 */
+	boolean awaitDimensionIndexation(String lastIndexedDimension) throws InterruptedException;
+
+	/**
+	 * wait until the correlation batches are indexed, then check the last one
+	 * 
+	 * @param lastIndexedCorrelation
+	 * @return false if the indexation failed or did not complete in time
+	 */
+	boolean awaitCorrelationIndexation(String lastIndexedCorrelation) throws InterruptedException;
+
 	void setup(DimensionIndex index, String query) throws ESIndexFacadeException;
 
 }
@@ -24,6 +24,7 @@
 package com.squid.kraken.v4.core.analysis.engine.processor;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
@@ -31,6 +32,13 @@ import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.joda.time.DateTime;
 import org.joda.time.Days;
@@ -41,6 +49,7 @@ import org.joda.time.PeriodType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.squid.core.concurrent.ExecutionManager;
 import com.squid.core.domain.IDomain;
 import com.squid.core.domain.extensions.date.DateTruncateOperatorDefinition;
 import com.squid.core.domain.extensions.date.DateTruncateShortcutsOperatorDefinition;
@@ -72,6 +81,7 @@ import com.squid.kraken.v4.KrakenConfig;
 import com.squid.kraken.v4.api.core.SQLStats;
 import com.squid.kraken.v4.api.core.attribute.AttributeServiceBaseImpl;
 import com.squid.kraken.v4.caching.NotInCacheException;
+import com.squid.kraken.v4.core.analysis.datamatrix.CompareMerger;
 import com.squid.kraken.v4.core.analysis.datamatrix.DataMatrix;
 import com.squid.kraken.v4.core.analysis.engine.hierarchy.DimensionMember;
 import com.squid.kraken.v4.core.analysis.engine.query.QueryRunner;
@@ -127,6 +137,14 @@ public class AnalysisCompute {
 	private static final boolean SUPPORT_SOFT_FILTERS = new Boolean(
 			KrakenConfig.getProperty("feature.softfilters", "false"));
 
+	// turn to false to compute the measure groups one after the other
+	private static final boolean SUPPORT_PARALLEL_GROUPS = new Boolean(
+			KrakenConfig.getProperty("feature.parallelgroups", "true"));
+
+	// turn to true to compute the compareTo present and past periods as two concurrent queries
+	private static final boolean SUPPORT_COMPARE_SPLIT = new Boolean(
+			KrakenConfig.getProperty("feature.comparesplit", "false"));
+
 	public AnalysisCompute(Universe universe) {
 		this.universe = universe;
 	}
@@ -174,6 +192,10 @@ public class AnalysisCompute {
 		if (groups.isEmpty()) {
 			SimpleQuery query = this.genSimpleQuery(analysis);
 			PreviewWriter qw = new PreviewWriter();
+			if (query.getPostProcessing().isEmpty()) {
+				// the rows are already in the final order, we can only read the requested page
+				qw.setMaxRows(analysis.getMaxRows());
+			}
 			QueryRunner runner = new QueryRunner(universe.getContext(), query, analysis.isLazy(), qw,
 					analysis.getJobId());
 			runner.run();
@@ -807,6 +829,9 @@ public class AnalysisCompute {
 	 */
 	private DataMatrix computeAnalysisSimple(DashboardAnalysis analysis, boolean optimize, boolean forceBeyondLimit)
 			throws ScopeException, ComputingException, SQLScopeException, InterruptedException, RenderingException {
+		if (analysis.getGroups().size() > 1 && isParallelizable(analysis, forceBeyondLimit)) {
+			return computeAnalysisSimpleParallel(analysis, optimize, forceBeyondLimit);
+		}
 		// select with one or several KPI groups
 		DataMatrix result = null;
 		for (int i= 0; i< analysis.getGroups().size(); i++) {
@@ -818,7 +843,7 @@ public class AnalysisCompute {
 				if (result == null) {
 					result = dm;
 				} else {
-					result = result.merge(dm);
+					result = mergeGroup(analysis, result, dm);
 				}
 			}
 		}
@@ -830,6 +855,233 @@ public class AnalysisCompute {
 		return computeAnalysisSimple(analysis, optimize, false);
 	}
 
+	/**
+	 * the groups can be computed concurrently only if generating their query does not modify the analysis:
+	 * this is not the case for the compareTo and the beyondLimit support
+	 * @param analysis
+	 * @param forceBeyondLimit
+	 * @return
+	 */
+	private boolean isParallelizable(DashboardAnalysis analysis, boolean forceBeyondLimit) {
+		if (!SUPPORT_PARALLEL_GROUPS) {
+			return false;
+		}
+		if (analysis.getSelection().hasCompareToSelection()) {
+			return false;
+		}
+		if (forceBeyondLimit || (analysis.hasBeyondLimit() && analysis.hasLimit() && !analysis.hasRollup())) {
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * compute the measure groups concurrently using the customer ExecutionManager, then merge the results.
+	 * The first group is computed by the current thread; the current thread also computes the groups that
+	 * are still waiting for an execution thread once it is done, so it never blocks on a task that cannot start.
+	 * If a group fails, the other groups are cancelled.
+	 *
+	 * @param analysis
+	 * @param optimize
+	 * @param forceBeyondLimit
+	 * @return
+	 */
+	private DataMatrix computeAnalysisSimpleParallel(DashboardAnalysis analysis, boolean optimize, boolean forceBeyondLimit)
+			throws ScopeException, ComputingException, SQLScopeException, InterruptedException, RenderingException {
+		int size = analysis.getGroups().size();
+		List<GroupTask> tasks = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			tasks.add(new GroupTask(analysis, i, optimize, forceBeyondLimit));
+		}
+		List<DataMatrix> results = new ArrayList<>(size);
+		for (DataMatrix dm : computeGroupTasks(tasks)) {
+			if (dm != null) {
+				results.add(dm);
+			}
+		}
+		return mergeGroups(analysis, results);
+	}
+
+	/**
+	 * run the tasks concurrently using the customer ExecutionManager; the first failure cancels the other tasks
+	 * @param tasks
+	 * @return the tasks results, in the same order
+	 */
+	private DataMatrix[] computeGroupTasks(List<GroupTask> tasks)
+			throws ScopeException, ComputingException, SQLScopeException, InterruptedException, RenderingException {
+		int size = tasks.size();
+		String customerId = universe.getProject().getCustomerId();
+		// the futures can be cancelled by a failing task
+		final List<Future<DataMatrix>> futures = new CopyOnWriteArrayList<>();
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+		try {
+			for (int i = 1; i < size; i++) {
+				final GroupTask task = tasks.get(i);
+				futures.add(ExecutionManager.INSTANCE.submit(customerId, new Callable<DataMatrix>() {
+					@Override
+					public DataMatrix call() throws Exception {
+						try {
+							return task.call();
+						} catch (Exception e) {
+							if (failure.compareAndSet(null, e)) {
+								cancelGroupTasks(futures);
+							}
+							throw e;
+						}
+					}
+				}));
+			}
+			DataMatrix[] results = new DataMatrix[size];
+			for (int i = 0; i < size && failure.get() == null; i++) {
+				GroupTask task = tasks.get(i);
+				if (task.claim()) {
+					// not started yet, compute it here
+					try {
+						results[i] = task.compute();
+					} catch (ScopeException | SQLScopeException | ComputingException | InterruptedException
+							| RenderingException | RuntimeException e) {
+						failure.compareAndSet(null, e);
+						throw e;
+					}
+				}
+			}
+			for (int i = 1; i < size && failure.get() == null; i++) {
+				if (!tasks.get(i).isComputedByCaller()) {
+					try {
+						results[i] = futures.get(i - 1).get();
+					} catch (ExecutionException e) {
+						throw unwrapGroupException(e.getCause());
+					} catch (CancellationException e) {
+						// cancelled by the failing task
+						break;
+					}
+				}
+			}
+			if (failure.get() != null) {
+				throw unwrapGroupException(failure.get());
+			}
+			return results;
+		} finally {
+			// cancel the groups still running if one failed; no-op for the completed ones
+			cancelGroupTasks(futures);
+		}
+	}
+
+	private void cancelGroupTasks(List<Future<DataMatrix>> futures) {
+		for (Future<DataMatrix> future : futures) {
+			future.cancel(true);
+		}
+	}
+
+	private ComputingException unwrapGroupException(Throwable cause)
+			throws ScopeException, ComputingException, SQLScopeException, InterruptedException, RenderingException {
+		if (cause instanceof ScopeException) {
+			throw (ScopeException) cause;
+		} else if (cause instanceof SQLScopeException) {
+			throw (SQLScopeException) cause;
+		} else if (cause instanceof ComputingException) {
+			throw (ComputingException) cause;
+		} else if (cause instanceof InterruptedException) {
+			throw (InterruptedException) cause;
+		} else if (cause instanceof RenderingException) {
+			throw (RenderingException) cause;
+		} else if (cause instanceof RuntimeException) {
+			throw (RuntimeException) cause;
+		} else if (cause instanceof Error) {
+			throw (Error) cause;
+		} else {
+			return new ComputingException(cause);
+		}
+	}
+
+	/**
+	 * merge two groups results; if the result is not ordered, use the hash merge that does not need to sort the matrices.
+	 * Without an orderBy nor a limit, the groups are ordered by the dimensions (see the defaultOrder in
+	 * genAnalysisQueryWithSoftFiltering) so the merge must keep that order.
+	 * @param analysis
+	 * @param left
+	 * @param right
+	 * @return
+	 * @throws ScopeException
+	 */
+	private DataMatrix mergeGroup(DashboardAnalysis analysis, DataMatrix left, DataMatrix right) throws ScopeException {
+		boolean ordered = analysis.hasOrderBy() || !analysis.hasLimit();
+		if (ordered) {
+			return left.merge(right);
+		} else {
+			return left.hashMerge(right);
+		}
+	}
+
+	/**
+	 * merge the groups results by pairs, so that each matrix is merged log(n) times instead of n times
+	 * @param analysis
+	 * @param results
+	 * @return
+	 * @throws ScopeException
+	 */
+	private DataMatrix mergeGroups(DashboardAnalysis analysis, List<DataMatrix> results) throws ScopeException {
+		List<DataMatrix> merged = results;
+		while (merged.size() > 1) {
+			List<DataMatrix> next = new ArrayList<>((merged.size() + 1) / 2);
+			for (int i = 0; i < merged.size(); i += 2) {
+				if (i + 1 < merged.size()) {
+					next.add(mergeGroup(analysis, merged.get(i), merged.get(i + 1)));
+				} else {
+					next.add(merged.get(i));
+				}
+			}
+			merged = next;
+		}
+		return merged.isEmpty() ? null : merged.get(0);
+	}
+
+	/**
+	 * compute a measure group; the task runs only once, either by the executor or by the caller
+	 *
+	 */
+	private class GroupTask implements Callable<DataMatrix> {
+
+		private final DashboardAnalysis analysis;
+		private final int measureGroupIdx;
+		private final boolean optimize;
+		private final boolean forceBeyondLimit;
+		private final AtomicBoolean started = new AtomicBoolean(false);
+
+		public GroupTask(DashboardAnalysis analysis, int measureGroupIdx, boolean optimize, boolean forceBeyondLimit) {
+			this.analysis = analysis;
+			this.measureGroupIdx = measureGroupIdx;
+			this.optimize = optimize;
+			this.forceBeyondLimit = forceBeyondLimit;
+		}
+
+		private boolean computedByCaller = false;
+
+		public boolean claim() {
+			return started.compareAndSet(false, true);
+		}
+
+		public boolean isComputedByCaller() {
+			return computedByCaller;
+		}
+
+		public DataMatrix compute()
+				throws ScopeException, SQLScopeException, ComputingException, InterruptedException, RenderingException {
+			computedByCaller = true;
+			return computeAnalysisSimpleForGroup(analysis, measureGroupIdx, optimize, forceBeyondLimit);
+		}
+
+		@Override
+		public DataMatrix call() throws Exception {
+			if (!claim()) {
+				// already computed by the caller
+				return null;
+			}
+			return computeAnalysisSimpleForGroup(analysis, measureGroupIdx, optimize, forceBeyondLimit);
+		}
+
+	}
+
 	private DataMatrix runQuery(SimpleQuery query, boolean lazy, DashboardAnalysis analysis, PreviewWriter qw)
 			throws ComputingException {
 		QueryRunner runner = new QueryRunner(universe.getContext(), query, lazy, qw, analysis.getJobId());
@@ -853,6 +1105,12 @@ public class AnalysisCompute {
 			try {
 				SimpleQuery queryBis = this.genAnalysisQueryCachable(match.getAnalysis(), match.getMeasures(), optimize,
 						false);
+				if (match.getSignature().isShared() && !queryBis.render().equals(match.getSignature().getSQL())) {
+					// the analysis rebuilt from another node signature must generate the same query
+					logger.info("Smart Cache: shared signature does not match the local query");
+					AnalysisSmartCache.INSTANCE.evict(match.getSignature());
+					throw new NotInCacheException("cannot use this cached datamatrix");
+				}
 				try{
 					runQuery(queryBis, lazy, analysis, qw);
 				}catch(NotInCacheException e){
@@ -936,6 +1194,12 @@ public class AnalysisCompute {
 			} else {
 				throw new RenderingException ("Comparison doesn't support non date dimension");
 			}
+			if (!overlaps && SUPPORT_COMPARE_SPLIT) {
+				DataMatrix split = computeAnalysisCompareToSplit(analysis, measureGroupIdx, optimize, forceBeyondLimit);
+				if (split != null) {
+					return split;
+				}
+			}
 			DashboardAnalysis compareAnalysis = null;
 			compareAnalysis = generateAnalysisCompareTo(analysis, false, false);
 			query = this.genAnalysisQueryCachable(compareAnalysis, compareAnalysis.getGroups().get(measureGroupIdx), optimize, forceBeyondLimit);
@@ -949,6 +1213,138 @@ public class AnalysisCompute {
 		}
 	}
 
+	/**
+	 * compute the compareTo analysis as two queries, one for the present period and one for the past period,
+	 * that are run concurrently and then joined by a CompareMerger that also computes the growth.
+	 * The present period query is the plain analysis query, so it can be reused from the cache.
+	 * This only supports a single compareTo filter without limit, rollup, beyondLimit or growth ordering.
+	 *
+	 * @return the compareTo result, or null if the analysis is not supported
+	 */
+	private DataMatrix computeAnalysisCompareToSplit(DashboardAnalysis analysis, int measureGroupIdx, boolean optimize,
+			boolean forceBeyondLimit)
+					throws ScopeException, SQLScopeException, ComputingException, InterruptedException, RenderingException {
+		if (forceBeyondLimit || analysis.hasBeyondLimit() || analysis.hasLimit() || analysis.hasOffset()
+				|| analysis.hasRollup()) {
+			return null;
+		}
+		DashboardSelection presentSelection = analysis.getSelection();
+		DomainSelection compare = presentSelection.getCompareToSelection();
+		if (compare.getFilters().size() != 1) {
+			return null;
+		}
+		Axis filter = compare.getFilters().iterator().next();
+		Collection<DimensionMember> pastMembers = compare.getMembers(filter);
+		IntervalleObject presentInterval = computeMinMax(presentSelection.getMembers(filter));
+		IntervalleObject pastInterval = computeMinMax(pastMembers);
+		if (presentInterval == null || pastInterval == null || !(presentInterval.getLowerBound() instanceof Date)
+				|| !(pastInterval.getLowerBound() instanceof Date)) {
+			return null;
+		}
+		MeasureGroup group = analysis.getGroups().get(measureGroupIdx);
+		// check the orders can be applied on the merged matrix
+		for (OrderBy order : analysis.getOrders()) {
+			ExpressionAST expr = order.getExpression();
+			if (order instanceof OrderByGrowth) {
+				return null;
+			} else if (expr instanceof MeasureExpression) {
+				if (!group.getKPIs().contains(((MeasureExpression) expr).getMeasure())) {
+					return null;
+				}
+			} else if (!(expr instanceof AxisExpression)
+					|| analysis.findGrouping(((AxisExpression) expr).getAxis()) == null) {
+				return null;
+			}
+		}
+		// compute the offset to align the past period on the present one
+		GroupByAxis join = findGroupingJoin(filter, analysis);
+		Period offset = null;
+		if (join != null) {
+			DateTime startPresent = new DateTime(presentInterval.getLowerBound());
+			DateTime endPresent = new DateTime(presentInterval.getUpperBound());
+			DateTime startPast = new DateTime(pastInterval.getLowerBound());
+			DateTime endPast = new DateTime(pastInterval.getUpperBound());
+			boolean offsetByDay = (Days.daysBetween(startPresent, endPresent).getDays() == Days.daysBetween(startPast, endPast).getDays());
+			int nrMonths = Months.monthsBetween(startPast, startPresent).getMonths();
+			if (startPresent.equals(startPast.plusMonths(nrMonths)) && (endPresent.equals(endPast.plusMonths(nrMonths)) || endPresent.isAfter(endPast.plusMonths(nrMonths)))) {
+				offsetByDay = false;
+			}
+			if (offsetByDay) {
+				ExpressionAST groupByExpr = join.getAxis().getDefinitionSafe();
+				if (groupByExpr instanceof Operator && (((Operator) groupByExpr).getOperatorDefinition() instanceof DateTruncateShortcutsOperatorDefinition
+						||((Operator) groupByExpr).getOperatorDefinition() instanceof DateTruncateOperatorDefinition)) {
+					// the truncated dates cannot be shifted by days after the fact
+					return null;
+				}
+				offset = Period.days(Days.daysBetween(startPast, startPresent).getDays());
+			} else {
+				offset = Period.months(nrMonths);
+			}
+		}
+		//
+		// the present analysis is the analysis without the compareTo
+		DashboardAnalysis present = new DashboardAnalysis(universe);
+		DashboardAnalysis past = new DashboardAnalysis(universe);
+		for (DashboardAnalysis copy : Arrays.asList(present, past)) {
+			copy.setMainDomain(analysis.getMainDomain());
+			copy.lazy(analysis.isLazy());
+			copy.setJobId(analysis.getJobId());
+			for (GroupByAxis groupBy : analysis.getGrouping()) {
+				copy.add(groupBy);
+			}
+		}
+		for (Measure kpi : group.getKPIs()) {
+			present.add(kpi);
+			Measure compareToKpi = new Measure(kpi);
+			compareToKpi.setOriginType(OriginType.COMPARETO);
+			compareToKpi.setName(kpi.getName() + " [compare]");
+			compareToKpi.setDescription(kpi.getName() + " comparison on " + pastInterval.toString());
+			past.add(compareToKpi);
+		}
+		if (present.getGroups().size() != 1 || past.getGroups().size() != 1) {
+			return null;
+		}
+		present.setSelection(new DashboardSelection(presentSelection));
+		DashboardSelection pastSelection = new DashboardSelection(presentSelection);
+		pastSelection.clear(filter);
+		IntervalleObject alignedPastInterval = join != null ? alignPastInterval(presentInterval, pastInterval, join.getAxis()) : pastInterval;
+		if (!alignedPastInterval.equals(pastInterval)) {
+			logger.info(pastInterval.toString() + " realigned to " + alignedPastInterval.toString());
+			pastSelection.add(filter, alignedPastInterval);
+		} else {
+			pastSelection.add(filter, pastMembers);
+		}
+		past.setSelection(pastSelection);
+		//
+		// run both periods
+		DataMatrix[] results = computeGroupTasks(Arrays.asList(
+				new GroupTask(present, 0, optimize, false),
+				new GroupTask(past, 0, optimize, false)));
+		if (results[0] == null || results[1] == null) {
+			return null;
+		}
+		Object computeGrowthOption = analysis.getOption(DashboardAnalysis.COMPUTE_GROWTH_OPTION_KEY);
+		boolean computeGrowth = computeGrowthOption != null && computeGrowthOption.equals(true);
+		CompareMerger merger = new CompareMerger(results[0], results[1], null, join != null ? join.getAxis() : null, offset, computeGrowth);
+		DataMatrix merged = merger.merge(true);
+		// restore the ordering: use the default compareTo ordering if not defined
+		List<OrderBy> orders = analysis.getOrders();
+		if (orders.isEmpty()) {
+			orders = new ArrayList<>();
+			if (join != null) {
+				orders.add(new OrderBy(orders.size(), join.getAxis().getReference(), ORDERING.DESCENT));
+			}
+			for (GroupByAxis groupBy : analysis.getGrouping()) {
+				if (join == null || !groupBy.equals(join)) {
+					IDomain image = groupBy.getAxis().getDefinitionSafe().getImageDomain();
+					orders.add(new OrderBy(orders.size(), groupBy.getAxis().getReference(), image.isInstanceOf(IDomain.TEMPORAL)?ORDERING.DESCENT:ORDERING.ASCENT));
+				}
+			}
+		}
+		merged.orderBy(orders);
+		return merged;
+	}
+
 	protected SimpleQuery generateCompareQuery(final DashboardAnalysis currentAnalysis, int measureGroupIdx, boolean optimize, boolean forceBeyondLimit, final DashboardAnalysis compareAnalysis, QueryMapper qm) throws ScopeException, SQLScopeException, ComputingException, InterruptedException, RenderingException {
 		DashboardAnalysis innerAnalysis = generateAnalysisCompareTo(currentAnalysis, true, false);
 		DashboardAnalysis innerCompareAnalysis = generateAnalysisCompareTo(currentAnalysis, true, true);
@@ -23,6 +23,7 @@
  *******************************************************************************/
 package com.squid.kraken.v4.core.analysis.engine.processor;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
@@ -30,7 +31,9 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -42,6 +45,7 @@ import com.google.common.collect.ImmutableMap;
 import com.squid.core.domain.IDomain;
 import com.squid.core.expression.ExpressionAST;
 import com.squid.core.expression.scope.ScopeException;
+import com.squid.kraken.v4.caching.redis.RedisCacheManager;
 import com.squid.kraken.v4.core.analysis.engine.hierarchy.DimensionMember;
 import com.squid.kraken.v4.core.analysis.model.DashboardAnalysis;
 import com.squid.kraken.v4.core.analysis.model.DashboardSelection;
@@ -54,6 +58,9 @@ import com.squid.kraken.v4.core.analysis.universe.Universe;
 
 /**
  * The SmartCache allow to store AnalysisSignature object and retrieve compatible analysis from the cache to reuse
+ * 
+ * When shared, the signatures are also published in redis so the other nodes can reuse them: the local cache then acts as
+ * a near-cache in front of the shared index, and the signatures published by other nodes are rebuilt on demand (see AnalysisSmartCacheEntry).
  * @author sergefantino
  *
  */
@@ -64,17 +71,29 @@ public class AnalysisSmartCache {
 	
 	static final Logger logger = LoggerFactory.getLogger(AnalysisSmartCache.class);
 
-	// simple set to control if a query is in the smart cache with no need to compute its key
-	private Set<String> contains = new HashSet<>();
-
-	// the structured lookup sets
-	private Map<String, Map<String, HashSet<String>>> lookup = new ConcurrentHashMap<>();
+	// the structured lookup sets, the candidates are indexed by measure and filter member
+	private Map<String, Map<String, AnalysisSmartCacheCandidates>> lookup = new ConcurrentHashMap<>();
+	
+	// the axes signatures by rollup signature, to look for analyses with more axes
+	private Map<String, Set<String>> rollups = new ConcurrentHashMap<>();
 	
 	// the guava cache
 	private Cache<String, AnalysisSmartCacheSignature> cache;
 	
-	private long CACHE_SIZE = 200;
+	private long CACHE_SIZE = 10000;
+	
+	private static final String SHARED_PREFIX = "smartcache:";
+	
+	// don't read the shared index again for the same signatures before that delay
+	private static final long SHARED_LOOKUP_DELAY_MS = 10000;
+	
+	// if true the signatures are shared through redis
+	private boolean shared = false;
 	
+	private int sharedTTLInSecond = 24*60*60;
+	
+	// the shared index entries recently read
+	private Cache<String, Boolean> sharedLookups;
 	
 	private AnalysisSmartCache() {
 		
@@ -82,6 +101,20 @@ public class AnalysisSmartCache {
 				    .maximumSize(CACHE_SIZE) // 
 				    .removalListener(new GuavaRemovalListener())
 				    .build();
+		sharedLookups = CacheBuilder.newBuilder()
+					.maximumSize(10*CACHE_SIZE)
+					.expireAfterWrite(SHARED_LOOKUP_DELAY_MS, TimeUnit.MILLISECONDS)
+					.build();
+	}
+	
+	/**
+	 * share the signatures with the other nodes through redis
+	 * @param shared
+	 * @param ttlInSecond : how long a shared signature is kept if not refreshed
+	 */
+	public void setShared(boolean shared, int ttlInSecond) {
+		this.shared = shared;
+		this.sharedTTLInSecond = ttlInSecond;
 	}
 	
 	private class GuavaRemovalListener implements RemovalListener<String, AnalysisSmartCacheSignature> {
@@ -91,10 +124,10 @@ public class AnalysisSmartCache {
 			AnalysisSmartCacheSignature signature = notif.getValue();
 			String key = notif.getKey();
 			logger.info("Removal notification " + key + " from smart cache ; cause "+ notif.getCause());
-			Map<String, HashSet<String>> sameAxes = lookup.get(signature.getAxesSignature());
+			Map<String, AnalysisSmartCacheCandidates> sameAxes = lookup.get(signature.getAxesSignature());
 			if (sameAxes != null){
-				HashSet<String> sameFilters = sameAxes.get(signature.getFiltersSignature());
-				if (sameFilters.contains(key)){
+				AnalysisSmartCacheCandidates sameFilters = sameAxes.get(signature.getFiltersSignature());
+				if (sameFilters!=null && sameFilters.contains(key)){
 					// check if it has been put back in guava
 					if ( cache.getIfPresent(key) == null){
 						sameFilters.remove(key);
@@ -119,11 +152,12 @@ public class AnalysisSmartCache {
 		// check same axis
 		logger.info("Smart Cache: looking for exact match");
 		{
-			Map<String, HashSet<String>> sameAxes = lookup.get(request.getAxesSignature());
+			loadShared(universe, request.getAxesSignature(), request.getFiltersSignature());
+			Map<String, AnalysisSmartCacheCandidates> sameAxes = lookup.get(request.getAxesSignature());
 			if (sameAxes!=null) {
 				logger.info("Smart Cache: found same signature");
 				// check same filters
-				HashSet<String> sameFiltersCandidates = sameAxes.get(request.getFiltersSignature());
+				AnalysisSmartCacheCandidates sameFiltersCandidates = sameAxes.get(request.getFiltersSignature());
 				if (sameFiltersCandidates!=null) {
 					logger.info("Smart Cache: found same filters");
 					AnalysisSmartCacheMatch match = checkMatchMany(null, request, sameFiltersCandidates);
@@ -142,16 +176,16 @@ public class AnalysisSmartCache {
 			for (Axis filter : filters) {
 				logger.info("Smart Cache: looking by adding "+filter.toString());
 				// generalize the search by adding the filter as an axis
-				AnalysisSmartCacheSignature generalize = new AnalysisSmartCacheSignature(request.getSignature(), filter);
-				generalize.setAxesSignature(universe);// ok, the API is a bit awkward
-				Map<String, HashSet<String>> sameAxes = lookup.get(generalize.getAxesSignature());
+				String generalize = request.getSignature().getGeneralizedAxesSignature(filter);
+				// get candidates with restriction
+				HashSet<Axis> filterMinusOne = new HashSet<>(filters);
+				filterMinusOne.remove(filter);
+				String sign1 = request.computeFiltersSignature(universe, new ArrayList<>(filterMinusOne));
+				loadShared(universe, generalize, sign1);
+				Map<String, AnalysisSmartCacheCandidates> sameAxes = lookup.get(generalize);
 				if (sameAxes!=null) {
 					logger.info("Smart Cache: found generalized signature");
-					// get candidates with restriction
-					HashSet<Axis> filterMinusOne = new HashSet<>(filters);
-					filterMinusOne.remove(filter);
-					String sign1 = request.computeFiltersSignature(universe, new ArrayList<>(filterMinusOne));
-					HashSet<String> sameFiltersCandidates = sameAxes.get(sign1);
+					AnalysisSmartCacheCandidates sameFiltersCandidates = sameAxes.get(sign1);
 					if (sameFiltersCandidates!=null) {
 						logger.info("Smart Cache: found same sub-filters");
 						AnalysisSmartCacheMatch match = checkMatchMany(filterMinusOne, request, sameFiltersCandidates);
@@ -171,10 +205,80 @@ public class AnalysisSmartCache {
 				}
 			}
 		}
+		// try to rollup an analysis with more axes
+		AnalysisSmartCacheMatch match = checkRollupMatch(request);
+		if (match!=null) {
+			return match;
+		}
 		//
 		return null;
 	}
 	
+	/**
+	 * Check if the request can be computed by re-aggregating a candidate with the same filters and more axes.
+	 * This is only possible if all the measures are associative, and if the candidate is not truncated.
+	 * @param request : the analysis signature we are looking to match
+	 * @return a match with the rollup postProcessing or null
+	 */
+	private AnalysisSmartCacheMatch checkRollupMatch(AnalysisSmartCacheRequest request) {
+		DashboardAnalysis analysis = request.getAnalysis();
+		if (analysis.hasBeyondLimit()) {
+			return null;
+		}
+		request.getAxesSignature();// compute the rollup signature
+		Set<String> candidatesAxes = rollups.get(request.getSignature().getRollupSignature());
+		if (candidatesAxes==null) {
+			return null;
+		}
+		for (Measure measure : request.getMeasures().getKPIs()) {
+			if (!DataMatrixTransformRollup.isSupported(measure)) {
+				return null;
+			}
+		}
+		logger.info("Smart Cache: looking for rollup match");
+		HashSet<Axis> axes = new HashSet<>();
+		for (GroupByAxis groupBy : analysis.getGrouping()) {
+			axes.add(groupBy.getAxis());
+		}
+		for (String axesSignature : candidatesAxes) {
+			if (axesSignature.equals(request.getAxesSignature())) {
+				continue;
+			}
+			Map<String, AnalysisSmartCacheCandidates> sameAxes = lookup.get(axesSignature);
+			AnalysisSmartCacheCandidates sameFiltersCandidates = sameAxes!=null?sameAxes.get(request.getFiltersSignature()):null;
+			if (sameFiltersCandidates==null) {
+				continue;
+			}
+			for (AnalysisSmartCacheSignature candidate : cache.getAllPresent(sameFiltersCandidates.lookup(null, request)).values()) {
+				if (candidate.getAxes()!=null
+						&& candidate.getAxes().size()>axes.size()
+						&& candidate.getAxes().containsAll(axes)
+						&& !candidate.getAnalysis().hasLimit()
+						&& !candidate.getAnalysis().hasOffset()
+						&& candidate.getMeasures().getKPIs().containsAll(request.getMeasures().getKPIs())) {
+					// check the filters, it may add some soft-filters that must be applied before the rollup
+					AnalysisSmartCacheMatch match = checkMatchSingle(null, request, candidate);
+					if (match!=null) {
+						logger.info("Smart Cache: found a rollup match");
+						match.addPostProcessing(new DataMatrixTransformRollup(axes, request.getMeasures().getKPIs()));
+						// the rollup does not keep the order
+						if (analysis.hasOrderBy() && analysis.hasLimit()) {
+							// only sort the top rows
+							match.addPostProcessing(new DataMatrixTransformOrderBy(analysis.getOrders(), analysis.getLimit(), analysis.getOffset()));
+						} else if (analysis.hasOrderBy()) {
+							match.addPostProcessing(new DataMatrixTransformOrderBy(analysis.getOrders()));
+						} else if (analysis.hasLimit()) {
+							match.addPostProcessing(new DataMatrixTransformTruncate(analysis.getLimit(), analysis.getOffset()));
+						}
+						return match;
+					}
+				}
+			}
+		}
+		// else
+		return null;
+	}
+	
 	/**
 	 * Check if the analysis with signature can match at least one candidate; if true will return a AnalysisMatch
 	 * Hypothesis: all candidates have the same filter signature as the request
@@ -184,7 +288,12 @@ public class AnalysisSmartCache {
 	 * @return
 	 */
 	private AnalysisSmartCacheMatch checkMatchMany(Set<Axis> restrict, AnalysisSmartCacheRequest request,
-			HashSet<String> sameFiltersCandidatesKeys) {
+			AnalysisSmartCacheCandidates sameFiltersCandidatesIndex) {
+		// only check the candidates that compute the measures and select the members
+		Set<String> sameFiltersCandidatesKeys = sameFiltersCandidatesIndex.lookup(restrict, request);
+		if (sameFiltersCandidatesKeys.isEmpty()) {
+			return null;
+		}
 		// iter to check if we found a compatible query
 		
 		ImmutableMap<String, AnalysisSmartCacheSignature> sameFiltersCandidates = cache.getAllPresent(sameFiltersCandidatesKeys) ;
@@ -200,20 +309,24 @@ public class AnalysisSmartCache {
 					Set<Measure> o2 = new HashSet<>(candidate.getMeasures().getKPIs());
 					if (o2.containsAll(o1)) {
 						// sort
-						if (request.getAnalysis().hasOrderBy()) {
-							if (!request.getAnalysis().getOrders().equals(match.getAnalysis().getOrders())) {
-								match.addPostProcessing(new DataMatrixTransformOrderBy(request.getAnalysis().getOrders()));
-							}
-						}
+						boolean sort = request.getAnalysis().hasOrderBy()
+								&& !request.getAnalysis().getOrders().equals(match.getAnalysis().getOrders());
 						// limit
+						boolean truncate = false;
 						if (request.getAnalysis().hasLimit()) {
 							long ending = request.getAnalysis().getLimit();
 							if (request.getAnalysis().hasOffset()) {
 								ending += request.getAnalysis().getOffset();
 							}
-							if (ending<match.getSignature().getRowCount()) {
-								match.addPostProcessing(new DataMatrixTransformTruncate(request.getAnalysis().getLimit(), request.getAnalysis().getOffset()));
-							}
+							truncate = ending<match.getSignature().getRowCount();
+						}
+						if (sort && truncate) {
+							// only sort the top rows
+							match.addPostProcessing(new DataMatrixTransformOrderBy(request.getAnalysis().getOrders(), request.getAnalysis().getLimit(), request.getAnalysis().getOffset()));
+						} else if (sort) {
+							match.addPostProcessing(new DataMatrixTransformOrderBy(request.getAnalysis().getOrders()));
+						} else if (truncate) {
+							match.addPostProcessing(new DataMatrixTransformTruncate(request.getAnalysis().getLimit(), request.getAnalysis().getOffset()));
 						}
 						return match;
 					}
@@ -328,9 +441,9 @@ public class AnalysisSmartCache {
 	 * @param signature
 	 */
 	public boolean remove(AnalysisSmartCacheRequest request) {
-		Map<String, HashSet<String>> sameAxes = lookup.get(request.getAxesSignature());
+		Map<String, AnalysisSmartCacheCandidates> sameAxes = lookup.get(request.getAxesSignature());
 		if (sameAxes!=null) {
-			HashSet<String> sameFilters = sameAxes.get(request.getFiltersSignature());
+			AnalysisSmartCacheCandidates sameFilters = sameAxes.get(request.getFiltersSignature());
 			if (sameFilters!=null) {
 				String key = request.getSignature().buildCacheKey();
 				if (sameFilters.contains(key)) {
@@ -345,13 +458,31 @@ public class AnalysisSmartCache {
 	}
 	
 	/**
+	 * remove the signature from this node and from the shared index: use it when the cached data is no longer available
 	 * @param signature
 	 */
 	public boolean remove(AnalysisSmartCacheSignature signature) {
+		if (shared && signature.getOriginalKey()!=null
+				&& signature.getAxesSignature()!=null && signature.getFiltersSignature()!=null) {
+			try {
+				String indexKey = getSharedIndexKey(signature.getAxesSignature(), signature.getFiltersSignature());
+				RedisCacheManager.getInstance().removeIndexed(indexKey, getSharedEntryKey(signature.getOriginalKey()));
+			} catch (RuntimeException e) {
+				logger.warn("Smart Cache: failed to remove the shared signature: " + e.getMessage());
+			}
+		}
+		return evict(signature);
+	}
+	
+	/**
+	 * remove the signature from this node only
+	 * @param signature
+	 */
+	public boolean evict(AnalysisSmartCacheSignature signature) {
 		
-		Map<String, HashSet<String>> sameAxes = lookup.get(signature.getAxesSignature());
+		Map<String, AnalysisSmartCacheCandidates> sameAxes = lookup.get(signature.getAxesSignature());
 		if (sameAxes!=null) {
-			HashSet<String> sameFilters = sameAxes.get(signature.getFiltersSignature());
+			AnalysisSmartCacheCandidates sameFilters = sameAxes.get(signature.getFiltersSignature());
 			if (sameFilters!=null) {
 				String key = signature.getOriginalKey();
 				if (sameFilters.contains(key)) {
@@ -371,30 +502,115 @@ public class AnalysisSmartCache {
 	 * Note that as a side effect the put() method is also responsible for initializing the cache structure. The structure is as follow:
 	 * - a HashMap at the outermost level that stores the analysis "space": project, domain, axes and measures requested.
 	 * - which contains a HashMap that stores the analysis "filters" : the ordered list of filters involved in the analysis
-	 * - which contains a HashMap that stores the actual signatures
+	 * - which contains the actual signatures, indexed by measure and filter member (see AnalysisSmartCacheCandidates)
 	 * @param signature
 	 * @param dm 
 	 */
 	public boolean put(AnalysisSmartCacheRequest request) {
-		Map<String, HashSet<String>> sameAxes = lookup.get(request.getAxesSignature());
-		if (sameAxes==null) {
-			sameAxes = new ConcurrentHashMap<String, HashSet<String>>();// create the filters map
-			lookup.put(request.getAxesSignature(), sameAxes);
-		}
-		HashSet<String> sameFilters = sameAxes.get(request.getFiltersSignature());
-		if (sameFilters==null) {
-			sameFilters = new HashSet<String>();// create the signature set
-			sameAxes.put(request.getFiltersSignature(), sameFilters);
-		}
 		String key = request.getSignature().buildCacheKey();
-		if (!sameFilters.contains(key)) {
-			sameFilters.add(key);
+		boolean added = put(request.getAxesSignature(), request.getFiltersSignature(), key, request.getSignature());
+		// share it once the resultset is available
+		if (shared && request.getSignature().getRowCount()>=0 && !request.getSignature().isShared()) {
+			publish(request.getSignature());
+		}
+		return added;
+	}
+	
+	private boolean put(String axesSignature, String filtersSignature, String key, AnalysisSmartCacheSignature signature) {
+		Map<String, AnalysisSmartCacheCandidates> sameAxes = lookup.computeIfAbsent(axesSignature,
+				k -> new ConcurrentHashMap<String, AnalysisSmartCacheCandidates>());// create the filters map
+		AnalysisSmartCacheCandidates sameFilters = sameAxes.computeIfAbsent(filtersSignature,
+				k -> new AnalysisSmartCacheCandidates());// create the signature index
+		boolean added = sameFilters.add(key, signature);
+		if (signature.getRollupSignature()!=null) {
+			Set<String> sameRollup = rollups.get(signature.getRollupSignature());
+			if (sameRollup==null) {
+				sameRollup = ConcurrentHashMap.newKeySet();
+				rollups.put(signature.getRollupSignature(), sameRollup);
+			}
+			sameRollup.add(axesSignature);
 		}
 		if (this.cache.getIfPresent(key) == null){
-			this.cache.put(key, request.getSignature());	
+			this.cache.put(key, signature);	
 		}
 		//
-		return contains.add(key);
+		return added;
+	}
+	
+	/**
+	 * publish the signature in the shared index
+	 * @param signature
+	 */
+	private void publish(AnalysisSmartCacheSignature signature) {
+		AnalysisSmartCacheEntry entry = AnalysisSmartCacheEntry.create(signature);
+		if (entry==null) {
+			return;// cannot be shared
+		}
+		try {
+			String indexKey = getSharedIndexKey(signature.getAxesSignature(), signature.getFiltersSignature());
+			RedisCacheManager.getInstance().putIndexed(indexKey, getSharedEntryKey(entry.getKey()), entry.serialize(), sharedTTLInSecond);
+		} catch (IOException | RuntimeException e) {
+			logger.warn("Smart Cache: failed to publish the signature: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * read the signatures published by the other nodes for these axes and filters, and add them to the local cache.
+	 * The signatures computed with an older generation of their dependencies are removed from the shared index.
+	 * @param universe
+	 * @param axesSignature
+	 * @param filtersSignature
+	 */
+	private void loadShared(Universe universe, String axesSignature, String filtersSignature) {
+		if (!shared) {
+			return;
+		}
+		String indexKey = getSharedIndexKey(axesSignature, filtersSignature);
+		if (sharedLookups.getIfPresent(indexKey)!=null) {
+			return;// read recently
+		}
+		sharedLookups.put(indexKey, Boolean.TRUE);
+		Map<String, byte[]> entries;
+		try {
+			entries = RedisCacheManager.getInstance().getIndexed(indexKey);
+		} catch (RuntimeException e) {
+			logger.warn("Smart Cache: failed to read the shared signatures: " + e.getMessage());
+			return;
+		}
+		for (Map.Entry<String, byte[]> item : entries.entrySet()) {
+			try {
+				AnalysisSmartCacheEntry entry = AnalysisSmartCacheEntry.deserialize(item.getValue());
+				if (entry.getKey()==null || cache.getIfPresent(entry.getKey())!=null) {
+					continue;// already known
+				}
+				AnalysisSmartCacheSignature signature = entry.rebuild(universe);
+				signature.setAxesSignature(universe);
+				signature.setFiltersSignature(filtersSignature);
+				if (!axesSignature.equals(signature.getAxesSignature())) {
+					logger.info("Smart Cache: ignoring shared signature "+entry.getKey()+", the analysis cannot be rebuilt");
+					continue;
+				}
+				// the key depends on the current generation of the dependencies
+				String key = signature.buildCacheKey();
+				if (!key.equals(entry.getKey())) {
+					logger.info("Smart Cache: removing stale shared signature "+entry.getKey());
+					RedisCacheManager.getInstance().removeIndexed(indexKey, item.getKey());
+					continue;
+				}
+				put(axesSignature, filtersSignature, key, signature);
+				logger.info("Smart Cache: loaded shared signature "+key);
+			} catch (IOException | ScopeException | RuntimeException e) {
+				logger.info("Smart Cache: ignoring shared signature "+item.getKey()+": "+e.getMessage());
+			}
+		}
+	}
+	
+	private String getSharedIndexKey(String axesSignature, String filtersSignature) {
+		return SHARED_PREFIX + DigestUtils.sha256Hex(axesSignature) + ":" + DigestUtils.sha256Hex(filtersSignature);
+	}
+	
+	private String getSharedEntryKey(String key) {
+		return SHARED_PREFIX + "entry:" + key;
 	}
 	
 	/**
@@ -413,7 +629,7 @@ public class AnalysisSmartCache {
 	 * @return
 	 */
 	public boolean contains(AnalysisSmartCacheRequest request) {
-		return contains.contains(request.getSignature().buildCacheKey());
+		return cache.getIfPresent(request.getSignature().buildCacheKey())!=null;
 	}
 
 	/**
@@ -0,0 +1,200 @@
+/*******************************************************************************
+ * Copyright © Squid Solutions, 2016
+ *
+ * This file is part of Open Bouquet software.
+ *  
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * There is a special FOSS exception to the terms and conditions of the 
+ * licenses as they are applied to this program. See LICENSE.txt in
+ * the directory of this program distribution.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * Squid Solutions also offers commercial licenses with additional warranties,
+ * professional functionalities or services. If you purchase a commercial
+ * license, then it supersedes and replaces any other agreement between
+ * you and Squid Solutions (above licenses and LICENSE.txt included).
+ * See http://www.squidsolutions.com/EnterpriseBouquet/
+ *******************************************************************************/
+package com.squid.kraken.v4.core.analysis.engine.processor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.squid.core.domain.IDomain;
+import com.squid.kraken.v4.core.analysis.engine.hierarchy.DimensionMember;
+import com.squid.kraken.v4.core.analysis.model.DomainSelection;
+import com.squid.kraken.v4.core.analysis.universe.Axis;
+import com.squid.kraken.v4.core.analysis.universe.Measure;
+
+/**
+ * The candidates sharing the same axes and filters signatures, indexed by measure and by filter member.
+ * 
+ * A candidate can match a request only if it computes all the request measures and if it selects all the members
+ * of each request filter (the same members or more, that can then be soft-filtered); so the lookup just intersects
+ * the posting lists of the request measures and members instead of checking every candidate.
+ * The date filters are not indexed because a candidate may match them with a wider date range.
+ *
+ */
+public class AnalysisSmartCacheCandidates {
+
+	// all the candidate keys
+	private Set<String> keys = new HashSet<>();
+
+	// the posting lists: the candidate keys by measure and by filter member
+	private Map<Object, Set<String>> postings = new HashMap<>();
+
+	// the posting lists each candidate belongs to, to remove it
+	private Map<String, List<Object>> terms = new HashMap<>();
+
+	public synchronized boolean contains(String key) {
+		return keys.contains(key);
+	}
+
+	public synchronized boolean isEmpty() {
+		return keys.isEmpty();
+	}
+
+	public synchronized int size() {
+		return keys.size();
+	}
+
+	/**
+	 * @return a copy of all the candidate keys
+	 */
+	public synchronized Set<String> getKeys() {
+		return new HashSet<>(keys);
+	}
+
+	/**
+	 * index the candidate
+	 * @param key
+	 * @param signature
+	 * @return false if the candidate is already indexed
+	 */
+	public synchronized boolean add(String key, AnalysisSmartCacheSignature signature) {
+		if (!keys.add(key)) {
+			return false;
+		}
+		List<Object> list = new ArrayList<>();
+		for (Measure measure : signature.getMeasures().getKPIs()) {
+			list.add(measure);
+		}
+		for (DomainSelection ds : signature.getAnalysis().getSelection().get()) {
+			for (Axis filter : ds.getFilters()) {
+				if (isIndexed(filter)) {
+					for (DimensionMember member : ds.getMembers(filter)) {
+						list.add(term(filter, member));
+					}
+				}
+			}
+		}
+		for (Object term : list) {
+			Set<String> posting = postings.get(term);
+			if (posting==null) {
+				posting = new HashSet<>();
+				postings.put(term, posting);
+			}
+			posting.add(key);
+		}
+		terms.put(key, list);
+		return true;
+	}
+
+	/**
+	 * remove the candidate from the index
+	 * @param key
+	 * @return false if the candidate was not indexed
+	 */
+	public synchronized boolean remove(String key) {
+		if (!keys.remove(key)) {
+			return false;
+		}
+		List<Object> list = terms.remove(key);
+		if (list!=null) {
+			for (Object term : list) {
+				Set<String> posting = postings.get(term);
+				if (posting!=null) {
+					posting.remove(key);
+					if (posting.isEmpty()) {
+						postings.remove(term);
+					}
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * lookup the candidates that may match the request
+	 * @param restrict : if not null only the filters that belong to it are taken into account
+	 * @param request
+	 * @return the keys of the candidates that compute all the request measures and select all the request members
+	 */
+	public synchronized Set<String> lookup(Set<Axis> restrict, AnalysisSmartCacheRequest request) {
+		List<Set<String>> lists = new ArrayList<>();
+		for (Measure measure : request.getMeasures().getKPIs()) {
+			if (!addPosting(lists, measure)) {
+				return Collections.emptySet();
+			}
+		}
+		for (DomainSelection ds : request.getAnalysis().getSelection().get()) {
+			for (Axis filter : ds.getFilters()) {
+				if ((restrict==null || restrict.contains(filter)) && isIndexed(filter)) {
+					for (DimensionMember member : ds.getMembers(filter)) {
+						if (!addPosting(lists, term(filter, member))) {
+							return Collections.emptySet();
+						}
+					}
+				}
+			}
+		}
+		if (lists.isEmpty()) {
+			return new HashSet<>(keys);
+		}
+		// intersect, starting with the smallest posting list
+		Collections.sort(lists, new Comparator<Set<String>>() {
+			@Override
+			public int compare(Set<String> o1, Set<String> o2) {
+				return Integer.compare(o1.size(), o2.size());
+			}
+		});
+		Set<String> result = new HashSet<>(lists.get(0));
+		for (int i=1;i<lists.size() && !result.isEmpty();i++) {
+			result.retainAll(lists.get(i));
+		}
+		return result;
+	}
+
+	private boolean addPosting(Collection<Set<String>> lists, Object term) {
+		Set<String> posting = postings.get(term);
+		if (posting==null) {
+			return false;
+		} else {
+			lists.add(posting);
+			return true;
+		}
+	}
+
+	private boolean isIndexed(Axis filter) {
+		return !filter.getDefinitionSafe().getImageDomain().isInstanceOf(IDomain.DATE);
+	}
+
+	private Object term(Axis filter, DimensionMember member) {
+		return Arrays.asList(filter, member.getID());
+	}
+
+}
@@ -0,0 +1,523 @@
+/*******************************************************************************
+ * Copyright © Squid Solutions, 2016
+ *
+ * This file is part of Open Bouquet software.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * There is a special FOSS exception to the terms and conditions of the
+ * licenses as they are applied to this program. See LICENSE.txt in
+ * the directory of this program distribution.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * Squid Solutions also offers commercial licenses with additional warranties,
+ * professional functionalities or services. If you purchase a commercial
+ * license, then it supersedes and replaces any other agreement between
+ * you and Squid Solutions (above licenses and LICENSE.txt included).
+ * See http://www.squidsolutions.com/EnterpriseBouquet/
+ *******************************************************************************/
+package com.squid.kraken.v4.core.analysis.engine.processor;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.squid.core.expression.ExpressionAST;
+import com.squid.core.expression.PrettyPrintOptions;
+import com.squid.core.expression.PrettyPrintOptions.ReferenceStyle;
+import com.squid.core.expression.scope.ScopeException;
+import com.squid.core.sql.render.IOrderByPiece.NULLS_ORDERING;
+import com.squid.core.sql.render.IOrderByPiece.ORDERING;
+import com.squid.kraken.v4.core.analysis.engine.hierarchy.DimensionMember;
+import com.squid.kraken.v4.core.analysis.model.DashboardAnalysis;
+import com.squid.kraken.v4.core.analysis.model.DashboardSelection;
+import com.squid.kraken.v4.core.analysis.model.DomainSelection;
+import com.squid.kraken.v4.core.analysis.model.GroupByAxis;
+import com.squid.kraken.v4.core.analysis.model.IntervalleObject;
+import com.squid.kraken.v4.core.analysis.model.MeasureGroup;
+import com.squid.kraken.v4.core.analysis.model.OrderBy;
+import com.squid.kraken.v4.core.analysis.universe.Axis;
+import com.squid.kraken.v4.core.analysis.universe.Measure;
+import com.squid.kraken.v4.core.analysis.universe.Universe;
+
+/**
+ * The description of a smart cache signature shared with the other nodes
+ * through redis. The analysis is stored as expressions so any node can rebuild
+ * it in its own universe; the SQL and the dependencies are kept to check that
+ * the rebuilt analysis still generates the same query.
+ *
+ * Only the analyses that can be described that way are shared: no free
+ * conditions, no compareTo, no beyondLimit and filter values of simple types.
+ *
+ */
+public class AnalysisSmartCacheEntry {
+
+	private static final ObjectMapper mapper = new ObjectMapper()
+			.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+	private static final PrettyPrintOptions IDENTIFIER = new PrettyPrintOptions(ReferenceStyle.IDENTIFIER, null);
+
+	private String key;
+	private String SQL;
+	private List<String> dependencies;
+	private int rowCount;
+	private String mainDomain;
+	private List<Item> axes = new ArrayList<>();
+	private List<Item> measures = new ArrayList<>();
+	private List<Filter> filters = new ArrayList<>();
+	private List<Order> orders = new ArrayList<>();
+	private Long limit;
+	private Long offset;
+
+	public AnalysisSmartCacheEntry() {
+	}
+
+	/**
+	 * describe the signature
+	 *
+	 * @return the entry or null if the analysis cannot be shared
+	 */
+	public static AnalysisSmartCacheEntry create(AnalysisSmartCacheSignature signature) {
+		DashboardAnalysis analysis = signature.getAnalysis();
+		DashboardSelection selection = analysis.getSelection();
+		if (selection.hasCompareToSelection() || analysis.hasBeyondLimit() || analysis.hasRollup()) {
+			return null;
+		}
+		AnalysisSmartCacheEntry entry = new AnalysisSmartCacheEntry();
+		entry.key = signature.getOriginalKey();
+		entry.SQL = signature.getSQL();
+		entry.dependencies = signature.getDependencies();
+		entry.rowCount = signature.getRowCount();
+		if (analysis.getMainDomain() != null) {
+			entry.mainDomain = analysis.getMainDomain().prettyPrint(IDENTIFIER);
+		}
+		for (GroupByAxis groupBy : analysis.getGrouping()) {
+			Axis axis = groupBy.getAxis();
+			entry.axes.add(new Item(axis.prettyPrint(IDENTIFIER), axis.hasName() ? axis.getName() : null));
+		}
+		for (Measure measure : signature.getMeasures().getKPIs()) {
+			entry.measures.add(new Item(measure.prettyPrint(IDENTIFIER), measure.getName()));
+		}
+		for (DomainSelection ds : selection.get()) {
+			if (ds.hasConditions()) {
+				return null;
+			}
+			for (Axis axis : ds.getFilters()) {
+				Filter filter = new Filter();
+				filter.setAxis(axis.prettyPrint(IDENTIFIER));
+				for (DimensionMember member : ds.getMembers(axis)) {
+					Value value = Value.create(member.getID());
+					if (value == null) {
+						return null;
+					}
+					filter.getMembers().add(value);
+				}
+				entry.filters.add(filter);
+			}
+		}
+		for (OrderBy orderBy : analysis.getOrders()) {
+			Order order = new Order();
+			order.setExpression(orderBy.getExpression().prettyPrint(IDENTIFIER));
+			order.setOrdering(orderBy.getOrdering());
+			order.setNullsOrdering(orderBy.getNullsOrdering());
+			entry.orders.add(order);
+		}
+		entry.limit = analysis.getLimit();
+		entry.offset = analysis.getOffset();
+		return entry;
+	}
+
+	/**
+	 * rebuild the signature in that universe
+	 *
+	 * @throws ScopeException
+	 *             if the universe does not support the analysis anymore
+	 */
+	public AnalysisSmartCacheSignature rebuild(Universe universe) throws ScopeException {
+		DashboardAnalysis analysis = new DashboardAnalysis(universe);
+		if (mainDomain != null) {
+			analysis.setMainDomain(universe.S(universe.expression(mainDomain)));
+		}
+		for (Item item : measures) {
+			Measure measure = universe.measure(item.getExpression());
+			if (item.getName() != null) {
+				measure.withName(item.getName());
+			}
+			analysis.add(measure);
+		}
+		if (analysis.getGroups().size() != 1) {
+			throw new ScopeException("invalid smart cache entry: the measures must belong to a single group");
+		}
+		MeasureGroup group = analysis.getGroups().get(0);
+		DashboardSelection selection = new DashboardSelection();
+		for (Filter filter : filters) {
+			Axis axis = universe.axis(filter.getAxis());
+			List<DimensionMember> members = new ArrayList<>();
+			for (Value value : filter.getMembers()) {
+				members.add(axis.getMemberByID(value.toObject()));
+			}
+			selection.add(axis, members);
+		}
+		analysis.setSelection(selection);
+		for (Item item : axes) {
+			Axis axis = universe.axis(item.getExpression());
+			if (item.getName() != null) {
+				axis.setName(item.getName());
+			}
+			analysis.add(axis);
+		}
+		for (Order order : orders) {
+			ExpressionAST expr = universe.expression(order.getExpression());
+			analysis.orderBy(expr, order.getOrdering(), order.getNullsOrdering());
+		}
+		if (limit != null) {
+			analysis.limit(limit);
+		}
+		if (offset != null) {
+			analysis.offset(offset);
+		}
+		AnalysisSmartCacheSignature signature = new AnalysisSmartCacheSignature(analysis, group, SQL, dependencies);
+		signature.setRowCount(rowCount);
+		signature.setShared(true);
+		return signature;
+	}
+
+	public byte[] serialize() throws IOException {
+		return mapper.writeValueAsBytes(this);
+	}
+
+	public static AnalysisSmartCacheEntry deserialize(byte[] serialized) throws IOException {
+		return mapper.readValue(serialized, AnalysisSmartCacheEntry.class);
+	}
+
+	public String getKey() {
+		return key;
+	}
+
+	public void setKey(String key) {
+		this.key = key;
+	}
+
+	public String getSQL() {
+		return SQL;
+	}
+
+	public void setSQL(String SQL) {
+		this.SQL = SQL;
+	}
+
+	public List<String> getDependencies() {
+		return dependencies;
+	}
+
+	public void setDependencies(List<String> dependencies) {
+		this.dependencies = dependencies;
+	}
+
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	public void setRowCount(int rowCount) {
+		this.rowCount = rowCount;
+	}
+
+	public String getMainDomain() {
+		return mainDomain;
+	}
+
+	public void setMainDomain(String mainDomain) {
+		this.mainDomain = mainDomain;
+	}
+
+	public List<Item> getAxes() {
+		return axes;
+	}
+
+	public void setAxes(List<Item> axes) {
+		this.axes = axes;
+	}
+
+	public List<Item> getMeasures() {
+		return measures;
+	}
+
+	public void setMeasures(List<Item> measures) {
+		this.measures = measures;
+	}
+
+	public List<Filter> getFilters() {
+		return filters;
+	}
+
+	public void setFilters(List<Filter> filters) {
+		this.filters = filters;
+	}
+
+	public List<Order> getOrders() {
+		return orders;
+	}
+
+	public void setOrders(List<Order> orders) {
+		this.orders = orders;
+	}
+
+	public Long getLimit() {
+		return limit;
+	}
+
+	public void setLimit(Long limit) {
+		this.limit = limit;
+	}
+
+	public Long getOffset() {
+		return offset;
+	}
+
+	public void setOffset(Long offset) {
+		this.offset = offset;
+	}
+
+	/**
+	 * an axis or a measure
+	 */
+	public static class Item {
+
+		private String expression;
+		private String name;
+
+		public Item() {
+		}
+
+		public Item(String expression, String name) {
+			this.expression = expression;
+			this.name = name;
+		}
+
+		public String getExpression() {
+			return expression;
+		}
+
+		public void setExpression(String expression) {
+			this.expression = expression;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public void setName(String name) {
+			this.name = name;
+		}
+
+	}
+
+	/**
+	 * the members selected on a filter axis
+	 */
+	public static class Filter {
+
+		private String axis;
+		private List<Value> members = new ArrayList<>();
+
+		public String getAxis() {
+			return axis;
+		}
+
+		public void setAxis(String axis) {
+			this.axis = axis;
+		}
+
+		public List<Value> getMembers() {
+			return members;
+		}
+
+		public void setMembers(List<Value> members) {
+			this.members = members;
+		}
+
+	}
+
+	public static class Order {
+
+		private String expression;
+		private ORDERING ordering;
+		private NULLS_ORDERING nullsOrdering;
+
+		public String getExpression() {
+			return expression;
+		}
+
+		public void setExpression(String expression) {
+			this.expression = expression;
+		}
+
+		public ORDERING getOrdering() {
+			return ordering;
+		}
+
+		public void setOrdering(ORDERING ordering) {
+			this.ordering = ordering;
+		}
+
+		public NULLS_ORDERING getNullsOrdering() {
+			return nullsOrdering;
+		}
+
+		public void setNullsOrdering(NULLS_ORDERING nullsOrdering) {
+			this.nullsOrdering = nullsOrdering;
+		}
+
+	}
+
+	/**
+	 * a member ID; the type is kept so the rebuilt member is equal to the
+	 * original one
+	 */
+	public static class Value {
+
+		private String type;
+		private String value;
+		private int nanos;
+		private Value lower;
+		private Value upper;
+
+		/**
+		 * @return the value or null if this type of ID is not supported
+		 */
+		public static Value create(Object ID) {
+			Value res = new Value();
+			if (ID instanceof String) {
+				res.type = "string";
+				res.value = (String) ID;
+			} else if (ID instanceof Boolean) {
+				res.type = "boolean";
+				res.value = ID.toString();
+			} else if (ID instanceof Integer) {
+				res.type = "integer";
+				res.value = ID.toString();
+			} else if (ID instanceof Long) {
+				res.type = "long";
+				res.value = ID.toString();
+			} else if (ID instanceof Double) {
+				res.type = "double";
+				res.value = ID.toString();
+			} else if (ID instanceof Float) {
+				res.type = "float";
+				res.value = ID.toString();
+			} else if (ID instanceof BigDecimal) {
+				res.type = "decimal";
+				res.value = ID.toString();
+			} else if (ID instanceof BigInteger) {
+				res.type = "biginteger";
+				res.value = ID.toString();
+			} else if (ID instanceof java.sql.Timestamp) {
+				res.type = "timestamp";
+				res.value = Long.toString(((java.sql.Timestamp) ID).getTime());
+				res.nanos = ((java.sql.Timestamp) ID).getNanos();
+			} else if (ID instanceof java.sql.Date) {
+				res.type = "sqldate";
+				res.value = Long.toString(((java.sql.Date) ID).getTime());
+			} else if (ID != null && ID.getClass().equals(java.util.Date.class)) {
+				res.type = "date";
+				res.value = Long.toString(((java.util.Date) ID).getTime());
+			} else if (ID instanceof IntervalleObject) {
+				IntervalleObject intervalle = (IntervalleObject) ID;
+				res.type = "interval";
+				res.lower = create(intervalle.getLowerBound());
+				res.upper = create(intervalle.getUpperBound());
+				if (res.lower == null || res.upper == null) {
+					return null;
+				}
+			} else {
+				return null;
+			}
+			return res;
+		}
+
+		public Object toObject() throws ScopeException {
+			switch (type) {
+			case "string":
+				return value;
+			case "boolean":
+				return Boolean.valueOf(value);
+			case "integer":
+				return Integer.valueOf(value);
+			case "long":
+				return Long.valueOf(value);
+			case "double":
+				return Double.valueOf(value);
+			case "float":
+				return Float.valueOf(value);
+			case "decimal":
+				return new BigDecimal(value);
+			case "biginteger":
+				return new BigInteger(value);
+			case "timestamp":
+				java.sql.Timestamp timestamp = new java.sql.Timestamp(Long.parseLong(value));
+				timestamp.setNanos(nanos);
+				return timestamp;
+			case "sqldate":
+				return new java.sql.Date(Long.parseLong(value));
+			case "date":
+				return new java.util.Date(Long.parseLong(value));
+			case "interval":
+				return new IntervalleObject(lower.toObject(), upper.toObject());
+			default:
+				throw new ScopeException("invalid smart cache entry: unsupported member type " + type);
+			}
+		}
+
+		public String getType() {
+			return type;
+		}
+
+		public void setType(String type) {
+			this.type = type;
+		}
+
+		public String getValue() {
+			return value;
+		}
+
+		public void setValue(String value) {
+			this.value = value;
+		}
+
+		public int getNanos() {
+			return nanos;
+		}
+
+		public void setNanos(int nanos) {
+			this.nanos = nanos;
+		}
+
+		public Value getLower() {
+			return lower;
+		}
+
+		public void setLower(Value lower) {
+			this.lower = lower;
+		}
+
+		public Value getUpper() {
+			return upper;
+		}
+
+		public void setUpper(Value upper) {
+			this.upper = upper;
+		}
+
+	}
+
+}
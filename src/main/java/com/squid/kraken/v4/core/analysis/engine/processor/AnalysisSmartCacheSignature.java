@@ -55,14 +55,24 @@ public class AnalysisSmartCacheSignature {
 	private MeasureGroup measures;
 	
 	private String axesSignature = null;
+	private String rollupSignature = null;// same as the axesSignature, without the axes
 	private String filtersSignature = null;
 	
+	// the parts of the axesSignature, to compute a generalized signature without rebuilding it
+	private String axesPrefix = null;
+	private List<String> axesIds = null;
+	private List<String> axesHashes = null;
+	private String conditionsSignature = null;
+	
 	// T1895: need to store the SQL and the dependencies in order to compute the genKey
 	private String SQL;
 	private List<String> dependencies;
 	
 	private Set<Axis> axes = null;
 	private int rowCount = -1;// default to -1 meaning the resultset is not yet available (being computed)
+	
+	// true if the signature was rebuilt from an entry shared by another node
+	private boolean shared = false;
 
 	public AnalysisSmartCacheSignature(DashboardAnalysis analysis, MeasureGroup measures, String SQL, List<String> dependencies) {
 		super();
@@ -137,6 +147,42 @@ public class AnalysisSmartCacheSignature {
 	public void setAxesSignature(Universe universe) {
 		this.axesSignature = computeAxesSignature(universe);
 	}
+	
+	/**
+	 * the signature of the analyses that only differ by their axes: they may be rolled-up from each other
+	 * @return the rollupSignature, available once the axesSignature is set
+	 */
+	public String getRollupSignature() {
+		return rollupSignature;
+	}
+	
+	/**
+	 * compute the axesSignature of this analysis generalized by adding one axis; this is the same as
+	 * building a new signature with the generalize constructor, without hashing everything again
+	 * @param generalize
+	 * @return the generalized axesSignature, available once the axesSignature is set
+	 */
+	public String getGeneralizedAxesSignature(Axis generalize) {
+		if (axesSignature==null) {
+			return null;
+		}
+		String id = generalize.getId();
+		StringBuilder signature = new StringBuilder(axesPrefix);
+		boolean added = false;
+		for (int i=0;i<axesIds.size();i++) {
+			// the generalized axis is sorted after the axes with the same id
+			if (!added && axesIds.get(i).compareTo(id)>0) {
+				signature.append("#").append(DigestUtils.sha256Hex(id));
+				added = true;
+			}
+			signature.append("#").append(axesHashes.get(i));
+		}
+		if (!added) {
+			signature.append("#").append(DigestUtils.sha256Hex(id));
+		}
+		signature.append(conditionsSignature);
+		return signature.toString();
+	}
 
 	/**
 	 * @param analysis 
@@ -153,7 +199,9 @@ public class AnalysisSmartCacheSignature {
 		signature.append("##").append(root.getOid());
 		//
 		// add the axes
+		StringBuilder rollup = new StringBuilder(signature);
 		signature.append("#");
+		axesPrefix = signature.toString();
 		ArrayList<GroupByAxis> ordered = new ArrayList<>(analysis.getGrouping());
 		// generalize
 		if (generalize!=null) {
@@ -166,11 +214,16 @@ public class AnalysisSmartCacheSignature {
 			}
 		});
 		axes = new HashSet<>();
+		axesIds = new ArrayList<>(ordered.size());
+		axesHashes = new ArrayList<>(ordered.size());
 		for (GroupByAxis axis : ordered) {
 			String hash = DigestUtils.sha256Hex(axis.getAxis().getId());
 			signature.append("#").append(hash);
 			axes.add(axis.getAxis());
+			axesIds.add(axis.getAxis().getId());
+			axesHashes.add(hash);
 		}
+		int conditions = signature.length();
 		//
 		// add the conditions
 		ArrayList<DomainSelection> domains = new ArrayList<>(analysis.getSelection().get());
@@ -183,6 +236,7 @@ public class AnalysisSmartCacheSignature {
 		for (DomainSelection ds : domains) {
 			// add domain
 			signature.append("#");
+			rollup.append("#");
 			String domainId = ds.getDomain().getOid();
 			ArrayList<ExpressionInput> inputs = new ArrayList<>(ds.getConditions());
 			Collections.sort(inputs, new Comparator<ExpressionInput>() {
@@ -196,8 +250,11 @@ public class AnalysisSmartCacheSignature {
 				String normalized = input.getExpression().prettyPrint();
 				String hash = DigestUtils.sha256Hex(domainId+"!"+normalized);
 				signature.append("#").append(hash);
+				rollup.append("#").append(hash);
 			}
 		}
+		rollupSignature = rollup.toString();
+		conditionsSignature = signature.substring(conditions);
 		return signature.toString();
 	}
 	
@@ -229,6 +286,20 @@ public class AnalysisSmartCacheSignature {
 		return rowCount;
 	}
 	
+	/**
+	 * @return true if the signature was rebuilt from an entry shared by another node
+	 */
+	public boolean isShared() {
+		return shared;
+	}
+	
+	/**
+	 * @param shared
+	 */
+	public void setShared(boolean shared) {
+		this.shared = shared;
+	}
+	
 	public String buildCacheKey() {	
 		String key= RedisCacheManager.getInstance().buildCacheKey(SQL, dependencies);
 		if (this.originalKey==null){
@@ -36,14 +36,31 @@ import com.squid.kraken.v4.core.analysis.model.OrderBy;
 public class DataMatrixTransformOrderBy implements DataMatrixTransform {
 
 	private List<OrderBy> orderBy;
+	
+	// optional limit & offset, to sort only the top rows
+	private Long limit = null;
+	private Long offset = null;
 
 	public DataMatrixTransformOrderBy(List<OrderBy> orderBy) {
 		this.orderBy = orderBy;
 	}
 	
+	/**
+	 * orderBy then truncate the matrix given limit & offset; this is the same as a DataMatrixTransformOrderBy
+	 * followed by a DataMatrixTransformTruncate, but only the top rows are sorted
+	 * @param orderBy
+	 * @param limit
+	 * @param offset
+	 */
+	public DataMatrixTransformOrderBy(List<OrderBy> orderBy, Long limit, Long offset) {
+		this.orderBy = orderBy;
+		this.limit = limit;
+		this.offset = offset;
+	}
+	
 	@Override
 	public DataMatrix apply(DataMatrix input) {
-		input.orderBy(orderBy);
+		input.orderBy(orderBy, limit, offset);
 		return input;
 	}
 }
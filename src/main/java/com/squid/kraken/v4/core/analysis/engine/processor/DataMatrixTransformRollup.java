@@ -0,0 +1,248 @@
+/*******************************************************************************
+ * Copyright © Squid Solutions, 2016
+ *
+ * This file is part of Open Bouquet software.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * There is a special FOSS exception to the terms and conditions of the
+ * licenses as they are applied to this program. See LICENSE.txt in
+ * the directory of this program distribution.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * Squid Solutions also offers commercial licenses with additional warranties,
+ * professional functionalities or services. If you purchase a commercial
+ * license, then it supersedes and replaces any other agreement between
+ * you and Squid Solutions (above licenses and LICENSE.txt included).
+ * See http://www.squidsolutions.com/EnterpriseBouquet/
+ *******************************************************************************/
+package com.squid.kraken.v4.core.analysis.engine.processor;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import com.squid.core.domain.associative.AssociativeDomainInformation;
+import com.squid.core.domain.operators.OperatorDefinition;
+import com.squid.core.domain.operators.Operators;
+import com.squid.core.expression.scope.ScopeException;
+import com.squid.kraken.v4.caching.redis.datastruct.RawRow;
+import com.squid.kraken.v4.core.analysis.datamatrix.AxisValues;
+import com.squid.kraken.v4.core.analysis.datamatrix.DataMatrix;
+import com.squid.kraken.v4.core.analysis.datamatrix.MeasureValues;
+import com.squid.kraken.v4.core.analysis.universe.Axis;
+import com.squid.kraken.v4.core.analysis.universe.Measure;
+
+/**
+ * re-aggregate the matrix on a subset of its axes, using the associative operator of each measure (SUM for SUM and COUNT, MIN, MAX).
+ * The matrix layout is unchanged: the values of the other axes are set to null, so they can be hidden or removed afterward.
+ * The measures that are not kept are set to null too.
+ *
+ */
+public class DataMatrixTransformRollup implements DataMatrixTransform {
+
+	private enum Aggregate {
+		SUM, MIN, MAX
+	}
+
+	private Collection<Axis> axes;
+	private Collection<Measure> measures;
+
+	/**
+	 * @param axes : the axes to keep
+	 * @param measures : the measures to aggregate
+	 */
+	public DataMatrixTransformRollup(Collection<Axis> axes, Collection<Measure> measures) {
+		this.axes = axes;
+		this.measures = measures;
+	}
+
+	/**
+	 * check if the measure can be re-aggregated by this transformation
+	 * @param measure
+	 * @return
+	 */
+	public static boolean isSupported(Measure measure) {
+		return getAggregate(measure)!=null;
+	}
+
+	private static Aggregate getAggregate(Measure measure) {
+		if (!measure.isAssociative()) {
+			return null;
+		}
+		OperatorDefinition op = AssociativeDomainInformation.getAssociativeOperator(measure.getDefinitionSafe().getImageDomain());
+		if (op==null) {
+			return null;
+		} else if (op.getId()==Operators.SUM.getId()) {
+			return Aggregate.SUM;
+		} else if (op.getId()==Operators.MIN.getId()) {
+			return Aggregate.MIN;
+		} else if (op.getId()==Operators.MAX.getId()) {
+			return Aggregate.MAX;
+		} else {
+			return null;
+		}
+	}
+
+	@Override
+	public DataMatrix apply(DataMatrix input) throws ScopeException {
+		if (!input.isFullset()) {
+			throw new ScopeException("unable to rollup a partial matrix");
+		}
+		List<AxisValues> inputAxes = input.getAxes();
+		List<MeasureValues> inputMeasures = input.getKPIs();
+		// the row positions of the kept axes, and of the others
+		int[] keys = new int[axes.size()];
+		int[] others = new int[inputAxes.size()-axes.size()];
+		int k = 0, o = 0;
+		for (int i=0;i<inputAxes.size();i++) {
+			if (axes.contains(inputAxes.get(i).getAxis())) {
+				if (k==keys.length) {
+					throw new ScopeException("unable to rollup this matrix: duplicate axis");
+				}
+				keys[k++] = input.getAxisIndirection(i);
+			} else {
+				if (o==others.length) {
+					throw new ScopeException("unable to rollup this matrix: missing axis");
+				}
+				others[o++] = input.getAxisIndirection(i);
+			}
+		}
+		if (k!=keys.length) {
+			throw new ScopeException("unable to rollup this matrix: missing axis");
+		}
+		// the row positions of the measures and their aggregate
+		int[] positions = new int[inputMeasures.size()];
+		Aggregate[] aggregates = new Aggregate[inputMeasures.size()];
+		for (int i=0;i<inputMeasures.size();i++) {
+			Measure measure = inputMeasures.get(i).getMeasure();
+			positions[i] = input.getDataIndirection(i);
+			if (measures.contains(measure)) {
+				aggregates[i] = getAggregate(measure);
+				if (aggregates[i]==null) {
+					throw new ScopeException("unable to rollup the measure '"+measure.getName()+"': it is not associative");
+				}
+			}
+		}
+		// aggregate the rows
+		LinkedHashMap<List<Object>, Object[]> groups = new LinkedHashMap<>();
+		for (RawRow row : input.getRows()) {
+			Object[] key = new Object[keys.length];
+			for (int i=0;i<keys.length;i++) {
+				key[i] = row.data[keys[i]];
+			}
+			List<Object> groupKey = Arrays.asList(key);
+			Object[] group = groups.get(groupKey);
+			if (group==null) {
+				group = row.data.clone();
+				for (int position : others) {
+					group[position] = null;
+				}
+				for (int i=0;i<positions.length;i++) {
+					if (aggregates[i]==null) {
+						group[positions[i]] = null;
+					}
+				}
+				groups.put(groupKey, group);
+			} else {
+				for (int i=0;i<positions.length;i++) {
+					if (aggregates[i]!=null) {
+						group[positions[i]] = aggregate(aggregates[i], group[positions[i]], row.data[positions[i]]);
+					}
+				}
+			}
+		}
+		DataMatrix result = new DataMatrix(input);
+		for (Object[] group : groups.values()) {
+			result.pushRow(new RawRow(group));
+		}
+		return result;
+	}
+
+	private Object aggregate(Aggregate aggregate, Object left, Object right) throws ScopeException {
+		if (left==null) {
+			return right;
+		} else if (right==null) {
+			return left;
+		}
+		switch (aggregate) {
+		case SUM:
+			return sum(left, right);
+		case MIN:
+			return compare(left, right)<=0?left:right;
+		case MAX:
+			return compare(left, right)>=0?left:right;
+		default:
+			throw new ScopeException("unsupported aggregate "+aggregate);
+		}
+	}
+
+	private Object sum(Object left, Object right) throws ScopeException {
+		if (!(left instanceof Number) || !(right instanceof Number)) {
+			throw new ScopeException("unable to rollup a non-numeric value");
+		}
+		if (left instanceof BigDecimal || right instanceof BigDecimal) {
+			return toBigDecimal((Number)left).add(toBigDecimal((Number)right));
+		} else if (left instanceof Double || left instanceof Float || right instanceof Double || right instanceof Float) {
+			return ((Number)left).doubleValue()+((Number)right).doubleValue();
+		} else if (left instanceof BigInteger || right instanceof BigInteger) {
+			return toBigInteger((Number)left).add(toBigInteger((Number)right));
+		} else if (left instanceof Integer && right instanceof Integer) {
+			long sum = ((Integer)left).longValue()+((Integer)right).longValue();
+			if (sum>=Integer.MIN_VALUE && sum<=Integer.MAX_VALUE) {
+				return (int)sum;
+			} else {
+				return sum;
+			}
+		} else {
+			long l = ((Number)left).longValue();
+			long r = ((Number)right).longValue();
+			long sum = l+r;
+			if (((l^sum)&(r^sum))<0) {
+				// overflow
+				return BigInteger.valueOf(l).add(BigInteger.valueOf(r));
+			}
+			return sum;
+		}
+	}
+
+	private BigDecimal toBigDecimal(Number number) {
+		if (number instanceof BigDecimal) {
+			return (BigDecimal)number;
+		} else if (number instanceof BigInteger) {
+			return new BigDecimal((BigInteger)number);
+		} else if (number instanceof Double || number instanceof Float) {
+			return BigDecimal.valueOf(number.doubleValue());
+		} else {
+			return BigDecimal.valueOf(number.longValue());
+		}
+	}
+
+	private BigInteger toBigInteger(Number number) {
+		if (number instanceof BigInteger) {
+			return (BigInteger)number;
+		} else {
+			return BigInteger.valueOf(number.longValue());
+		}
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private int compare(Object left, Object right) {
+		if (left instanceof Number && right instanceof Number && !left.getClass().equals(right.getClass())) {
+			return toBigDecimal((Number)left).compareTo(toBigDecimal((Number)right));
+		} else if (left instanceof Comparable && left.getClass().isInstance(right)) {
+			return ((Comparable)left).compareTo(right);
+		} else {
+			return left.toString().compareTo(right.toString());
+		}
+	}
+
+}
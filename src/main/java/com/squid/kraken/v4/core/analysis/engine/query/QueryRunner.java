@@ -104,14 +104,21 @@ public class QueryRunner {
 					result = null;
 				}
 				if (result != null) {
-					if (!query.getOrderBy().isEmpty()) {
-						query.addPostProcessing(new DataMatrixTransformOrderBy(query.getOrderBy()));
-					}
-					if (query.getSelect().getStatement().hasLimitValue()
-							|| query.getSelect().getStatement().hasOffsetValue()) {
-						query.addPostProcessing(
-								new DataMatrixTransformTruncate(query.getSelect().getStatement().getLimitValue(),
-										query.getSelect().getStatement().getOffsetValue()));
+					if (!query.getOrderBy().isEmpty() && query.getSelect().getStatement().hasLimitValue()) {
+						// only sort the top rows
+						query.addPostProcessing(new DataMatrixTransformOrderBy(query.getOrderBy(),
+								query.getSelect().getStatement().getLimitValue(),
+								query.getSelect().getStatement().getOffsetValue()));
+					} else {
+						if (!query.getOrderBy().isEmpty()) {
+							query.addPostProcessing(new DataMatrixTransformOrderBy(query.getOrderBy()));
+						}
+						if (query.getSelect().getStatement().hasLimitValue()
+								|| query.getSelect().getStatement().hasOffsetValue()) {
+							query.addPostProcessing(
+									new DataMatrixTransformTruncate(query.getSelect().getStatement().getLimitValue(),
+											query.getSelect().getStatement().getOffsetValue()));
+						}
 					}
 				}
 			}
@@ -62,6 +62,8 @@ public class DashboardAnalysis extends Dashboard {
 
 	private boolean lazy = false;
 
+	private int maxRows = -1;// the caller only reads the first rows, -1 to read all the rows
+
 	private String jobId;
 
 
@@ -209,6 +211,19 @@ public class DashboardAnalysis extends Dashboard {
 		return this.lazy;
 	}
 
+	/**
+	 * the caller will only read the first rows of the result; this is only a
+	 * hint, the result may still contain more rows
+	 * @param maxRows
+	 */
+	public void setMaxRows(int maxRows) {
+		this.maxRows = maxRows;
+	}
+
+	public int getMaxRows() {
+		return maxRows;
+	}
+
 	public String getJobId(){
 		return this.jobId;
 	}
@@ -1,18 +1,24 @@
 package com.squid.kraken.v4.export;
 
-import java.io.IOException;
+import java.util.LinkedList;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.squid.core.export.ICol;
+import com.squid.kraken.v4.caching.redis.IRedisCacheProxy;
 import com.squid.kraken.v4.caching.redis.RedisCacheException;
 import com.squid.kraken.v4.caching.redis.RedisCacheProxy;
+import com.squid.kraken.v4.caching.redis.RedisSubscription;
 import com.squid.kraken.v4.caching.redis.datastruct.RawMatrix;
 import com.squid.kraken.v4.caching.redis.datastruct.RedisCacheValue;
 import com.squid.kraken.v4.caching.redis.datastruct.RedisCacheValuesList;
@@ -20,88 +26,170 @@ import com.squid.kraken.v4.core.analysis.engine.processor.ComputingException;
 
 public class ChunkedRawMatrixBaseSource {
 
+	// fallback delay to re-check the chunk list if a notification is lost
+	private static final long NOTIFICATION_TIMEOUT_MS = 10000;
+
+	private static int prefetchPoolSize = 4;
+
+	private static int readAheadDepth = 2;
+
+	// shared by all the exports
+	private static ExecutorService prefetchPool = null;
+
 	protected RawMatrix currentChunk;
 
 	protected int nbChunksRead = 0;
 
+	// number of chunks submitted to the prefetch pool
+	private int nbChunksRequested = 0;
+
 	protected String key;
 	protected RedisCacheValuesList refList;
-	protected Future<RawMatrix> processingQuery;
 
-	protected ExecutorService executor;
+	// chunks being fetched, in order
+	private LinkedList<Future<RawMatrix>> prefetched = new LinkedList<Future<RawMatrix>>();
 
 	static final Logger logger = LoggerFactory.getLogger(ChunkedRawMatrixBaseSource.class);
 
+	public static void setPrefetchConfig(int poolSize, int depth) {
+		prefetchPoolSize = Math.max(1, poolSize);
+		readAheadDepth = Math.max(1, depth);
+	}
+
+	private static synchronized ExecutorService getPrefetchPool() {
+		if (prefetchPool == null) {
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(prefetchPoolSize, prefetchPoolSize, 60L, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+						private AtomicInteger count = new AtomicInteger(0);
+
+						@Override
+						public Thread newThread(Runnable r) {
+							Thread thread = new Thread(r, "export-chunk-prefetch-" + count.incrementAndGet());
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+			pool.allowCoreThreadTimeOut(true);
+			prefetchPool = pool;
+		}
+		return prefetchPool;
+	}
+
 	public ChunkedRawMatrixBaseSource(RedisCacheValuesList rf) throws InterruptedException, ExecutionException {
 		this.refList = rf;
 		this.key = this.refList.getRedisKey();
-		this.executor = Executors.newFixedThreadPool(1);
-
-		// get first chunk
-		processingQuery = (Future<RawMatrix>) executor.submit(new GetChunk());
-		this.currentChunk = processingQuery.get();
-
-		// launch second chunk
-		processingQuery = (Future<RawMatrix>) executor.submit(new GetChunk());
 
+		// get first chunk, and start prefetching the next ones
+		try {
+			this.currentChunk = nextChunk();
+		} catch (ComputingException e) {
+			throw new ExecutionException(e);
+		}
 	}
 
-	private String getNextChunkKey() throws ClassNotFoundException, IOException, InterruptedException {
-		if (refList.getReferenceKeys().size() > nbChunksRead) {
-			String res = refList.getReferenceKeys().get(nbChunksRead).referencedKey;
+	/**
+	 * return the next chunk in order, or null if the whole matrix has been
+	 * read. The following chunks are fetched and deserialized in parallel.
+	 * 
+	 * @return
+	 * @throws ComputingException
+	 * @throws InterruptedException
+	 */
+	protected RawMatrix nextChunk() throws ComputingException, InterruptedException {
+		readAhead();
+		if (prefetched.isEmpty()) {
+			// all known chunks have been read, wait for the worker
+			String chunkKey = waitForChunkKey(nbChunksRequested);
+			if (chunkKey == null) {
+				logger.info("Full matrix retrieve from cache, " + nbChunksRead + "chunks ");
+				return null;
+			}
+			submit(chunkKey);
+		}
+		Future<RawMatrix> next = prefetched.removeFirst();
+		try {
+			RawMatrix res = next.get();
+			nbChunksRead += 1;
+			readAhead();
 			return res;
-		} else {
-			if (!refList.isDone() && !refList.isError()) {
-				boolean ok = false;
-				int waitingCount = 1;
-				while (!ok) {
-					RedisCacheValue val = RedisCacheValue.deserialize(RedisCacheProxy.getInstance().get(key));
-					if (val instanceof RedisCacheValuesList) {
-						this.refList = (RedisCacheValuesList) val;
-
-						if (this.refList.getReferenceKeys().size() > nbChunksRead) {
-							ok = true;
-						} else {
-							Thread.sleep(waitingCount * 10 * 1000);
-							waitingCount += 1;
-						}
-					} else {
-						throw new RedisCacheException("could not retrieve chunk list");
-					}
-				}
-				String res = refList.getReferenceKeys().get(nbChunksRead).referencedKey;
-				return res;
+		} catch (ExecutionException e) {
+			cancelPrefetch();
+			if (e.getCause() instanceof ComputingException) {
+				throw (ComputingException) e.getCause();
 			} else {
-				return null;
+				throw new ComputingException("Error retrieving chunk from redis: " + e.getCause());
 			}
 		}
+	}
 
+	/**
+	 * submit the known chunks up to the read-ahead depth
+	 */
+	private void readAhead() {
+		while (prefetched.size() < readAheadDepth && refList.getReferenceKeys().size() > nbChunksRequested) {
+			submit(refList.getReferenceKeys().get(nbChunksRequested).referencedKey);
+		}
 	}
 
-	public class GetChunk implements Callable<RawMatrix> {
+	private void submit(String chunkKey) {
+		prefetched.add(getPrefetchPool().submit(new GetChunk(chunkKey)));
+		nbChunksRequested += 1;
+	}
 
-		public GetChunk() {
+	/**
+	 * stop fetching chunks, e.g. if the export failed
+	 */
+	protected void cancelPrefetch() {
+		for (Future<RawMatrix> future : prefetched) {
+			future.cancel(true);
 		}
+		prefetched.clear();
+	}
 
-		public RawMatrix call() throws ComputingException {
-			String chunkKey = "";
-			try {
-				chunkKey = getNextChunkKey();
-				if (chunkKey == null) {
-					logger.info("Full matrix retrieve from cache, " + nbChunksRead + "chunks ");
+	/**
+	 * wait until the chunk at this index is available; the worker notifies
+	 * every update of the chunk list
+	 * 
+	 * @return the chunk key or null if there is no more chunk
+	 */
+	private String waitForChunkKey(int index) throws ComputingException, InterruptedException {
+		IRedisCacheProxy redis = RedisCacheProxy.getInstance();
+		try (RedisSubscription subscription = redis.subscribe(RedisCacheValuesList.getNotificationChannel(key))) {
+			while (true) {
+				if (refList.getReferenceKeys().size() > index) {
+					return refList.getReferenceKeys().get(index).referencedKey;
+				}
+				if (refList.isDone() || refList.isError()) {
 					return null;
+				}
+				long count = subscription.getCount();
+				RedisCacheValue val = redis.getRawOrList(key);
+				if (val instanceof RedisCacheValuesList) {
+					this.refList = (RedisCacheValuesList) val;
 				} else {
-					RawMatrix res = RedisCacheProxy.getInstance().getRawMatrix(chunkKey);
-
-					if (res == null) {
-						throw new ComputingException("Error retrieving chunk " + chunkKey + " from redis");
-					} else {
-						nbChunksRead += 1;
-						return res;
-					}
+					throw new RedisCacheException("could not retrieve chunk list");
+				}
+				if (refList.getReferenceKeys().size() <= index && refList.isOngoing()) {
+					subscription.await(count, NOTIFICATION_TIMEOUT_MS);
 				}
-			} catch (ClassNotFoundException | IOException | InterruptedException e) {
+			}
+		}
+	}
+
+	public class GetChunk implements Callable<RawMatrix> {
+
+		private String chunkKey;
+
+		public GetChunk(String chunkKey) {
+			this.chunkKey = chunkKey;
+		}
+
+		public RawMatrix call() throws ComputingException {
+			RawMatrix res = RedisCacheProxy.getInstance().getRawMatrix(chunkKey);
+			if (res == null) {
 				throw new ComputingException("Error retrieving chunk " + chunkKey + " from redis");
+			} else {
+				return res;
 			}
 		}
 	}
@@ -2,7 +2,6 @@ package com.squid.kraken.v4.export;
 
 import java.util.Iterator;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
 
 import org.apache.avro.Schema;
 import org.slf4j.Logger;
@@ -11,6 +10,7 @@ import org.slf4j.LoggerFactory;
 import com.squid.core.export.IRawExportSource;
 import com.squid.kraken.v4.caching.redis.datastruct.RawMatrix;
 import com.squid.kraken.v4.caching.redis.datastruct.RedisCacheValuesList;
+import com.squid.kraken.v4.core.analysis.engine.processor.ComputingException;
 
 public class ChunkedRawMatrixExportSource extends ChunkedRawMatrixBaseSource implements IRawExportSource{
 
@@ -96,15 +96,15 @@ public class ChunkedRawMatrixExportSource extends ChunkedRawMatrixBaseSource imp
 		@Override
 		public Object[] next() {			
 			Object[] res;
-			res = currentChunk.getRows().get(cursor).data;
+			res = currentChunk.getRowData(cursor);
 			cursor++;
 			
-			if (cursor>= currentChunk.getRows().size()){
+			if (cursor>= currentChunk.getRowCount()){
 				// get next Chunk
 				RawMatrix next;
 				try {
-					next = processingQuery.get();
-				} catch (InterruptedException | ExecutionException e) {
+					next = nextChunk();
+				} catch (InterruptedException | ComputingException e) {
 					logger.info("Error retrieving new chunk " + e.toString());
 					next = null;
 				}
@@ -113,9 +113,6 @@ public class ChunkedRawMatrixExportSource extends ChunkedRawMatrixBaseSource imp
 				}else{
 					currentChunk = next;
 					cursor =0 ;
-					// launch chunk retrieval in parallel ;
-					GetChunk getNextChunk = new GetChunk();
-					processingQuery = (Future<RawMatrix>) executor.submit(getNextChunk);
 				}				 
 			}
 			return res;
@@ -5,7 +5,6 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -15,6 +14,7 @@ import com.squid.core.export.IRow;
 import com.squid.core.export.IStructExportSource;
 import com.squid.kraken.v4.caching.redis.datastruct.RawMatrix;
 import com.squid.kraken.v4.caching.redis.datastruct.RedisCacheValuesList;
+import com.squid.kraken.v4.core.analysis.engine.processor.ComputingException;
 import com.squid.kraken.v4.core.analysis.engine.query.mapping.AxisMapping;
 import com.squid.kraken.v4.core.analysis.engine.query.mapping.MeasureMapping;
 import com.squid.kraken.v4.core.analysis.engine.query.mapping.QueryMapper;
@@ -202,26 +202,23 @@ public class ChunkedRawMatrixStructExportSource extends ChunkedRawMatrixBaseSour
 			@Override
 			public IRow next() {
 				count+=1;
-				Object[] rr = currentChunk.getRows().get(cursor).data;
+				Object[] rr = currentChunk.getRowData(cursor);
 				cursor++;
 
-				if (cursor>= currentChunk.getRows().size()){
+				if (cursor>= currentChunk.getRowCount()){
 					// get next Chunk
 					RawMatrix next;
 					try {
-						next = processingQuery.get();
-					} catch (InterruptedException | ExecutionException e) {
+						next = nextChunk();
+					} catch (InterruptedException | ComputingException e) {
 						logger.info("Error retrieving new chunk " + e.toString());
-						next= null;
+						next = null;
 					}
 					if (next == null){
 						done = true;
 					}else{
 						currentChunk = next;
 						cursor =0 ;
-						// launch chunk retrieval in parallel ;
-						GetChunk getNextChunk = new GetChunk();
-						processingQuery = (Future<RawMatrix>) executor.submit(getNextChunk);
 					}				 
 				}
 				if (count%10000 == 0) {
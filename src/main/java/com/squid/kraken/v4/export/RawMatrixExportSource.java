@@ -93,13 +93,13 @@ public class RawMatrixExportSource implements IRawExportSource {
 		
 		@Override
 		public boolean hasNext() {
-			return cursor< matrix.getRows().size() ; 
+			return cursor< matrix.getRowCount() ; 
 		}
 
 		@Override
 		public Object[] next() {
 			 if(this.hasNext()) {
-				 Object[] res =matrix.getRows().get(cursor).data;
+				 Object[] res =matrix.getRowData(cursor);
 				 cursor+=1;
 				 return res;
 			}else{
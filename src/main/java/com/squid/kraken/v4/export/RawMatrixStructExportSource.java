@@ -210,7 +210,7 @@ public class RawMatrixStructExportSource implements IStructExportSource{
 			int count = 0;
 
 			public RowIterator() throws SQLException{
-				if (rm.getRows().size() ==0 ){
+				if (rm.getRowCount() ==0 ){
 					done = true;
 				}
 			}
@@ -223,10 +223,10 @@ public class RawMatrixStructExportSource implements IStructExportSource{
 
 			@Override
 			public IRow next() {
-				Object[] rr = rm.getRows().get(count).data;
+				Object[] rr = rm.getRowData(count);
 				count++;
 
-				if (count>= rm.getRows().size()){
+				if (count>= rm.getRowCount()){
 					done = true;					
 				}
 				if (count%10000 == 0) {
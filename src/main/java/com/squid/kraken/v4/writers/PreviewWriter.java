@@ -38,9 +38,19 @@ public class PreviewWriter extends QueryWriter {
 
 	private DataMatrix dm = null;
 
+	private int maxRows = -1;
+
 	public PreviewWriter() {
 	}
 
+	/**
+	 * only read the first rows of a chunked result
+	 * @param maxRows
+	 */
+	public void setMaxRows(int maxRows) {
+		this.maxRows = maxRows;
+	}
+
 	@Override
 	public void write() throws ScopeException {
 		if (val != null) {
@@ -48,7 +58,9 @@ public class PreviewWriter extends QueryWriter {
 				this.dm = new DataMatrix(db, (RawMatrix) val, mapper);
 			} else {
 				if (val instanceof RedisCacheValuesList) {
-					RawMatrix raw = RedisCacheManager.getInstance().getRawMatrix(val.getRedisKey());
+					RawMatrix raw = maxRows > 0
+							? RedisCacheManager.getInstance().getRawMatrix(val.getRedisKey(), maxRows)
+							: RedisCacheManager.getInstance().getRawMatrix(val.getRedisKey());
 					this.dm = new DataMatrix(db, raw, mapper);
 				}
 			}